@@ -0,0 +1,70 @@
+package com.example.javabigo.erasure;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of encoding many small stripes one at a time or as a batch.
+ *
+ * Encodes 1000 payload-sized 4+3 stripes per invocation, either with
+ * one encodeParity() call each, or with one encodeParityBatch() call.
+ * Scores are stripes per microsecond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchEncodeBenchmark {
+
+    private static final int DATA_COUNT = 4;
+    private static final int PARITY_COUNT = 3;
+    private static final int STRIPE_COUNT = 1000;
+
+    @Param({"8", "30", "256"})
+    public int shardSize;
+
+    private final ReedSolomon codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+    private byte [] [] [] stripes;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0);
+        stripes = new byte [STRIPE_COUNT] [DATA_COUNT + PARITY_COUNT] [shardSize];
+        for (byte [] [] stripe : stripes) {
+            for (int i = 0; i < DATA_COUNT; i++) {
+                random.nextBytes(stripe[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STRIPE_COUNT)
+    public byte [] [] [] encodeOneAtATime() {
+        for (byte [] [] stripe : stripes) {
+            codec.encodeParity(stripe, 0, shardSize);
+        }
+        return stripes;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STRIPE_COUNT)
+    public byte [] [] [] encodeBatch() {
+        codec.encodeParityBatch(stripes);
+        return stripes;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.javabigo.erasure;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of Reed-Solomon encoding and parity checking.
+ *
+ * Runs every coding loop over each geometry and shard size.  The
+ * geometries are the one we store payloads with (4+3), and the wide one
+ * the original benchmark used (17+3).  The shard sizes go from about
+ * the size of one stored payload up to 200 KB.
+ *
+ * For large shards, the set of buffers cycled through is twice as big
+ * as the L3 cache in a Xeon processor, so it should simulate the case
+ * where data has been read in from a socket.
+ *
+ * Scores are in operations per microsecond, where one operation is one
+ * stripe.  Multiply by dataCount * shardSize for bytes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodingLoopBenchmark {
+
+    private static final int PROCESSOR_CACHE_SIZE = 10 * 1024 * 1024;
+    private static final int TWICE_PROCESSOR_CACHE_SIZE = 2 * PROCESSOR_CACHE_SIZE;
+
+    @Param({
+            "ByteInputOutputExpCodingLoop",
+            "ByteInputOutputTableCodingLoop",
+            "ByteOutputInputExpCodingLoop",
+            "ByteOutputInputTableCodingLoop",
+            "ByteOutputInputXorCodingLoop",
+            "InputByteOutputExpCodingLoop",
+            "InputByteOutputTableCodingLoop",
+            "InputOutputByteExpCodingLoop",
+            "InputOutputByteTableCodingLoop",
+            "InputOutputByteSwarCodingLoop",
+            "InputOutputByteVectorCodingLoop",
+            "OutputByteInputExpCodingLoop",
+            "OutputByteInputTableCodingLoop",
+            "OutputInputByteExpCodingLoop",
+            "OutputInputByteTableCodingLoop",
+            "TiledCodingLoop",
+    })
+    public String codingLoop;
+
+    @Param({"4+3", "17+3"})
+    public String geometry;
+
+    @Param({"30", "4096", "200000"})
+    public int shardSize;
+
+    private ReedSolomon codec;
+    private byte [] [] [] bufferSets;
+    private byte [] tempBuffer;
+    private int nextBuffer;
+
+    @Setup
+    public void setUp() {
+        String [] counts = geometry.split("\\+");
+        int dataCount = Integer.parseInt(counts[0]);
+        int parityCount = Integer.parseInt(counts[1]);
+        codec = new ReedSolomon(dataCount, parityCount, CodingLoopCalibrator.forName(codingLoop));
+
+        // Small shards are left in cache, the way they are just after a
+        // payload has been serialized.
+        int numberOfBufferSets = TWICE_PROCESSOR_CACHE_SIZE / dataCount / shardSize + 1;
+        numberOfBufferSets = Math.min(numberOfBufferSets, 64);
+        Random random = new Random(0);
+        bufferSets = new byte [numberOfBufferSets] [] [];
+        for (int i = 0; i < numberOfBufferSets; i++) {
+            bufferSets[i] = new byte [dataCount + parityCount] [shardSize];
+            for (int iShard = 0; iShard < dataCount; iShard++) {
+                random.nextBytes(bufferSets[i][iShard]);
+            }
+            codec.encodeParity(bufferSets[i], 0, shardSize);
+        }
+        tempBuffer = new byte [shardSize];
+        nextBuffer = 0;
+    }
+
+    @Benchmark
+    public byte [] [] encodeParity() {
+        byte [] [] shards = nextBufferSet();
+        codec.encodeParity(shards, 0, shardSize);
+        return shards;
+    }
+
+    @Benchmark
+    public boolean isParityCorrect() {
+        byte [] [] shards = nextBufferSet();
+        if (!codec.isParityCorrect(shards, 0, shardSize, tempBuffer)) {
+            // if the parity is not correct, it will throw off the
+            // benchmarking because it may return early.
+            throw new IllegalStateException("parity not correct");
+        }
+        return true;
+    }
+
+    private byte [] [] nextBufferSet() {
+        byte [] [] result = bufferSets[nextBuffer];
+        nextBuffer = (nextBuffer + 1) % bufferSets.length;
+        return result;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.javabigo.erasure;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the two layouts of the Galois multiplication table.
+ *
+ * Multiplies a shard by a different coefficient for each 4 KB, XORing
+ * into an output, once with the byte[256][256] table and once with the
+ * flat 64 KB table.  The "perByte" versions look up the coefficient's
+ * row for every byte, the way the Byte* coding loops do; the others
+ * find the row once per run of bytes, like InputOutputByteTable.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GaloisTableBenchmark {
+
+    private static final int RUN_LENGTH = 4096;
+
+    @Param({"4096", "200000"})
+    public int shardSize;
+
+    private byte [] input;
+    private byte [] output;
+    private byte [] coefficients;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0);
+        input = new byte [shardSize];
+        output = new byte [shardSize];
+        coefficients = new byte [(shardSize + RUN_LENGTH - 1) / RUN_LENGTH];
+        random.nextBytes(input);
+        random.nextBytes(coefficients);
+    }
+
+    @Benchmark
+    public byte [] twoLevelTable() {
+        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        for (int start = 0; start < shardSize; start += RUN_LENGTH) {
+            final byte [] multTableRow = table[coefficients[start / RUN_LENGTH] & 0xFF];
+            final int end = Math.min(start + RUN_LENGTH, shardSize);
+            for (int iByte = start; iByte < end; iByte++) {
+                output[iByte] ^= multTableRow[input[iByte] & 0xFF];
+            }
+        }
+        return output;
+    }
+
+    @Benchmark
+    public byte [] flatTable() {
+        final byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
+        for (int start = 0; start < shardSize; start += RUN_LENGTH) {
+            final int multTableRow = (coefficients[start / RUN_LENGTH] & 0xFF) << 8;
+            final int end = Math.min(start + RUN_LENGTH, shardSize);
+            for (int iByte = start; iByte < end; iByte++) {
+                output[iByte] ^= table[multTableRow | (input[iByte] & 0xFF)];
+            }
+        }
+        return output;
+    }
+
+    @Benchmark
+    public byte [] twoLevelTablePerByte() {
+        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        for (int iByte = 0; iByte < shardSize; iByte++) {
+            output[iByte] ^= table[coefficients[iByte / RUN_LENGTH] & 0xFF][input[iByte] & 0xFF];
+        }
+        return output;
+    }
+
+    @Benchmark
+    public byte [] flatTablePerByte() {
+        final byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
+        for (int iByte = 0; iByte < shardSize; iByte++) {
+            output[iByte] ^= table[((coefficients[iByte / RUN_LENGTH] & 0xFF) << 8) | (input[iByte] & 0xFF)];
+        }
+        return output;
+    }
+}
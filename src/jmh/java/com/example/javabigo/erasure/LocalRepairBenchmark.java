@@ -0,0 +1,76 @@
+package com.example.javabigo.erasure;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of rebuilding one lost data shard, with the 7 shards the
+ * service stores: Reed-Solomon 4+3, which reads 4 shards, against an
+ * LRC with 2 groups of 2 and 1 global parity, which reads 2.
+ *
+ * Only the coding is measured here.  In the service, the bigger saving
+ * is fetching half as many shards from peers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocalRepairBenchmark {
+
+    @Param({"30", "200000"})
+    public int shardSize;
+
+    private ReedSolomon reedSolomon;
+    private byte [] [] rsShards;
+    private boolean [] rsPresent;
+
+    private LocalReconstructionCode lrc;
+    private byte [] [] lrcShards;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0);
+
+        reedSolomon = ReedSolomon.create(4, 3);
+        reedSolomon.precomputeDecodeMatrices();
+        rsShards = new byte [7] [shardSize];
+        for (int i = 0; i < 4; i++) {
+            random.nextBytes(rsShards[i]);
+        }
+        reedSolomon.encodeParity(rsShards, 0, shardSize);
+        rsPresent = new boolean [] { false, true, true, true, true, true, true };
+
+        lrc = new LocalReconstructionCode(4, 2, 1);
+        lrcShards = new byte [7] [shardSize];
+        for (int i = 0; i < 4; i++) {
+            lrcShards[i] = rsShards[i].clone();
+        }
+        lrc.encodeParity(lrcShards, 0, shardSize);
+    }
+
+    @Benchmark
+    public byte [] reedSolomonRepair() {
+        reedSolomon.reconstruct(rsShards, rsPresent, new int [] { 0 }, 0, shardSize);
+        return rsShards[0];
+    }
+
+    @Benchmark
+    public byte [] localRepair() {
+        lrc.repairShard(lrcShards, 0, 0, shardSize);
+        return lrcShards[0];
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.javabigo.erasure;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of multi-threaded Reed-Solomon encoding.
+ *
+ * Encodes one big stripe at a time, split across a pool of the given
+ * size, which shows how one large object scales with cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelEncodeBenchmark {
+
+    private static final int LARGE_SHARD_SIZE = 4 * 1024 * 1024;
+
+    @Param({"4+3", "17+3"})
+    public String geometry;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private ReedSolomon codec;
+    private ForkJoinPool pool;
+    private byte [] [] largeShards;
+    private int dataCount;
+    private int totalCount;
+
+    @Setup
+    public void setUp() {
+        String [] counts = geometry.split("\\+");
+        dataCount = Integer.parseInt(counts[0]);
+        totalCount = dataCount + Integer.parseInt(counts[1]);
+        codec = ReedSolomon.create(dataCount, totalCount - dataCount);
+        pool = new ForkJoinPool(parallelism);
+        largeShards = newShards(LARGE_SHARD_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public byte [] [] largeStripe() {
+        codec.encodeParity(largeShards, 0, LARGE_SHARD_SIZE, pool);
+        return largeShards;
+    }
+
+    private byte [] [] newShards(int shardSize) {
+        Random random = new Random(0);
+        byte [] [] result = new byte [totalCount] [shardSize];
+        for (int i = 0; i < dataCount; i++) {
+            random.nextBytes(result[i]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.javabigo.erasure;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of one Reed-Solomon codec shared by many threads.
+ *
+ * Four benchmark threads each encode their own small 4+3 stripe with
+ * one shared codec, the way the service does under concurrent writes.
+ * Compare with the single-threaded score of CodingLoopBenchmark to see
+ * how well it scales.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class SharedCodecBenchmark {
+
+    private static final int DATA_COUNT = 4;
+    private static final int PARITY_COUNT = 3;
+    private static final int SHARD_SIZE = 30;
+
+    private final ReedSolomon codec = ReedSolomonRegistry.get(DATA_COUNT, PARITY_COUNT);
+
+    @Benchmark
+    public byte [] [] encodeParity(Stripe stripe) {
+        codec.encodeParity(stripe.shards, 0, SHARD_SIZE);
+        return stripe.shards;
+    }
+
+    /**
+     * Each benchmark thread has its own stripe.
+     */
+    @State(Scope.Thread)
+    public static class Stripe {
+        byte [] [] shards;
+
+        @Setup
+        public void setUp() {
+            Random random = new Random();
+            shards = new byte [DATA_COUNT + PARITY_COUNT] [SHARD_SIZE];
+            for (int i = 0; i < DATA_COUNT; i++) {
+                random.nextBytes(shards[i]);
+            }
+        }
+    }
+}
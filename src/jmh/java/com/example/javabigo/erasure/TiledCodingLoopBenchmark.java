@@ -0,0 +1,66 @@
+package com.example.javabigo.erasure;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for picking the block size of TiledCodingLoop.
+ *
+ * Encodes one 1 MB-per-shard stripe with each inner loop and block
+ * size.  Compare with the untiled inner loop in CodingLoopBenchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TiledCodingLoopBenchmark {
+
+    private static final int SHARD_SIZE = 1024 * 1024;
+
+    @Param({"InputOutputByteTableCodingLoop", "InputOutputByteVectorCodingLoop"})
+    public String innerLoop;
+
+    @Param({"4+3", "17+3"})
+    public String geometry;
+
+    @Param({"512", "1024", "2048", "4096", "8192", "16384"})
+    public int blockSize;
+
+    private ReedSolomon codec;
+    private byte [] [] shards;
+
+    @Setup
+    public void setUp() {
+        String [] counts = geometry.split("\\+");
+        int dataCount = Integer.parseInt(counts[0]);
+        int parityCount = Integer.parseInt(counts[1]);
+        CodingLoop codingLoop = new TiledCodingLoop(CodingLoopCalibrator.forName(innerLoop), blockSize);
+        codec = new ReedSolomon(dataCount, parityCount, codingLoop);
+
+        Random random = new Random(0);
+        shards = new byte [dataCount + parityCount] [SHARD_SIZE];
+        for (int i = 0; i < dataCount; i++) {
+            random.nextBytes(shards[i]);
+        }
+    }
+
+    @Benchmark
+    public byte [] [] encodeParity() {
+        codec.encodeParity(shards, 0, SHARD_SIZE);
+        return shards;
+    }
+}
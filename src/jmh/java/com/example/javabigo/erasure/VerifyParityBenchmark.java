@@ -0,0 +1,103 @@
+package com.example.javabigo.erasure;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of Reed-Solomon parity verification.
+ *
+ * Compares the original check through the coding loop, which needs a
+ * temp buffer, with the block-at-a-time verification, on one thread and
+ * in parallel.  The corrupt stripe has a bad byte near the start, to
+ * show the cost of an early exit, and encodeParity is there for scale.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VerifyParityBenchmark {
+
+    private static final int DATA_COUNT = 10;
+    private static final int PARITY_COUNT = 4;
+
+    @Param({"4096", "1048576"})
+    public int shardSize;
+
+    private ReedSolomon codec;
+    private byte [] [] shards;
+    private byte [] [] corruptShards;
+    private byte [] tempBuffer;
+    private ExecutorService executor;
+
+    @Setup
+    public void setUp() {
+        codec = ReedSolomon.create(DATA_COUNT, PARITY_COUNT);
+        Random random = new Random(0);
+        shards = new byte [DATA_COUNT + PARITY_COUNT] [shardSize];
+        for (int i = 0; i < DATA_COUNT; i++) {
+            random.nextBytes(shards[i]);
+        }
+        codec.encodeParity(shards, 0, shardSize);
+        corruptShards = new byte [DATA_COUNT + PARITY_COUNT] [];
+        for (int i = 0; i < shards.length; i++) {
+            corruptShards[i] = shards[i].clone();
+        }
+        corruptShards[DATA_COUNT][10] ^= 1;
+        tempBuffer = new byte [shardSize];
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public boolean checkWithTempBuffer() {
+        return codec.isParityCorrect(shards, 0, shardSize, tempBuffer);
+    }
+
+    @Benchmark
+    public boolean verifyBlocks() {
+        return codec.isParityCorrect(shards, 0, shardSize);
+    }
+
+    @Benchmark
+    public boolean verifyBlocksParallel() {
+        return codec.isParityCorrectParallel(shards, 0, shardSize, executor);
+    }
+
+    @Benchmark
+    public boolean verifyBlocksCorrupt() {
+        return codec.isParityCorrect(corruptShards, 0, shardSize);
+    }
+
+    @Benchmark
+    public List<ReedSolomon.ParityMismatch> findMismatchesCorrupt() {
+        return codec.findParityMismatches(corruptShards, 0, shardSize, executor);
+    }
+
+    @Benchmark
+    public byte [] [] encodeParity() {
+        codec.encodeParity(shards, 0, shardSize);
+        return shards;
+    }
+}
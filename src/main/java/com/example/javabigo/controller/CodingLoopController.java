@@ -0,0 +1,51 @@
+package com.example.javabigo.controller;
+
+import com.example.javabigo.service.CodingLoopService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/erasure/coding-loop")
+public class CodingLoopController {
+
+    private final CodingLoopService codingLoopService;
+
+    @Autowired
+    public CodingLoopController(CodingLoopService codingLoopService) {
+        this.codingLoopService = codingLoopService;
+    }
+
+    @GetMapping
+    public ResponseEntity<?> getCodingLoop() {
+        return ResponseEntity.ok(generateResponse());
+    }
+
+    @PutMapping("/{name}")
+    public ResponseEntity<?> overrideCodingLoop(@PathVariable String name) {
+        try {
+            codingLoopService.override(name);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        }
+        return ResponseEntity.ok(generateResponse());
+    }
+
+    @PostMapping("/calibrate")
+    public ResponseEntity<?> calibrate() {
+        codingLoopService.recalibrate();
+        return ResponseEntity.ok(generateResponse());
+    }
+
+    private Map<String, Object> generateResponse() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("coding_loop", codingLoopService.getSelectedName());
+        response.put("source", codingLoopService.getSource());
+        response.put("geometry", codingLoopService.getGeometryKey());
+        return response;
+    }
+}
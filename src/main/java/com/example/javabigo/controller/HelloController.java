@@ -3,6 +3,7 @@ package com.example.javabigo.controller;
 import com.example.javabigo.Payload;
 import com.example.javabigo.service.BigoService;
 import com.example.javabigo.service.ReplicationService;
+import com.example.javabigo.service.StoragePolicyService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
@@ -22,18 +23,22 @@ public class HelloController {
     private final String firstNodeIp;
     private final String currentNodeIp;
     private final ReplicationService replicationService;
+    private final StoragePolicyService storagePolicyService;
     private final BigoService bigoService;
     private final String redirectUrl;
 
     @Autowired
-    public HelloController(ReplicationService replicationService, BigoService bigoService, @Value("${current.node.ip}") String currentNodeIp,
+    public HelloController(ReplicationService replicationService, StoragePolicyService storagePolicyService,
+                           BigoService bigoService, @Value("${current.node.ip}") String currentNodeIp,
                            @Value("${all.node.ips}") String allNodeIps, @Value("${server.port}") String httpServerPort) {
         List<String> allNodes = Arrays.stream(allNodeIps.split(","))
                 .map(String::trim)
+                .filter(ip -> !ip.isEmpty())
                 .toList();
         this.currentNodeIp = currentNodeIp;
         this.firstNodeIp = allNodes.getFirst();
         this.replicationService = replicationService;
+        this.storagePolicyService = storagePolicyService;
         this.bigoService = bigoService;
         this.redirectUrl = "http://" + allNodes.getFirst() + ":" + httpServerPort + "/";
     }
@@ -45,7 +50,7 @@ public class HelloController {
             return new ResponseEntity<>(HttpStatus.OK);
         }
         try {
-            Payload result = replicationService.getData(locationId, false);
+            Payload result = storagePolicyService.getData(locationId);
 
             if (result == null) {
                 System.out.println("Data not found");
@@ -72,7 +77,7 @@ public class HelloController {
             return new ResponseEntity<>(headers, HttpStatus.TEMPORARY_REDIRECT);
         }
 
-        replicationService.saveData(locationId, payload);
+        storagePolicyService.saveData(locationId, payload);
         return ResponseEntity.status(HttpStatus.CREATED).build();
     }
 
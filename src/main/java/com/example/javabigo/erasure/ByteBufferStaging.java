@@ -0,0 +1,47 @@
+package com.example.javabigo.erasure;
+
+/**
+ * Staging arrays for the default ByteBuffer version of
+ * CodingLoop.codeSomeShards(), kept per thread so that coding a buffer
+ * doesn't allocate.  Each array is CodingLoop.BUFFER_CHUNK_SIZE bytes.
+ */
+final class ByteBufferStaging {
+
+    private static final ThreadLocal<ByteBufferStaging> STAGING = ThreadLocal.withInitial(ByteBufferStaging::new);
+
+    private byte [] [] inputs = new byte [0] [];
+    private byte [] [] outputs = new byte [0] [];
+
+    private ByteBufferStaging() {
+    }
+
+    /**
+     * Returns at least count input staging arrays for this thread.
+     */
+    static byte [] [] inputs(int count) {
+        final ByteBufferStaging staging = STAGING.get();
+        staging.inputs = grow(staging.inputs, count);
+        return staging.inputs;
+    }
+
+    /**
+     * Returns at least count output staging arrays for this thread.
+     */
+    static byte [] [] outputs(int count) {
+        final ByteBufferStaging staging = STAGING.get();
+        staging.outputs = grow(staging.outputs, count);
+        return staging.outputs;
+    }
+
+    private static byte [] [] grow(byte [] [] arrays, int count) {
+        if (arrays.length < count) {
+            final byte [] [] grown = new byte [count] [];
+            System.arraycopy(arrays, 0, grown, 0, arrays.length);
+            for (int i = arrays.length; i < count; i++) {
+                grown[i] = new byte [CodingLoop.BUFFER_CHUNK_SIZE];
+            }
+            return grown;
+        }
+        return arrays;
+    }
+}
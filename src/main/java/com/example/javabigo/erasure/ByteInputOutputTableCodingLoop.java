@@ -15,7 +15,7 @@ public class ByteInputOutputTableCodingLoop extends CodingLoopBase {
             byte[][] outputs, int outputCount,
             int offset, int byteCount) {
 
-        final byte[][] table = Galois.MULTIPLICATION_TABLE;
+        final byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
 
         for (int iByte = offset; iByte < offset + byteCount; iByte++) {
             {
@@ -25,8 +25,8 @@ public class ByteInputOutputTableCodingLoop extends CodingLoopBase {
                 for (int iOutput = 0; iOutput < outputCount; iOutput++) {
                     final byte[] outputShard = outputs[iOutput];
                     final byte[] matrixRow = matrixRows[iOutput];
-                    final byte[] multTableRow = table[matrixRow[iInput] & 0xFF];
-                    outputShard[iByte] = multTableRow[inputByte & 0xFF];
+                    final int multTableRow = (matrixRow[iInput] & 0xFF) << 8;
+                    outputShard[iByte] = table[multTableRow | (inputByte & 0xFF)];
                 }
             }
             for (int iInput = 1; iInput < inputCount; iInput++) {
@@ -35,8 +35,8 @@ public class ByteInputOutputTableCodingLoop extends CodingLoopBase {
                 for (int iOutput = 0; iOutput < outputCount; iOutput++) {
                     final byte[] outputShard = outputs[iOutput];
                     final byte[] matrixRow = matrixRows[iOutput];
-                    final byte[] multTableRow = table[matrixRow[iInput] & 0xFF];
-                    outputShard[iByte] ^= multTableRow[inputByte & 0xFF];
+                    final int multTableRow = (matrixRow[iInput] & 0xFF) << 8;
+                    outputShard[iByte] ^= table[multTableRow | (inputByte & 0xFF)];
                 }
             }
         }
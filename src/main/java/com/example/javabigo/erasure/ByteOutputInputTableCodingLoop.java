@@ -15,13 +15,13 @@ public class ByteOutputInputTableCodingLoop extends CodingLoopBase {
             byte[][] outputs, int outputCount,
             int offset, int byteCount) {
 
-        byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
         for (int iByte = offset; iByte < offset + byteCount; iByte++) {
             for (int iOutput = 0; iOutput < outputCount; iOutput++) {
                 byte [] matrixRow = matrixRows[iOutput];
                 int value = 0;
                 for (int iInput = 0; iInput < inputCount; iInput++) {
-                    value ^= table[matrixRow[iInput] & 0xFF][inputs[iInput][iByte] & 0xFF];
+                    value ^= table[((matrixRow[iInput] & 0xFF) << 8) | (inputs[iInput][iByte] & 0xFF)];
                 }
                 outputs[iOutput][iByte] = (byte) value;
             }
@@ -0,0 +1,324 @@
+package com.example.javabigo.erasure;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Coding loop that multiplies with XORs instead of table lookups,
+ * using the bit matrix of each coefficient.
+ *
+ * Multiplying by a constant in GF(2^8) is a linear map on the 8 bits
+ * of a byte, so it is an 8 by 8 matrix of bits: bit i of the product
+ * is the XOR of the bits j of the input where the matrix has a one.
+ * This loop takes the shards 64 bytes at a time and turns each block
+ * into 8 longs, where long j holds bit j of all 64 bytes.  Then one
+ * XOR of two longs does one bit of the matrix for all 64 bytes.  The
+ * results are turned back into bytes at the end of the block, so the
+ * output is exactly the same as the table-driven loops.
+ *
+ * The XORs for each coefficient are worked out ahead of time as a
+ * schedule.  When one row of a bit matrix is close to a row already
+ * done, the schedule starts from that row's result and only XORs in
+ * the difference, which is the "smart scheduling" of Plank's Jerasure
+ * library.  The cost of a coefficient is the number of ones in its bit
+ * matrix, which is why ReedSolomon.MatrixType.CAUCHY chooses its
+ * coefficients to keep that number small.  Coefficients of 1 are just
+ * an XOR of the whole block.
+ *
+ * Loop order is block of bytes, then output, then input.  Each input
+ * block is converted once and used for every output.  The bytes left
+ * over at the end of the range are done with the multiplication table.
+ */
+public class ByteOutputInputXorCodingLoop extends CodingLoopBase {
+
+    private static final VarHandle LONGS =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * The number of bytes converted to bit planes at a time: one bit
+     * of each in every long.
+     */
+    private static final int BLOCK_SIZE = 64;
+
+    /**
+     * Schedule operations, one int each.  The low 4 bits are the source
+     * and the next 4 bits the destination, both indices into a scratch
+     * array of 16 longs: 0-7 are the bit planes of the input, and 8-15
+     * are the bit planes of the product.  ASSIGN means set instead of
+     * XOR.
+     */
+    private static final int ASSIGN = 0x100;
+
+    /**
+     * The schedule for each coefficient.
+     */
+    private static final int [] [] SCHEDULES = generateSchedules();
+
+    /**
+     * The bit planes and schedule scratch that each thread reuses from
+     * call to call, so that coding doesn't allocate.
+     */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        final int end = offset + byteCount;
+        final int blockEnd = offset + byteCount - (byteCount % BLOCK_SIZE);
+        final Scratch threadScratch = SCRATCH.get();
+        final long [] inputPlanes = threadScratch.inputPlanes(inputCount);
+        final long [] outputPlanes = threadScratch.outputPlanes;
+        final long [] scratch = threadScratch.scratch;
+
+        for (int iBlock = offset; iBlock < blockEnd; iBlock += BLOCK_SIZE) {
+            for (int iInput = 0; iInput < inputCount; iInput++) {
+                toBitPlanes(inputs[iInput], iBlock, inputPlanes, iInput * 8);
+            }
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final byte [] matrixRow = matrixRows[iOutput];
+                Arrays.fill(outputPlanes, 0L);
+                for (int iInput = 0; iInput < inputCount; iInput++) {
+                    final int coefficient = matrixRow[iInput] & 0xFF;
+                    final int base = iInput * 8;
+                    if (coefficient == 1) {
+                        for (int bit = 0; bit < 8; bit++) {
+                            outputPlanes[bit] ^= inputPlanes[base + bit];
+                        }
+                    }
+                    else if (coefficient != 0) {
+                        System.arraycopy(inputPlanes, base, scratch, 0, 8);
+                        for (int op : SCHEDULES[coefficient]) {
+                            // keep is 0 for ASSIGN, and all ones for XOR.
+                            final int destination = (op >>> 4) & 0xF;
+                            final long keep = ((op >>> 8) & 1) - 1L;
+                            scratch[destination] = (scratch[destination] & keep) ^ scratch[op & 0xF];
+                        }
+                        for (int bit = 0; bit < 8; bit++) {
+                            outputPlanes[bit] ^= scratch[8 + bit];
+                        }
+                    }
+                }
+                fromBitPlanes(outputPlanes, outputs[iOutput], iBlock);
+            }
+        }
+
+        // The leftover bytes, one at a time.
+        final byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
+        for (int iByte = blockEnd; iByte < end; iByte++) {
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final byte [] matrixRow = matrixRows[iOutput];
+                int value = 0;
+                for (int iInput = 0; iInput < inputCount; iInput++) {
+                    value ^= table[((matrixRow[iInput] & 0xFF) << 8) | (inputs[iInput][iByte] & 0xFF)];
+                }
+                outputs[iOutput][iByte] = (byte) value;
+            }
+        }
+    }
+
+    private static final class Scratch {
+        final long [] outputPlanes = new long [8];
+        final long [] scratch = new long [16];
+        long [] inputPlanes = new long [0];
+
+        /**
+         * Returns room for the bit planes of inputCount inputs, which
+         * grows to the most inputs this thread has coded.
+         */
+        long [] inputPlanes(int inputCount) {
+            if (inputPlanes.length < inputCount * 8) {
+                inputPlanes = new long [inputCount * 8];
+            }
+            return inputPlanes;
+        }
+    }
+
+    /**
+     * Returns the number of ones in the bit matrix for multiplying by
+     * a coefficient, which is roughly the number of XORs it takes.
+     */
+    public static int bitMatrixOnes(byte coefficient) {
+        int ones = 0;
+        for (int bit = 0; bit < 8; bit++) {
+            ones += Integer.bitCount(Galois.multiply(coefficient, (byte) (1 << bit)) & 0xFF);
+        }
+        return ones;
+    }
+
+    /**
+     * Converts 64 bytes, starting at the given index, into 8 longs:
+     * bit k of long j is bit j of one of the bytes.  Which byte goes
+     * to which k doesn't matter, as long as fromBitPlanes() puts it
+     * back.
+     */
+    private static void toBitPlanes(byte [] shard, int index, long [] planes, int planesOffset) {
+        long w0 = transposeBits((long) LONGS.get(shard, index));
+        long w1 = transposeBits((long) LONGS.get(shard, index + 8));
+        long w2 = transposeBits((long) LONGS.get(shard, index + 16));
+        long w3 = transposeBits((long) LONGS.get(shard, index + 24));
+        long w4 = transposeBits((long) LONGS.get(shard, index + 32));
+        long w5 = transposeBits((long) LONGS.get(shard, index + 40));
+        long w6 = transposeBits((long) LONGS.get(shard, index + 48));
+        long w7 = transposeBits((long) LONGS.get(shard, index + 56));
+
+        // Now byte j of each long is bit j of its 8 bytes.  Transpose
+        // the 8 by 8 matrix of bytes to gather the byte j's together.
+        long t;
+        t = ((w0 >>> 32) ^ w4) & 0xFFFFFFFFL; w0 ^= t << 32; w4 ^= t;
+        t = ((w1 >>> 32) ^ w5) & 0xFFFFFFFFL; w1 ^= t << 32; w5 ^= t;
+        t = ((w2 >>> 32) ^ w6) & 0xFFFFFFFFL; w2 ^= t << 32; w6 ^= t;
+        t = ((w3 >>> 32) ^ w7) & 0xFFFFFFFFL; w3 ^= t << 32; w7 ^= t;
+        t = ((w0 >>> 16) ^ w2) & 0x0000FFFF0000FFFFL; w0 ^= t << 16; w2 ^= t;
+        t = ((w1 >>> 16) ^ w3) & 0x0000FFFF0000FFFFL; w1 ^= t << 16; w3 ^= t;
+        t = ((w4 >>> 16) ^ w6) & 0x0000FFFF0000FFFFL; w4 ^= t << 16; w6 ^= t;
+        t = ((w5 >>> 16) ^ w7) & 0x0000FFFF0000FFFFL; w5 ^= t << 16; w7 ^= t;
+        t = ((w0 >>> 8) ^ w1) & 0x00FF00FF00FF00FFL; w0 ^= t << 8; w1 ^= t;
+        t = ((w2 >>> 8) ^ w3) & 0x00FF00FF00FF00FFL; w2 ^= t << 8; w3 ^= t;
+        t = ((w4 >>> 8) ^ w5) & 0x00FF00FF00FF00FFL; w4 ^= t << 8; w5 ^= t;
+        t = ((w6 >>> 8) ^ w7) & 0x00FF00FF00FF00FFL; w6 ^= t << 8; w7 ^= t;
+
+        planes[planesOffset] = w0;
+        planes[planesOffset + 1] = w1;
+        planes[planesOffset + 2] = w2;
+        planes[planesOffset + 3] = w3;
+        planes[planesOffset + 4] = w4;
+        planes[planesOffset + 5] = w5;
+        planes[planesOffset + 6] = w6;
+        planes[planesOffset + 7] = w7;
+    }
+
+    /**
+     * Undoes toBitPlanes(), storing 64 bytes at the given index.  Both
+     * transposes are their own inverse, so this is the same steps in
+     * the opposite order.
+     */
+    private static void fromBitPlanes(long [] planes, byte [] shard, int index) {
+        long w0 = planes[0];
+        long w1 = planes[1];
+        long w2 = planes[2];
+        long w3 = planes[3];
+        long w4 = planes[4];
+        long w5 = planes[5];
+        long w6 = planes[6];
+        long w7 = planes[7];
+
+        long t;
+        t = ((w0 >>> 32) ^ w4) & 0xFFFFFFFFL; w0 ^= t << 32; w4 ^= t;
+        t = ((w1 >>> 32) ^ w5) & 0xFFFFFFFFL; w1 ^= t << 32; w5 ^= t;
+        t = ((w2 >>> 32) ^ w6) & 0xFFFFFFFFL; w2 ^= t << 32; w6 ^= t;
+        t = ((w3 >>> 32) ^ w7) & 0xFFFFFFFFL; w3 ^= t << 32; w7 ^= t;
+        t = ((w0 >>> 16) ^ w2) & 0x0000FFFF0000FFFFL; w0 ^= t << 16; w2 ^= t;
+        t = ((w1 >>> 16) ^ w3) & 0x0000FFFF0000FFFFL; w1 ^= t << 16; w3 ^= t;
+        t = ((w4 >>> 16) ^ w6) & 0x0000FFFF0000FFFFL; w4 ^= t << 16; w6 ^= t;
+        t = ((w5 >>> 16) ^ w7) & 0x0000FFFF0000FFFFL; w5 ^= t << 16; w7 ^= t;
+        t = ((w0 >>> 8) ^ w1) & 0x00FF00FF00FF00FFL; w0 ^= t << 8; w1 ^= t;
+        t = ((w2 >>> 8) ^ w3) & 0x00FF00FF00FF00FFL; w2 ^= t << 8; w3 ^= t;
+        t = ((w4 >>> 8) ^ w5) & 0x00FF00FF00FF00FFL; w4 ^= t << 8; w5 ^= t;
+        t = ((w6 >>> 8) ^ w7) & 0x00FF00FF00FF00FFL; w6 ^= t << 8; w7 ^= t;
+
+        LONGS.set(shard, index, transposeBits(w0));
+        LONGS.set(shard, index + 8, transposeBits(w1));
+        LONGS.set(shard, index + 16, transposeBits(w2));
+        LONGS.set(shard, index + 24, transposeBits(w3));
+        LONGS.set(shard, index + 32, transposeBits(w4));
+        LONGS.set(shard, index + 40, transposeBits(w5));
+        LONGS.set(shard, index + 48, transposeBits(w6));
+        LONGS.set(shard, index + 56, transposeBits(w7));
+    }
+
+    /**
+     * Transposes a long as an 8 by 8 matrix of bits, where byte i is
+     * row i.  (From Hacker's Delight, section 7-3.)
+     */
+    private static long transposeBits(long x) {
+        long t;
+        t = (x ^ (x >>> 7)) & 0x00AA00AA00AA00AAL;
+        x = x ^ t ^ (t << 7);
+        t = (x ^ (x >>> 14)) & 0x0000CCCC0000CCCCL;
+        x = x ^ t ^ (t << 14);
+        t = (x ^ (x >>> 28)) & 0x00000000F0F0F0F0L;
+        x = x ^ t ^ (t << 28);
+        return x;
+    }
+
+    /**
+     * Works out the XOR schedule for every coefficient.
+     *
+     * Row i of the bit matrix for c says which input bits are XORed to
+     * make bit i of the product: bit j is set when bit i of c * 2^j is.
+     * The rows are done greedily, cheapest first, where a row costs
+     * either its number of ones, or one plus the number of bits it
+     * differs by from a row that's already done.  The bit matrix of a
+     * non-zero coefficient is invertible, so no row is all zeros.
+     */
+    private static int [] [] generateSchedules() {
+        // Zero is never multiplied by, and has no schedule.
+        final int [] [] result = new int [256] [];
+        result[0] = new int [0];
+        for (int coefficient = 1; coefficient < 256; coefficient++) {
+            final int [] rowMasks = new int [8];
+            for (int j = 0; j < 8; j++) {
+                final int product = Galois.multiply((byte) coefficient, (byte) (1 << j)) & 0xFF;
+                for (int i = 0; i < 8; i++) {
+                    if ((product & (1 << i)) != 0) {
+                        rowMasks[i] |= 1 << j;
+                    }
+                }
+            }
+
+            final int [] ops = new int [64 + 8];
+            int opCount = 0;
+            final boolean [] done = new boolean [8];
+            for (int step = 0; step < 8; step++) {
+                // Find the cheapest row to do next.
+                int bestRow = -1;
+                int bestFrom = -1;
+                int bestCost = Integer.MAX_VALUE;
+                for (int i = 0; i < 8; i++) {
+                    if (done[i]) {
+                        continue;
+                    }
+                    final int scratchCost = Math.max(1, Integer.bitCount(rowMasks[i]));
+                    if (scratchCost < bestCost) {
+                        bestRow = i;
+                        bestFrom = -1;
+                        bestCost = scratchCost;
+                    }
+                    for (int r = 0; r < 8; r++) {
+                        final int cost = 1 + Integer.bitCount(rowMasks[i] ^ rowMasks[r]);
+                        if (done[r] && cost < bestCost) {
+                            bestRow = i;
+                            bestFrom = r;
+                            bestCost = cost;
+                        }
+                    }
+                }
+
+                // Emit the operations for it.
+                final int destination = 8 + bestRow;
+                int mask = rowMasks[bestRow];
+                boolean first = true;
+                if (0 <= bestFrom) {
+                    ops[opCount++] = ASSIGN | (destination << 4) | (8 + bestFrom);
+                    mask ^= rowMasks[bestFrom];
+                    first = false;
+                }
+                for (int j = 0; j < 8; j++) {
+                    if ((mask & (1 << j)) != 0) {
+                        ops[opCount++] = (first ? ASSIGN : 0) | (destination << 4) | j;
+                        first = false;
+                    }
+                }
+                done[bestRow] = true;
+            }
+            result[coefficient] = Arrays.copyOf(ops, opCount);
+        }
+        return result;
+    }
+}
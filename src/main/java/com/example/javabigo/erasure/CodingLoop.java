@@ -6,8 +6,17 @@
 
 package com.example.javabigo.erasure;
 
+import java.nio.ByteBuffer;
+
 public interface CodingLoop {
 
+    /**
+     * The number of bytes of each shard that the default ByteBuffer
+     * version of codeSomeShards() stages through byte arrays at a time.
+     * This is small enough that the staging arrays stay in L1 cache.
+     */
+    int BUFFER_CHUNK_SIZE = 4 * 1024;
+
     /**
      * All of the available coding loop algorithms.
      *
@@ -29,8 +38,20 @@ public interface CodingLoop {
      *
      *    "exp"    - Use the logarithm/exponent table.
      *
-     * The ReedSolomonBenchmark class compares the performance of the different
-     * loops, which will depend on the specific processor you're running on.
+     *    "vector" - Use split-nibble table lookups with the Java Vector API.
+     *
+     *    "swar"   - Use the same split-nibble tables 8 bytes at a time,
+     *               reading and writing each shard as longs.
+     *
+     *    "xor"    - Use XORs of bit planes, following the bit matrix
+     *               of each coefficient.
+     *
+     * TiledCodingLoop is different: it runs one of the other loops over
+     * a cache-sized block of bytes at a time.
+     *
+     * The CodingLoopBenchmark class (in src/jmh) compares the performance
+     * of the different loops, which will depend on the specific processor
+     * you're running on.
      *
      * This is the inner loop.  It needs to be fast.  Be careful
      * if you change it.
@@ -45,14 +66,18 @@ public interface CodingLoop {
                     new ByteInputOutputTableCodingLoop(),
                     new ByteOutputInputExpCodingLoop(),
                     new ByteOutputInputTableCodingLoop(),
+                    new ByteOutputInputXorCodingLoop(),
                     new InputByteOutputExpCodingLoop(),
                     new InputByteOutputTableCodingLoop(),
                     new InputOutputByteExpCodingLoop(),
                     new InputOutputByteTableCodingLoop(),
+                    new InputOutputByteSwarCodingLoop(),
+                    new InputOutputByteVectorCodingLoop(),
                     new OutputByteInputExpCodingLoop(),
                     new OutputByteInputTableCodingLoop(),
                     new OutputInputByteExpCodingLoop(),
                     new OutputInputByteTableCodingLoop(),
+                    new TiledCodingLoop(),
             };
 
     /**
@@ -115,4 +140,63 @@ public interface CodingLoop {
                              final int offset,
                              final int byteCount,
                              final byte [] tempBuffer);
+
+    /**
+     * Multiplies a subset of rows from a coding matrix by a full set of
+     * input shards to produce some output shards, where the shards are
+     * ByteBuffers, which may be direct, memory-mapped, or views into
+     * one larger buffer.
+     *
+     * Positions and limits of the buffers are ignored and not changed;
+     * offset is an absolute index into each buffer.
+     *
+     * The default implementation is a copy-through adapter: it copies
+     * BUFFER_CHUNK_SIZE bytes of each shard at a time into this
+     * thread's staging arrays, runs the byte array version of
+     * codeSomeShards() over them, and copies the outputs back.  These
+     * override it:
+     *
+     *    InputOutputByteTableCodingLoop reads and writes any buffer in
+     *    place.
+     *
+     *    InputOutputByteVectorCodingLoop codes heap buffers through their
+     *    backing arrays, and sends direct and mapped ones through this
+     *    adapter.
+     *
+     *    TiledCodingLoop and DefaultCodingLoop pass the buffers on to the
+     *    loop they wrap.
+     *
+     * Every other loop uses this adapter.
+     *
+     * @param matrixRows The rows from the matrix to use.
+     * @param inputs The input shards.  Only the first inputCount are used.
+     * @param inputCount The number of input buffers.
+     * @param outputs Buffers where the computed shards are stored.  Only
+     *                the first outputCount are used.
+     * @param outputCount The number of outputs to compute.
+     * @param offset The index in the inputs and output of the first byte
+     *               to process.
+     * @param byteCount The number of bytes to process.
+     */
+    default void codeSomeShards(final byte [] [] matrixRows,
+                                final ByteBuffer [] inputs,
+                                final int inputCount,
+                                final ByteBuffer [] outputs,
+                                final int outputCount,
+                                final int offset,
+                                final int byteCount) {
+        final int chunkSize = Math.min(byteCount, BUFFER_CHUNK_SIZE);
+        final byte [] [] inputChunks = ByteBufferStaging.inputs(inputCount);
+        final byte [] [] outputChunks = ByteBufferStaging.outputs(outputCount);
+        for (int chunkStart = offset; chunkStart < offset + byteCount; chunkStart += chunkSize) {
+            final int chunkLength = Math.min(chunkSize, offset + byteCount - chunkStart);
+            for (int iInput = 0; iInput < inputCount; iInput++) {
+                inputs[iInput].get(chunkStart, inputChunks[iInput], 0, chunkLength);
+            }
+            codeSomeShards(matrixRows, inputChunks, inputCount, outputChunks, outputCount, 0, chunkLength);
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                outputs[iOutput].put(chunkStart, outputChunks[iOutput], 0, chunkLength);
+            }
+        }
+    }
 }
@@ -24,13 +24,13 @@ public abstract class CodingLoopBase implements CodingLoop {
 
         // This is the loop structure for ByteOutputInput, which does not
         // require temporary buffers for checking.
-        byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
         for (int iByte = offset; iByte < offset + byteCount; iByte++) {
             for (int iOutput = 0; iOutput < checkCount; iOutput++) {
                 byte [] matrixRow = matrixRows[iOutput];
                 int value = 0;
                 for (int iInput = 0; iInput < inputCount; iInput++) {
-                    value ^= table[matrixRow[iInput] & 0xFF][inputs[iInput][iByte] & 0xFF];
+                    value ^= table[((matrixRow[iInput] & 0xFF) << 8) | (inputs[iInput][iByte] & 0xFF)];
                 }
                 if (toCheck[iOutput][iByte] != (byte) value) {
                     return false;
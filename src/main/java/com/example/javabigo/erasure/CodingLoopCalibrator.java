@@ -0,0 +1,151 @@
+package com.example.javabigo.erasure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Picks the fastest coding loop for one shard geometry.
+ *
+ * Which of the loops in CodingLoop.ALL_CODING_LOOPS is fastest depends
+ * on the processor, and on the number and size of the shards.  This
+ * runs a short version of CodingLoopBenchmark for each loop, with the
+ * real geometry, and returns the one that encodes the most bytes per
+ * second.
+ *
+ * The result can be saved to a properties file, keyed by the geometry,
+ * so the measurement only has to be done once per machine.
+ */
+public class CodingLoopCalibrator {
+
+    /**
+     * How long each loop is run for, once warmed up.
+     */
+    public static final long DEFAULT_MEASUREMENT_MILLIS = 50;
+
+    private final int dataShardCount;
+    private final int parityShardCount;
+    private final int shardSize;
+    private final long measurementMillis;
+
+    public CodingLoopCalibrator(int dataShardCount, int parityShardCount, int shardSize) {
+        this(dataShardCount, parityShardCount, shardSize, DEFAULT_MEASUREMENT_MILLIS);
+    }
+
+    public CodingLoopCalibrator(int dataShardCount, int parityShardCount, int shardSize, long measurementMillis) {
+        if (shardSize <= 0) {
+            throw new IllegalArgumentException("shardSize must be positive: " + shardSize);
+        }
+        this.dataShardCount = dataShardCount;
+        this.parityShardCount = parityShardCount;
+        this.shardSize = shardSize;
+        this.measurementMillis = measurementMillis;
+    }
+
+    /**
+     * Returns the key that results for this geometry are saved under,
+     * like "4+3@32".
+     */
+    public String getGeometryKey() {
+        return dataShardCount + "+" + parityShardCount + "@" + shardSize;
+    }
+
+    /**
+     * Measures every coding loop and returns the fastest.
+     */
+    public CodingLoop calibrate() {
+        final int totalShardCount = dataShardCount + parityShardCount;
+        final byte [] [] shards = new byte [totalShardCount] [shardSize];
+        final Random random = new Random();
+        for (int i = 0; i < dataShardCount; i++) {
+            random.nextBytes(shards[i]);
+        }
+
+        CodingLoop best = null;
+        double bestRate = 0.0;
+        for (CodingLoop codingLoop : CodingLoop.ALL_CODING_LOOPS) {
+            ReedSolomon codec = new ReedSolomon(dataShardCount, parityShardCount, codingLoop, 0);
+            measure(codec, shards);  // warm up
+            double rate = measure(codec, shards);
+            if (best == null || bestRate < rate) {
+                best = codingLoop;
+                bestRate = rate;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the loop saved for this geometry in the given file, or
+     * null if the file or the entry is not there.
+     */
+    public CodingLoop load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        String name = properties.getProperty(getGeometryKey());
+        return name == null ? null : forName(name);
+    }
+
+    /**
+     * Saves the loop for this geometry in the given file, keeping any
+     * entries for other geometries.
+     */
+    public void save(Path file, CodingLoop codingLoop) throws IOException {
+        Properties properties = new Properties();
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            }
+        }
+        properties.setProperty(getGeometryKey(), codingLoop.getClass().getSimpleName());
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        try (OutputStream out = Files.newOutputStream(file)) {
+            properties.store(out, "Fastest coding loop for each data+parity@shardSize");
+        }
+    }
+
+    /**
+     * Returns the loop in CodingLoop.ALL_CODING_LOOPS with the given
+     * class name, like "InputOutputByteTableCodingLoop".
+     *
+     * @throws IllegalArgumentException if there is no such loop.
+     */
+    public static CodingLoop forName(String name) {
+        for (CodingLoop codingLoop : CodingLoop.ALL_CODING_LOOPS) {
+            if (codingLoop.getClass().getSimpleName().equals(name)) {
+                return codingLoop;
+            }
+        }
+        throw new IllegalArgumentException("unknown coding loop: " + name);
+    }
+
+    /**
+     * Encodes the shards over and over for the measurement time, and
+     * returns the number of data bytes encoded per nanosecond.
+     */
+    private double measure(ReedSolomon codec, byte [] [] shards) {
+        final long duration = measurementMillis * 1000L * 1000L;
+        final long startTime = System.nanoTime();
+        long elapsed = 0;
+        long passesCompleted = 0;
+        while (elapsed < duration) {
+            for (int i = 0; i < 64; i++) {
+                codec.encodeParity(shards, 0, shardSize);
+            }
+            passesCompleted += 64;
+            elapsed = System.nanoTime() - startTime;
+        }
+        return ((double) passesCompleted * shardSize * dataShardCount) / elapsed;
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.javabigo.erasure;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The coding loop used by ReedSolomon.create().
+ *
+ * This passes every call through to the loop that is currently
+ * selected, which starts out as InputOutputByteTableCodingLoop and can
+ * be changed at any time, for example after CodingLoopCalibrator has
+ * found the fastest loop on this processor.  Codecs that are already
+ * built pick up the change on their next call.
+ */
+public final class DefaultCodingLoop implements CodingLoop {
+
+    public static final DefaultCodingLoop INSTANCE = new DefaultCodingLoop();
+
+    private volatile CodingLoop selected = new InputOutputByteTableCodingLoop();
+
+    private DefaultCodingLoop() {
+    }
+
+    /**
+     * Returns the loop that calls are passed to.
+     */
+    public CodingLoop getSelected() {
+        return selected;
+    }
+
+    /**
+     * Changes the loop that calls are passed to.
+     */
+    public void setSelected(CodingLoop codingLoop) {
+        if (codingLoop == null || codingLoop == this) {
+            throw new IllegalArgumentException("not a usable coding loop: " + codingLoop);
+        }
+        selected = codingLoop;
+    }
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] outputs, int outputCount,
+            int offset, int byteCount) {
+        selected.codeSomeShards(matrixRows, inputs, inputCount, outputs, outputCount, offset, byteCount);
+    }
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            ByteBuffer[] inputs, int inputCount,
+            ByteBuffer[] outputs, int outputCount,
+            int offset, int byteCount) {
+        selected.codeSomeShards(matrixRows, inputs, inputCount, outputs, outputCount, offset, byteCount);
+    }
+
+    @Override
+    public boolean checkSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] toCheck, int checkCount,
+            int offset, int byteCount,
+            byte[] tempBuffer) {
+        return selected.checkSomeShards(matrixRows, inputs, inputCount, toCheck, checkCount, offset, byteCount, tempBuffer);
+    }
+}
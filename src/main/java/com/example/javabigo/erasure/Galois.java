@@ -174,9 +174,52 @@ public final class Galois {
      *
      * Using this table is an alternative to using the multiply() method,
      * which uses log/exp table lookups.
+     *
+     * The coding loops use MULTIPLICATION_TABLE_FLAT instead.  This one
+     * is kept for comparison in GaloisTableBenchmark.
      */
     public static byte [] [] MULTIPLICATION_TABLE = generateMultiplicationTable();
 
+    /**
+     * The same multiplication table in one 64 KB array, with the row
+     * for each value a starting at index a << 8.
+     *
+     * Looking up a product in the two-level table loads the row array
+     * from the table, then the byte from the row, and the 256 rows are
+     * separate objects scattered around the heap.  In this table it's
+     * one load from one block of memory.  The coding loops work out the
+     * start of the row for each matrix coefficient once, outside of the
+     * loop over bytes, and then do one lookup per byte:
+     *
+     *     final int multTableRow = (a & 0xFF) << 8;
+     *     ...
+     *     product = MULTIPLICATION_TABLE_FLAT[multTableRow | (b & 0xFF)];
+     */
+    public static final byte [] MULTIPLICATION_TABLE_FLAT = generateFlatMultiplicationTable();
+
+    /**
+     * The multiplicative inverse of each element of the field:
+     * INVERSE_TABLE[a] times a is 1.  Zero has no inverse, and its
+     * entry is 0.
+     */
+    public static final byte [] INVERSE_TABLE = generateInverseTable();
+
+    /**
+     * Split-nibble multiplication tables for the Galois field.
+     *
+     * Multiplication distributes over XOR, so a times b is the same as
+     * a times the low four bits of b, XORed with a times the high four
+     * bits of b.  Each table row has just 16 entries, which is small
+     * enough to fit in one vector register for a shuffle-based lookup.
+     *
+     * To get the result of multiplying a and b:
+     *
+     *     LOW_NIBBLE_TABLE[a][b & 0x0F] ^ HIGH_NIBBLE_TABLE[a][(b & 0xFF) >>> 4]
+     */
+    public static final byte [] [] LOW_NIBBLE_TABLE = generateLowNibbleTable();
+
+    public static final byte [] [] HIGH_NIBBLE_TABLE = generateHighNibbleTable();
+
     /**
      * Adds two elements of the field.  If you're in an inner loop,
      * you should inline this function: it's just XOR.
@@ -305,6 +348,62 @@ public final class Galois {
         return result;
     }
 
+    /**
+     * Generates the table of multiplicative inverses.
+     */
+    public static byte [] generateInverseTable() {
+        byte [] result = new byte [FIELD_SIZE];
+        for (int a = 1; a < FIELD_SIZE; a++) {
+            result[a] = divide((byte) 1, (byte) a);
+        }
+        return result;
+    }
+
+    /**
+     * Generates a multiplication table as one flat array.
+     *
+     * To get the result of multiplying a and b:
+     *
+     *     MULTIPLICATION_TABLE_FLAT[(a << 8) | b]
+     */
+    public static byte [] generateFlatMultiplicationTable() {
+        byte [] result = new byte [FIELD_SIZE * FIELD_SIZE];
+        for (int a = 0; a < FIELD_SIZE; a++) {
+            for (int b = 0; b < FIELD_SIZE; b++) {
+                result[(a << 8) | b] = multiply((byte) a, (byte) b);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Generates the table of products of each field element with
+     * the 16 values of a low nibble.
+     */
+    public static byte [] [] generateLowNibbleTable() {
+        byte [] [] result = new byte [256] [16];
+        for (int a = 0; a < FIELD_SIZE; a++) {
+            for (int n = 0; n < 16; n++) {
+                result[a][n] = multiply((byte) a, (byte) n);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Generates the table of products of each field element with
+     * the 16 values of a high nibble.
+     */
+    public static byte [] [] generateHighNibbleTable() {
+        byte [] [] result = new byte [256] [16];
+        for (int a = 0; a < FIELD_SIZE; a++) {
+            for (int n = 0; n < 16; n++) {
+                result[a][n] = multiply((byte) a, (byte) (n << 4));
+            }
+        }
+        return result;
+    }
+
     /**
      * Returns a list of all polynomials that can be used to generate
      * the field.
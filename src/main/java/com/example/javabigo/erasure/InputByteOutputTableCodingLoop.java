@@ -15,18 +15,18 @@ public class InputByteOutputTableCodingLoop extends CodingLoopBase {
             byte[][] outputs, int outputCount,
             int offset, int byteCount) {
 
-        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        final byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
 
         {
             final int iInput = 0;
             final byte[] inputShard = inputs[iInput];
             for (int iByte = offset; iByte < offset + byteCount; iByte++) {
                 final byte inputByte = inputShard[iByte];
-                final byte [] multTableRow = table[inputByte & 0xFF];
+                final int multTableRow = (inputByte & 0xFF) << 8;
                 for (int iOutput = 0; iOutput < outputCount; iOutput++) {
                     final byte[] outputShard = outputs[iOutput];
                     final byte[] matrixRow = matrixRows[iOutput];
-                    outputShard[iByte] = multTableRow[matrixRow[iInput] & 0xFF];
+                    outputShard[iByte] = table[multTableRow | (matrixRow[iInput] & 0xFF)];
                 }
             }
         }
@@ -35,11 +35,11 @@ public class InputByteOutputTableCodingLoop extends CodingLoopBase {
             final byte[] inputShard = inputs[iInput];
             for (int iByte = offset; iByte < offset + byteCount; iByte++) {
                 final byte inputByte = inputShard[iByte];
-                final byte [] multTableRow = table[inputByte & 0xFF];
+                final int multTableRow = (inputByte & 0xFF) << 8;
                 for (int iOutput = 0; iOutput < outputCount; iOutput++) {
                     final byte[] outputShard = outputs[iOutput];
                     final byte[] matrixRow = matrixRows[iOutput];
-                    outputShard[iByte] ^= multTableRow[matrixRow[iInput] & 0xFF];
+                    outputShard[iByte] ^= table[multTableRow | (matrixRow[iInput] & 0xFF)];
                 }
             }
         }
@@ -0,0 +1,102 @@
+package com.example.javabigo.erasure;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Same loop nesting as InputOutputByteTableCodingLoop, but the inner
+ * loop steps through the shards 8 bytes at a time, reading and writing
+ * them as longs through a byte array VarHandle.  It runs on any JVM,
+ * without the Vector API.
+ *
+ * Each byte of a long is multiplied with the coefficient's 16-entry
+ * low and high nibble tables, the same split that the vector loop
+ * uses, and the two products are XORed together:
+ *
+ *     a * b = LOW_NIBBLE_TABLE[a][b & 0x0F] ^ HIGH_NIBBLE_TABLE[a][b >>> 4]
+ *
+ * The two tables for a coefficient are 32 bytes, so they stay in the
+ * L1 cache however many coefficients the matrix has, where a full row
+ * of the multiplication table is 256 bytes.  The bytes left over at the
+ * end of the range are done one at a time.
+ */
+public class InputOutputByteSwarCodingLoop extends CodingLoopBase {
+
+    private static final VarHandle LONGS =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        final int end = offset + byteCount;
+        final int longEnd = offset + (byteCount & ~7);
+
+        {
+            final int iInput = 0;
+            final byte [] inputShard = inputs[iInput];
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final byte [] outputShard = outputs[iOutput];
+                final int coefficient = matrixRows[iOutput][iInput] & 0xFF;
+                final byte [] low = Galois.LOW_NIBBLE_TABLE[coefficient];
+                final byte [] high = Galois.HIGH_NIBBLE_TABLE[coefficient];
+                for (int iByte = offset; iByte < longEnd; iByte += 8) {
+                    LONGS.set(outputShard, iByte, multiply(low, high, (long) LONGS.get(inputShard, iByte)));
+                }
+                for (int iByte = longEnd; iByte < end; iByte++) {
+                    outputShard[iByte] = multiply(low, high, inputShard[iByte]);
+                }
+            }
+        }
+
+        for (int iInput = 1; iInput < inputCount; iInput++) {
+            final byte [] inputShard = inputs[iInput];
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final byte [] outputShard = outputs[iOutput];
+                final int coefficient = matrixRows[iOutput][iInput] & 0xFF;
+                final byte [] low = Galois.LOW_NIBBLE_TABLE[coefficient];
+                final byte [] high = Galois.HIGH_NIBBLE_TABLE[coefficient];
+                for (int iByte = offset; iByte < longEnd; iByte += 8) {
+                    final long product = multiply(low, high, (long) LONGS.get(inputShard, iByte));
+                    LONGS.set(outputShard, iByte, (long) LONGS.get(outputShard, iByte) ^ product);
+                }
+                for (int iByte = longEnd; iByte < end; iByte++) {
+                    outputShard[iByte] ^= multiply(low, high, inputShard[iByte]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Multiplies each of the 8 bytes in a long by the coefficient whose
+     * nibble tables are given.
+     */
+    private static long multiply(byte [] low, byte [] high, long input) {
+        final int lowHalf = (int) input;
+        final int highHalf = (int) (input >>> 32);
+        return (multiplyInt(low, high, lowHalf) & 0xFFFFFFFFL) | ((long) multiplyInt(low, high, highHalf) << 32);
+    }
+
+    /**
+     * Multiplies each of the 4 bytes in an int.  Two of these for a long
+     * keep the shifts and masks in 32-bit registers.
+     */
+    private static int multiplyInt(byte [] low, byte [] high, int input) {
+        return ((low[input & 0x0F] ^ high[(input >>> 4) & 0x0F]) & 0xFF)
+                | ((low[(input >>> 8) & 0x0F] ^ high[(input >>> 12) & 0x0F]) & 0xFF) << 8
+                | ((low[(input >>> 16) & 0x0F] ^ high[(input >>> 20) & 0x0F]) & 0xFF) << 16
+                | ((low[(input >>> 24) & 0x0F] ^ high[(input >>> 28) & 0x0F]) & 0xFF) << 24;
+    }
+
+    /**
+     * Multiplies one byte by the coefficient whose nibble tables are
+     * given.
+     */
+    private static byte multiply(byte [] low, byte [] high, byte input) {
+        return (byte) (low[input & 0x0F] ^ high[(input >>> 4) & 0x0F]);
+    }
+}
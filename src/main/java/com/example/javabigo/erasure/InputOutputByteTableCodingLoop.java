@@ -6,6 +6,8 @@
 
 package com.example.javabigo.erasure;
 
+import java.nio.ByteBuffer;
+
 public class InputOutputByteTableCodingLoop extends CodingLoopBase {
 
     @Override
@@ -15,7 +17,7 @@ public class InputOutputByteTableCodingLoop extends CodingLoopBase {
             byte[][] outputs, int outputCount,
             int offset, int byteCount) {
 
-        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        final byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
 
         {
             final int iInput = 0;
@@ -23,9 +25,9 @@ public class InputOutputByteTableCodingLoop extends CodingLoopBase {
             for (int iOutput = 0; iOutput < outputCount; iOutput++) {
                 final byte[] outputShard = outputs[iOutput];
                 final byte[] matrixRow = matrixRows[iOutput];
-                final byte[] multTableRow = table[matrixRow[iInput] & 0xFF];
+                final int multTableRow = (matrixRow[iInput] & 0xFF) << 8;
                 for (int iByte = offset; iByte < offset + byteCount; iByte++) {
-                    outputShard[iByte] = multTableRow[inputShard[iByte] & 0xFF];
+                    outputShard[iByte] = table[multTableRow | (inputShard[iByte] & 0xFF)];
                 }
             }
         }
@@ -35,9 +37,43 @@ public class InputOutputByteTableCodingLoop extends CodingLoopBase {
             for (int iOutput = 0; iOutput < outputCount; iOutput++) {
                 final byte[] outputShard = outputs[iOutput];
                 final byte[] matrixRow = matrixRows[iOutput];
-                final byte[] multTableRow = table[matrixRow[iInput] & 0xFF];
+                final int multTableRow = (matrixRow[iInput] & 0xFF) << 8;
                 for (int iByte = offset; iByte < offset + byteCount; iByte++) {
-                    outputShard[iByte] ^= multTableRow[inputShard[iByte] & 0xFF];
+                    outputShard[iByte] ^= table[multTableRow | (inputShard[iByte] & 0xFF)];
+                }
+            }
+        }
+    }
+
+    /**
+     * The same loops over ByteBuffers, reading and writing in place with
+     * absolute get() and put(), so direct and mapped buffers are coded
+     * without being copied.
+     */
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            ByteBuffer[] inputs, int inputCount,
+            ByteBuffer[] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        final byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
+        final int end = offset + byteCount;
+
+        for (int iInput = 0; iInput < inputCount; iInput++) {
+            final ByteBuffer inputShard = inputs[iInput];
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final ByteBuffer outputShard = outputs[iOutput];
+                final int multTableRow = (matrixRows[iOutput][iInput] & 0xFF) << 8;
+                if (iInput == 0) {
+                    for (int iByte = offset; iByte < end; iByte++) {
+                        outputShard.put(iByte, table[multTableRow | (inputShard.get(iByte) & 0xFF)]);
+                    }
+                }
+                else {
+                    for (int iByte = offset; iByte < end; iByte++) {
+                        outputShard.put(iByte, (byte) (outputShard.get(iByte) ^ table[multTableRow | (inputShard.get(iByte) & 0xFF)]));
+                    }
                 }
             }
         }
@@ -59,23 +95,23 @@ public class InputOutputByteTableCodingLoop extends CodingLoopBase {
         // Using the loops from this class would require multiple temp
         // buffers.
 
-        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        final byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
         for (int iOutput = 0; iOutput < checkCount; iOutput++) {
             final byte [] outputShard = toCheck[iOutput];
             final byte[] matrixRow = matrixRows[iOutput];
             {
                 final int iInput = 0;
                 final byte [] inputShard = inputs[iInput];
-                final byte [] multTableRow = table[matrixRow[iInput] & 0xFF];
+                final int multTableRow = (matrixRow[iInput] & 0xFF) << 8;
                 for (int iByte = offset; iByte < offset + byteCount; iByte++) {
-                    tempBuffer[iByte] = multTableRow[inputShard[iByte] & 0xFF];
+                    tempBuffer[iByte] = table[multTableRow | (inputShard[iByte] & 0xFF)];
                 }
             }
             for (int iInput = 1; iInput < inputCount; iInput++) {
                 final byte [] inputShard = inputs[iInput];
-                final byte [] multTableRow = table[matrixRow[iInput] & 0xFF];
+                final int multTableRow = (matrixRow[iInput] & 0xFF) << 8;
                 for (int iByte = offset; iByte < offset + byteCount; iByte++) {
-                    tempBuffer[iByte] ^= multTableRow[inputShard[iByte] & 0xFF];
+                    tempBuffer[iByte] ^= table[multTableRow | (inputShard[iByte] & 0xFF)];
                 }
             }
             for (int iByte = offset; iByte < offset + byteCount; iByte++) {
@@ -0,0 +1,74 @@
+package com.example.javabigo.erasure;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Same loop nesting as InputOutputByteTableCodingLoop, but the inner
+ * loop multiplies a whole vector of bytes at a time with the Java
+ * Vector API.  See VectorCodingKernel.
+ *
+ * The Vector API is an incubator module, so it is only there when the
+ * JVM is started with "--add-modules jdk.incubator.vector".  When it
+ * isn't, or the processor's vectors are too narrow for the nibble
+ * lookups, this falls back to InputOutputByteTableCodingLoop.
+ */
+public class InputOutputByteVectorCodingLoop implements CodingLoop {
+
+    private final CodingLoop delegate;
+
+    public InputOutputByteVectorCodingLoop() {
+        delegate = isVectorApiAvailable() ? new VectorCodingKernel() : new InputOutputByteTableCodingLoop();
+    }
+
+    /**
+     * Returns true if this loop is using vector instructions, and false
+     * if it has fallen back to the scalar table loop.
+     */
+    public boolean isVectorized() {
+        return delegate instanceof VectorCodingKernel;
+    }
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] outputs, int outputCount,
+            int offset, int byteCount) {
+        delegate.codeSomeShards(matrixRows, inputs, inputCount, outputs, outputCount, offset, byteCount);
+    }
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            ByteBuffer[] inputs, int inputCount,
+            ByteBuffer[] outputs, int outputCount,
+            int offset, int byteCount) {
+        delegate.codeSomeShards(matrixRows, inputs, inputCount, outputs, outputCount, offset, byteCount);
+    }
+
+    @Override
+    public boolean checkSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] toCheck, int checkCount,
+            int offset, int byteCount,
+            byte[] tempBuffer) {
+        return delegate.checkSomeShards(matrixRows, inputs, inputCount, toCheck, checkCount, offset, byteCount, tempBuffer);
+    }
+
+    /**
+     * Checks for the incubator module before touching any class that
+     * refers to it.
+     */
+    private static boolean isVectorApiAvailable() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            return VectorCodingKernel.isSupported();
+        }
+        catch (LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,490 @@
+package com.example.javabigo.erasure;
+
+import java.util.Arrays;
+
+/**
+ * Locally Repairable Code over the Reed-Solomon Galois field.
+ *
+ * The data shards are split into local groups of (nearly) equal size.
+ * Each group gets one local parity shard, which is the exclusive or of
+ * the data shards in the group.  On top of that, there are global
+ * parity shards computed from all of the data shards, each one a row
+ * of Galois field coefficients like a Reed-Solomon parity shard.
+ *
+ * The shards are in this order: the data shards, then one local parity
+ * shard per group, then the global parity shards.  For example, with 4
+ * data shards, 2 groups, and 1 global parity:
+ *
+ *     0 1 | 2 3 | L0 L1 | G0
+ *
+ * where L0 = 0 ^ 1 and L1 = 2 ^ 3.
+ *
+ * The point is repair.  When one shard in a group is lost, it is the
+ * exclusive or of the rest of its group, so rebuilding it reads only
+ * the group, not dataShardCount shards like Reed-Solomon does.  That's
+ * less network traffic for a repair, and a shorter wait for a degraded
+ * read.  The cost is tolerance: the code above uses the same 7 shards
+ * as Reed-Solomon 4+3, and survives any 2 lost shards instead of any 3.
+ *
+ * When losses can't be repaired inside the groups, decodeMissing()
+ * falls back to solving with every shard that's present, local and
+ * global parities together.
+ *
+ * All of the coding goes through a CodingLoop, like ReedSolomon.
+ * Coefficients x_i = 2^i are distinct only for i < 255, which is more
+ * data shards than the 256 total allows anyway.
+ */
+public class LocalReconstructionCode {
+
+    private final int dataShardCount;
+    private final int localGroupCount;
+    private final int globalParityCount;
+    private final int totalShardCount;
+    private final CodingLoop codingLoop;
+
+    /**
+     * groupStart[g] is the first data shard in group g, and
+     * groupStart[localGroupCount] is dataShardCount.
+     */
+    private final int [] groupStart;
+
+    /**
+     * The coefficients of the global parity shards, one row each.
+     */
+    private final byte [] [] globalRows;
+
+    /**
+     * Creates a codec with the default coding loop.
+     */
+    public LocalReconstructionCode(int dataShardCount, int localGroupCount, int globalParityCount) {
+        this(dataShardCount, localGroupCount, globalParityCount, DefaultCodingLoop.INSTANCE);
+    }
+
+    /**
+     * Creates a codec with a chosen coding loop.
+     *
+     * @param dataShardCount The number of data shards.
+     * @param localGroupCount How many groups to split the data shards
+     *                        into.  Each group has one local parity
+     *                        shard.
+     * @param globalParityCount The number of global parity shards.
+     */
+    public LocalReconstructionCode(int dataShardCount, int localGroupCount, int globalParityCount,
+                                   CodingLoop codingLoop) {
+        if (dataShardCount <= 0) {
+            throw new IllegalArgumentException("dataShardCount must be positive: " + dataShardCount);
+        }
+        if (localGroupCount <= 0 || dataShardCount < localGroupCount) {
+            throw new IllegalArgumentException("localGroupCount must be between 1 and dataShardCount: " + localGroupCount);
+        }
+        if (globalParityCount < 0) {
+            throw new IllegalArgumentException("globalParityCount is negative: " + globalParityCount);
+        }
+        if (256 < dataShardCount + localGroupCount + globalParityCount) {
+            throw new IllegalArgumentException("too many shards - max is 256");
+        }
+
+        this.dataShardCount = dataShardCount;
+        this.localGroupCount = localGroupCount;
+        this.globalParityCount = globalParityCount;
+        this.totalShardCount = dataShardCount + localGroupCount + globalParityCount;
+        this.codingLoop = codingLoop;
+
+        // The first dataShardCount % localGroupCount groups get one
+        // extra shard.
+        groupStart = new int [localGroupCount + 1];
+        for (int g = 0; g < localGroupCount; g++) {
+            final int size = dataShardCount / localGroupCount + (g < dataShardCount % localGroupCount ? 1 : 0);
+            groupStart[g + 1] = groupStart[g] + size;
+        }
+
+        // Global row j has x_i to the power j + 1 in column i, with
+        // x_i = 2^i, as in Azure's LRC.  The power 0 row is left out,
+        // because it is all ones, which is the sum of the local
+        // parities.  With these rows, every geometry we've tried
+        // survives any globalParityCount + 1 lost shards.  The parity
+        // rows of ReedSolomon's matrices don't: they have repeated
+        // entries, so two lost data shards in one group can't always
+        // be told apart.
+        globalRows = new byte [globalParityCount] [dataShardCount];
+        for (int j = 0; j < globalParityCount; j++) {
+            for (int i = 0; i < dataShardCount; i++) {
+                globalRows[j][i] = Galois.exp(Galois.exp((byte) 2, i), j + 1);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of data shards.
+     */
+    public int getDataShardCount() {
+        return dataShardCount;
+    }
+
+    /**
+     * Returns the number of local groups, which is also the number of
+     * local parity shards.
+     */
+    public int getLocalGroupCount() {
+        return localGroupCount;
+    }
+
+    /**
+     * Returns the number of global parity shards.
+     */
+    public int getGlobalParityCount() {
+        return globalParityCount;
+    }
+
+    /**
+     * Returns the total number of shards.
+     */
+    public int getTotalShardCount() {
+        return totalShardCount;
+    }
+
+    /**
+     * Returns the local group that a data shard or local parity shard
+     * belongs to, or -1 for a global parity shard.
+     */
+    public int getLocalGroup(int shardIndex) {
+        checkShardIndex(shardIndex);
+        if (shardIndex < dataShardCount) {
+            int g = 0;
+            while (groupStart[g + 1] <= shardIndex) {
+                g += 1;
+            }
+            return g;
+        }
+        if (shardIndex < dataShardCount + localGroupCount) {
+            return shardIndex - dataShardCount;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the indices of the shards that repairShard() reads to
+     * rebuild the given shard: the rest of its local group, or every
+     * data shard for a global parity shard.
+     */
+    public int [] getRepairShards(int shardIndex) {
+        final int group = getLocalGroup(shardIndex);
+        if (group < 0) {
+            final int [] result = new int [dataShardCount];
+            for (int i = 0; i < dataShardCount; i++) {
+                result[i] = i;
+            }
+            return result;
+        }
+        final int [] members = groupMembers(group);
+        final int [] result = new int [members.length - 1];
+        int count = 0;
+        for (int member : members) {
+            if (member != shardIndex) {
+                result[count++] = member;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Computes the local and global parity shards from the data shards.
+     *
+     * @param shards An array containing data shards, then local parity
+     *               shards, then global parity shards.  They must all be
+     *               the same size.
+     * @param offset The index of the first byte in each shard to encode.
+     * @param byteCount The number of bytes to encode in each shard.
+     */
+    public void encodeParity(byte [] [] shards, int offset, int byteCount) {
+        checkBuffersAndSizes(shards, offset, byteCount);
+        for (int g = 0; g < localGroupCount; g++) {
+            codeLocalParity(g, shards, offset, byteCount);
+        }
+        if (globalParityCount != 0) {
+            codingLoop.codeSomeShards(
+                    globalRows,
+                    shards, dataShardCount,
+                    Arrays.copyOfRange(shards, dataShardCount + localGroupCount, totalShardCount), globalParityCount,
+                    offset, byteCount);
+        }
+    }
+
+    /**
+     * Rebuilds one shard, reading only the shards listed by
+     * getRepairShards().  Those must all be present; the others may be
+     * anything, including null.
+     */
+    public void repairShard(byte [] [] shards, int shardIndex, int offset, int byteCount) {
+        if (shards.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shards: " + shards.length);
+        }
+        checkShardIndex(shardIndex);
+        checkShardLength(shards[shardIndex], offset, byteCount);
+        for (int input : getRepairShards(shardIndex)) {
+            checkShardLength(shards[input], offset, byteCount);
+        }
+
+        final int group = getLocalGroup(shardIndex);
+        if (group < 0) {
+            codingLoop.codeSomeShards(
+                    new byte [] [] { globalRows[shardIndex - dataShardCount - localGroupCount] },
+                    shards, dataShardCount,
+                    new byte [] [] { shards[shardIndex] }, 1,
+                    offset, byteCount);
+        }
+        else {
+            // Every member of a group is the exclusive or of the others.
+            final int [] inputs = getRepairShards(shardIndex);
+            final byte [] [] inputShards = new byte [inputs.length] [];
+            for (int i = 0; i < inputs.length; i++) {
+                inputShards[i] = shards[inputs[i]];
+            }
+            final byte [] ones = new byte [inputs.length];
+            Arrays.fill(ones, (byte) 1);
+            codingLoop.codeSomeShards(
+                    new byte [] [] { ones },
+                    inputShards, inputs.length,
+                    new byte [] [] { shards[shardIndex] }, 1,
+                    offset, byteCount);
+        }
+    }
+
+    /**
+     * Given a list of shards, some of which contain data, fills in the
+     * ones that don't have data.
+     *
+     * Groups missing just one shard are repaired locally first.  If any
+     * data is still missing after that, it is solved for with
+     * dataShardCount independent shards from the ones present, and
+     * then the missing parity is recomputed.
+     *
+     * @throws IllegalArgumentException when the shards present aren't
+     * enough to recover the data.
+     */
+    public void decodeMissing(byte [] [] shards, boolean [] shardPresent, int offset, int byteCount) {
+        checkBuffersAndSizes(shards, offset, byteCount);
+        if (shardPresent.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shardPresent flags: " + shardPresent.length);
+        }
+        final boolean [] present = shardPresent.clone();
+
+        // Repair the groups that are missing only one shard.
+        for (int g = 0; g < localGroupCount; g++) {
+            int missing = -1;
+            int missingCount = 0;
+            for (int member : groupMembers(g)) {
+                if (!present[member]) {
+                    missing = member;
+                    missingCount += 1;
+                }
+            }
+            if (missingCount == 1) {
+                repairShard(shards, missing, offset, byteCount);
+                present[missing] = true;
+            }
+        }
+
+        // Solve for any data that is still missing.
+        int missingDataCount = 0;
+        for (int i = 0; i < dataShardCount; i++) {
+            if (!present[i]) {
+                missingDataCount += 1;
+            }
+        }
+        if (missingDataCount != 0) {
+            final int [] inputs = chooseIndependentShards(present);
+            final Matrix decodeMatrix = generatorRows(inputs).invert();
+            final byte [] [] inputShards = new byte [dataShardCount] [];
+            for (int i = 0; i < dataShardCount; i++) {
+                inputShards[i] = shards[inputs[i]];
+            }
+            final byte [] [] matrixRows = new byte [missingDataCount] [];
+            final byte [] [] outputs = new byte [missingDataCount] [];
+            int outputCount = 0;
+            for (int i = 0; i < dataShardCount; i++) {
+                if (!present[i]) {
+                    matrixRows[outputCount] = decodeMatrix.getRow(i);
+                    outputs[outputCount] = shards[i];
+                    outputCount += 1;
+                    present[i] = true;
+                }
+            }
+            codingLoop.codeSomeShards(
+                    matrixRows,
+                    inputShards, dataShardCount,
+                    outputs, outputCount,
+                    offset, byteCount);
+        }
+
+        // With all of the data, any parity still missing is encoded
+        // again.
+        for (int i = dataShardCount; i < totalShardCount; i++) {
+            if (!present[i]) {
+                if (i < dataShardCount + localGroupCount) {
+                    codeLocalParity(i - dataShardCount, shards, offset, byteCount);
+                }
+                else {
+                    repairShard(shards, i, offset, byteCount);
+                }
+            }
+        }
+    }
+
+    /**
+     * Picks dataShardCount present shards whose rows of the generator
+     * matrix are linearly independent.  Data shards are taken first,
+     * since their rows are the cheapest to decode with.
+     *
+     * The rows picked so far are kept reduced, each with a leading 1 in
+     * a column where the others are 0, so a new row is independent iff
+     * something is left of it after subtracting the ones picked.
+     */
+    private int [] chooseIndependentShards(boolean [] present) {
+        final int [] result = new int [dataShardCount];
+        final byte [] [] basis = new byte [dataShardCount] [];
+        final int [] pivotColumn = new int [dataShardCount];
+        int count = 0;
+        for (int i = 0; i < totalShardCount && count < dataShardCount; i++) {
+            if (!present[i]) {
+                continue;
+            }
+            final byte [] row = generatorRow(i);
+            for (int b = 0; b < count; b++) {
+                final byte scale = row[pivotColumn[b]];
+                if (scale != 0) {
+                    for (int c = 0; c < dataShardCount; c++) {
+                        row[c] ^= Galois.multiply(scale, basis[b][c]);
+                    }
+                }
+            }
+            int pivot = 0;
+            while (pivot < dataShardCount && row[pivot] == 0) {
+                pivot += 1;
+            }
+            if (pivot == dataShardCount) {
+                continue;
+            }
+            final byte inverse = Galois.INVERSE_TABLE[row[pivot] & 0xFF];
+            for (int c = 0; c < dataShardCount; c++) {
+                row[c] = Galois.multiply(row[c], inverse);
+            }
+            for (int b = 0; b < count; b++) {
+                final byte scale = basis[b][pivot];
+                if (scale != 0) {
+                    for (int c = 0; c < dataShardCount; c++) {
+                        basis[b][c] ^= Galois.multiply(scale, row[c]);
+                    }
+                }
+            }
+            basis[count] = row;
+            pivotColumn[count] = pivot;
+            result[count] = i;
+            count += 1;
+        }
+        if (count < dataShardCount) {
+            throw new IllegalArgumentException("Not enough shards present to decode");
+        }
+        return result;
+    }
+
+    /**
+     * Returns the rows of the generator matrix for the given shards.
+     */
+    private Matrix generatorRows(int [] shardIndices) {
+        final byte [] [] rows = new byte [shardIndices.length] [];
+        for (int i = 0; i < shardIndices.length; i++) {
+            rows[i] = generatorRow(shardIndices[i]);
+        }
+        return new Matrix(rows);
+    }
+
+    /**
+     * Returns a copy of the row of the generator matrix that produces a
+     * shard from the data shards.
+     */
+    private byte [] generatorRow(int shardIndex) {
+        final byte [] row = new byte [dataShardCount];
+        if (shardIndex < dataShardCount) {
+            row[shardIndex] = 1;
+        }
+        else if (shardIndex < dataShardCount + localGroupCount) {
+            final int g = shardIndex - dataShardCount;
+            Arrays.fill(row, groupStart[g], groupStart[g + 1], (byte) 1);
+        }
+        else {
+            System.arraycopy(globalRows[shardIndex - dataShardCount - localGroupCount], 0, row, 0, dataShardCount);
+        }
+        return row;
+    }
+
+    /**
+     * Computes the local parity shard of a group from its data shards.
+     */
+    private void codeLocalParity(int group, byte [] [] shards, int offset, int byteCount) {
+        final int size = groupStart[group + 1] - groupStart[group];
+        final byte [] ones = new byte [size];
+        Arrays.fill(ones, (byte) 1);
+        codingLoop.codeSomeShards(
+                new byte [] [] { ones },
+                Arrays.copyOfRange(shards, groupStart[group], groupStart[group + 1]), size,
+                new byte [] [] { shards[dataShardCount + group] }, 1,
+                offset, byteCount);
+    }
+
+    /**
+     * Returns the data shards of a group, followed by its local parity
+     * shard.
+     */
+    private int [] groupMembers(int group) {
+        final int size = groupStart[group + 1] - groupStart[group];
+        final int [] result = new int [size + 1];
+        for (int i = 0; i < size; i++) {
+            result[i] = groupStart[group] + i;
+        }
+        result[size] = dataShardCount + group;
+        return result;
+    }
+
+    private void checkShardIndex(int shardIndex) {
+        if (shardIndex < 0 || totalShardCount <= shardIndex) {
+            throw new IllegalArgumentException("shard index out of range: " + shardIndex);
+        }
+    }
+
+    /**
+     * Checks that one shard is there and long enough for a range.
+     */
+    private static void checkShardLength(byte [] shard, int offset, int byteCount) {
+        if (shard == null) {
+            throw new IllegalArgumentException("shard is null");
+        }
+        if (offset < 0 || byteCount < 0 || shard.length < offset + byteCount) {
+            throw new IllegalArgumentException("buffers to small: " + byteCount + offset);
+        }
+    }
+
+    /**
+     * Checks the consistency of arguments passed to public methods.
+     */
+    private void checkBuffersAndSizes(byte [] [] shards, int offset, int byteCount) {
+        if (shards.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shards: " + shards.length);
+        }
+        int shardLength = shards[0].length;
+        for (int i = 1; i < shards.length; i++) {
+            if (shards[i].length != shardLength) {
+                throw new IllegalArgumentException("Shards are different sizes");
+            }
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset is negative: " + offset);
+        }
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("byteCount is negative: " + byteCount);
+        }
+        if (shardLength < offset + byteCount) {
+            throw new IllegalArgumentException("buffers to small: " + byteCount + offset);
+        }
+    }
+}
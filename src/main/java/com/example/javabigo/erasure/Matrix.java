@@ -11,8 +11,11 @@ import java.util.Arrays;
 /**
  * A matrix over the 8-bit Galois field.
  *
- * This class is not performance-critical, so the implementations
- * are simple and straightforward.
+ * The elements are kept in one flat array.  Inverting a matrix is on
+ * the path of a degraded read when the decode matrix isn't cached, so
+ * invert(byte[], byte[], int) works in place in arrays given by the
+ * caller.  The rest is not performance-critical, and is simple and
+ * straightforward.
  */
 public class Matrix {
 
@@ -27,14 +30,14 @@ public class Matrix {
     private final int columns;
 
     /**
-     * The data in the matrix, in row major form.
+     * The data in the matrix, in row major form, in one flat array.
      *
-     * To get element (r, c): data[r][c]
+     * To get element (r, c): data[r * columns + c]
      *
      * Because this this is computer science, and not math,
      * the indices for both the row and column start at 0.
      */
-    private final byte [] [] data;
+    private final byte [] data;
 
     /**
      * Initialize a matrix of zeros.
@@ -45,10 +48,7 @@ public class Matrix {
     public Matrix(int initRows, int initColumns) {
         rows = initRows;
         columns = initColumns;
-        data = new byte [rows] [];
-        for (int r = 0; r < rows; r++) {
-            data[r] = new byte [columns];
-        }
+        data = new byte [rows * columns];
     }
 
     /**
@@ -57,15 +57,12 @@ public class Matrix {
     public Matrix(byte [] [] initData) {
         rows = initData.length;
         columns = initData[0].length;
-        data = new byte [rows] [];
+        data = new byte [rows * columns];
         for (int r = 0; r < rows; r++) {
             if (initData[r].length != columns) {
                 throw new IllegalArgumentException("Not all rows have the same number of columns");
             }
-            data[r] = new byte[columns];
-            for (int c = 0; c < columns; c++) {
-                data[r][c] = initData[r][c];
-            }
+            System.arraycopy(initData[r], 0, data, r * columns, columns);
         }
     }
 
@@ -98,7 +95,7 @@ public class Matrix {
                 if (c != 0) {
                     result.append(", ");
                 }
-                result.append(data[r][c] & 0xFF);
+                result.append(data[r * columns + c] & 0xFF);
             }
             result.append(']');
         }
@@ -154,7 +151,7 @@ public class Matrix {
         if (c < 0 || columns <= c) {
             throw new IllegalArgumentException("Column index out of range: " + c);
         }
-        return data[r][c];
+        return data[r * columns + c];
     }
 
     /**
@@ -167,7 +164,7 @@ public class Matrix {
         if (c < 0 || columns <= c) {
             throw new IllegalArgumentException("Column index out of range: " + c);
         }
-        data[r][c] = value;
+        data[r * columns + c] = value;
     }
 
     /**
@@ -178,12 +175,13 @@ public class Matrix {
         if (!(other instanceof Matrix)) {
             return false;
         }
-        for (int r = 0; r < rows; r++) {
-            if (!Arrays.equals(data[r], ((Matrix)other).data[r])) {
-                return false;
-            }
-        }
-        return true;
+        Matrix that = (Matrix) other;
+        return rows == that.rows && columns == that.columns && Arrays.equals(data, that.data);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(data);
     }
 
     /**
@@ -197,13 +195,12 @@ public class Matrix {
                     "is different than rows on right (" + right.getRows() + ")");
         }
         Matrix result = new Matrix(getRows(), right.getColumns());
-        for (int r = 0; r < getRows(); r++) {
-            for (int c = 0; c < right.getColumns(); c++) {
-                byte value = 0;
-                for (int i = 0; i < getColumns(); i++) {
-                    value ^= Galois.multiply(get(r, i), right.get(i, c));
-                }
-                result.set(r, c, value);
+        final int resultColumns = right.columns;
+        for (int r = 0; r < rows; r++) {
+            // Row r of the result is the sum of the rows of the right
+            // matrix, each one scaled by an element of row r of this one.
+            for (int i = 0; i < columns; i++) {
+                addScaledRow(data[r * columns + i], right.data, i * resultColumns, result.data, r * resultColumns, resultColumns);
             }
         }
         return result;
@@ -218,12 +215,8 @@ public class Matrix {
         }
         Matrix result = new Matrix(rows, columns + right.columns);
         for (int r = 0; r < rows; r++) {
-            for (int c = 0; c < columns; c++) {
-                result.data[r][c] = data[r][c];
-            }
-            for (int c = 0; c < right.columns; c++) {
-                result.data[r][columns + c] = right.data[r][c];
-            }
+            System.arraycopy(data, r * columns, result.data, r * result.columns, columns);
+            System.arraycopy(right.data, r * right.columns, result.data, r * result.columns + columns, right.columns);
         }
         return result;
     }
@@ -234,9 +227,7 @@ public class Matrix {
     public Matrix submatrix(int rmin, int cmin, int rmax, int cmax) {
         Matrix result = new Matrix(rmax - rmin, cmax - cmin);
         for (int r = rmin; r < rmax; r++) {
-            for (int c = cmin; c < cmax; c++) {
-                result.data[r - rmin][c - cmin] = data[r][c];
-            }
+            System.arraycopy(data, r * columns + cmin, result.data, (r - rmin) * result.columns, result.columns);
         }
         return result;
     }
@@ -245,11 +236,10 @@ public class Matrix {
      * Returns one row of the matrix as a byte array.
      */
     public byte [] getRow(int row) {
-        byte [] result = new byte [columns];
-        for (int c = 0; c < columns; c++) {
-            result[c] = get(row, c);
+        if (row < 0 || rows <= row) {
+            throw new IllegalArgumentException("Row index out of range: " + row);
         }
-        return result;
+        return Arrays.copyOfRange(data, row * columns, (row + 1) * columns);
     }
 
     /**
@@ -259,9 +249,7 @@ public class Matrix {
         if (r1 < 0 || rows <= r1 || r2 < 0 || rows <= r2) {
             throw new IllegalArgumentException("Row index out of range");
         }
-        byte [] tmp = data[r1];
-        data[r1] = data[r2];
-        data[r2] = tmp;
+        swapRows(data, r1 * columns, r2 * columns, columns);
     }
 
     /**
@@ -275,74 +263,106 @@ public class Matrix {
         if (rows != columns) {
             throw new IllegalArgumentException("Only square matrices can be inverted");
         }
-
-        // Create a working matrix by augmenting this one with
-        // an identity matrix on the right.
-        Matrix work = augment(identity(rows));
-
-        // Do Gaussian elimination to transform the left half into
-        // an identity matrix.
-        work.gaussianElimination();
-
-        // The right half is now the inverse.
-        return work.submatrix(0, rows, columns, columns * 2);
+        Matrix result = new Matrix(rows, columns);
+        invert(Arrays.copyOf(data, data.length), result.data, rows);
+        return result;
     }
 
     /**
-     * Does the work of matrix inversion.
+     * Inverts an n by n matrix held in a flat row-major array, without
+     * allocating anything.
      *
-     * Assumes that this is an r by 2r matrix.
+     * This is Gauss-Jordan elimination.  The row operations that turn
+     * work into the identity are done to inverse at the same time,
+     * starting from the identity, which leaves the inverse there.
+     * Scaling a row uses the inverse table and one row of the flat
+     * multiplication table, instead of a divide and multiplies.
+     *
+     * @param work The matrix to invert, in the first n * n bytes.  It
+     *             is overwritten.
+     * @param inverse Where to put the inverse, in the first n * n bytes.
+     * @param n The size of the matrix.
+     * @throws IllegalArgumentException when the matrix is singular and
+     * doesn't have an inverse.
      */
-    private void gaussianElimination() {
-        // Clear out the part below the main diagonal and scale the main
-        // diagonal to be 1.
-        for (int r = 0; r < rows; r++) {
+    public static void invert(byte [] work, byte [] inverse, int n) {
+        Arrays.fill(inverse, 0, n * n, (byte) 0);
+        for (int i = 0; i < n; i++) {
+            inverse[i * n + i] = 1;
+        }
+
+        for (int r = 0; r < n; r++) {
+            final int pivotRow = r * n;
+
             // If the element on the diagonal is 0, find a row below
             // that has a non-zero and swap them.
-            if (data[r][r] == (byte) 0) {
-                for (int rowBelow = r + 1; rowBelow < rows; rowBelow++) {
-                    if (data[rowBelow][r] != 0) {
-                        swapRows(r, rowBelow);
+            if (work[pivotRow + r] == (byte) 0) {
+                for (int rowBelow = r + 1; rowBelow < n; rowBelow++) {
+                    if (work[rowBelow * n + r] != (byte) 0) {
+                        swapRows(work, pivotRow, rowBelow * n, n);
+                        swapRows(inverse, pivotRow, rowBelow * n, n);
                         break;
                     }
                 }
             }
             // If we couldn't find one, the matrix is singular.
-            if (data[r][r] == (byte) 0) {
+            if (work[pivotRow + r] == (byte) 0) {
                 throw new IllegalArgumentException("Matrix is singular");
             }
+
             // Scale to 1.
-            if (data[r][r] != (byte) 1) {
-                byte scale = Galois.divide((byte) 1, data[r][r]);
-                for (int c = 0; c < columns; c++) {
-                    data[r][c] = Galois.multiply(data[r][c], scale);
-                }
+            if (work[pivotRow + r] != (byte) 1) {
+                final int multTableRow = (Galois.INVERSE_TABLE[work[pivotRow + r] & 0xFF] & 0xFF) << 8;
+                scaleRow(multTableRow, work, pivotRow, n);
+                scaleRow(multTableRow, inverse, pivotRow, n);
             }
-            // Make everything below the 1 be a 0 by subtracting
-            // a multiple of it.  (Subtraction and addition are
-            // both exclusive or in the Galois field.)
-            for (int rowBelow = r + 1; rowBelow < rows; rowBelow++) {
-                if (data[rowBelow][r] != (byte) 0) {
-                    byte scale = data[rowBelow][r];
-                    for (int c = 0; c < columns; c++) {
-                        data[rowBelow][c] ^= Galois.multiply(scale, data[r][c]);
-                    }
+
+            // Make everything else in the column be a 0 by subtracting
+            // a multiple of the pivot row.  (Subtraction and addition
+            // are both exclusive or in the Galois field.)
+            for (int other = 0; other < n; other++) {
+                final byte scale = work[other * n + r];
+                if (other != r && scale != (byte) 0) {
+                    addScaledRow(scale, work, pivotRow, work, other * n, n);
+                    addScaledRow(scale, inverse, pivotRow, inverse, other * n, n);
                 }
             }
         }
+    }
 
-        // Now clear the part above the main diagonal.
-        for (int d = 0; d < rows; d++) {
-            for (int rowAbove = 0; rowAbove < d; rowAbove++) {
-                if (data[rowAbove][d] != (byte) 0) {
-                    byte scale = data[rowAbove][d];
-                    for (int c = 0; c < columns; c++) {
-                        data[rowAbove][c] ^= Galois.multiply(scale, data[d][c]);
-                    }
+    /**
+     * Multiplies the row starting at the given index by the coefficient
+     * whose row in the flat multiplication table is given.
+     */
+    private static void scaleRow(int multTableRow, byte [] matrix, int rowStart, int length) {
+        final byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
+        for (int c = rowStart; c < rowStart + length; c++) {
+            matrix[c] = table[multTableRow | (matrix[c] & 0xFF)];
+        }
+    }
 
-                }
-            }
+    /**
+     * Adds scale times one row to another row.
+     */
+    private static void addScaledRow(byte scale, byte [] from, int fromStart, byte [] to, int toStart, int length) {
+        if (scale == (byte) 0) {
+            return;
+        }
+        final byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
+        final int multTableRow = (scale & 0xFF) << 8;
+        for (int c = 0; c < length; c++) {
+            to[toStart + c] ^= table[multTableRow | (from[fromStart + c] & 0xFF)];
         }
     }
 
+    /**
+     * Exchanges two rows of a flat matrix.
+     */
+    private static void swapRows(byte [] matrix, int r1Start, int r2Start, int length) {
+        for (int c = 0; c < length; c++) {
+            byte tmp = matrix[r1Start + c];
+            matrix[r1Start + c] = matrix[r2Start + c];
+            matrix[r2Start + c] = tmp;
+        }
+    }
 }
@@ -15,7 +15,7 @@ public class OutputByteInputTableCodingLoop extends CodingLoopBase {
             byte[][] outputs, int outputCount,
             int offset, int byteCount) {
 
-        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        final byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
         for (int iOutput = 0; iOutput < outputCount; iOutput++) {
             final byte[] outputShard = outputs[iOutput];
             final byte[] matrixRow = matrixRows[iOutput];
@@ -23,8 +23,8 @@ public class OutputByteInputTableCodingLoop extends CodingLoopBase {
                 int value = 0;
                 for (int iInput = 0; iInput < inputCount; iInput++) {
                     final byte[] inputShard = inputs[iInput];
-                    final byte[] multTableRow = table[matrixRow[iInput] & 0xFF];
-                    value ^= multTableRow[inputShard[iByte] & 0xFF];
+                    final int multTableRow = (matrixRow[iInput] & 0xFF) << 8;
+                    value ^= table[multTableRow | (inputShard[iByte] & 0xFF)];
                 }
                 outputShard[iByte] = (byte) value;
             }
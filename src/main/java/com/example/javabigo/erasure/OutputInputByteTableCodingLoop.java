@@ -15,23 +15,23 @@ public class OutputInputByteTableCodingLoop extends CodingLoopBase {
             byte[][] outputs, int outputCount,
             int offset, int byteCount) {
 
-        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        final byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
         for (int iOutput = 0; iOutput < outputCount; iOutput++) {
             final byte [] outputShard = outputs[iOutput];
             final byte[] matrixRow = matrixRows[iOutput];
             {
                 final int iInput = 0;
                 final byte [] inputShard = inputs[iInput];
-                final byte [] multTableRow = table[matrixRow[iInput] & 0xFF];
+                final int multTableRow = (matrixRow[iInput] & 0xFF) << 8;
                 for (int iByte = offset; iByte < offset + byteCount; iByte++) {
-                    outputShard[iByte] = multTableRow[inputShard[iByte] & 0xFF];
+                    outputShard[iByte] = table[multTableRow | (inputShard[iByte] & 0xFF)];
                 }
             }
             for (int iInput = 1; iInput < inputCount; iInput++) {
                 final byte [] inputShard = inputs[iInput];
-                final byte [] multTableRow = table[matrixRow[iInput] & 0xFF];
+                final int multTableRow = (matrixRow[iInput] & 0xFF) << 8;
                 for (int iByte = offset; iByte < offset + byteCount; iByte++) {
-                    outputShard[iByte] ^= multTableRow[inputShard[iByte] & 0xFF];
+                    outputShard[iByte] ^= table[multTableRow | (inputShard[iByte] & 0xFF)];
                 }
             }
         }
@@ -49,23 +49,23 @@ public class OutputInputByteTableCodingLoop extends CodingLoopBase {
             return super.checkSomeShards(matrixRows, inputs, inputCount, toCheck, checkCount, offset, byteCount, null);
         }
 
-        final byte [] [] table = Galois.MULTIPLICATION_TABLE;
+        final byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
         for (int iOutput = 0; iOutput < checkCount; iOutput++) {
             final byte [] outputShard = toCheck[iOutput];
             final byte[] matrixRow = matrixRows[iOutput];
             {
                 final int iInput = 0;
                 final byte [] inputShard = inputs[iInput];
-                final byte [] multTableRow = table[matrixRow[iInput] & 0xFF];
+                final int multTableRow = (matrixRow[iInput] & 0xFF) << 8;
                 for (int iByte = offset; iByte < offset + byteCount; iByte++) {
-                    tempBuffer[iByte] = multTableRow[inputShard[iByte] & 0xFF];
+                    tempBuffer[iByte] = table[multTableRow | (inputShard[iByte] & 0xFF)];
                 }
             }
             for (int iInput = 1; iInput < inputCount; iInput++) {
                 final byte [] inputShard = inputs[iInput];
-                final byte [] multTableRow = table[matrixRow[iInput] & 0xFF];
+                final int multTableRow = (matrixRow[iInput] & 0xFF) << 8;
                 for (int iByte = offset; iByte < offset + byteCount; iByte++) {
-                    tempBuffer[iByte] ^= multTableRow[inputShard[iByte] & 0xFF];
+                    tempBuffer[iByte] ^= table[multTableRow | (inputShard[iByte] & 0xFF)];
                 }
             }
             for (int iByte = offset; iByte < offset + byteCount; iByte++) {
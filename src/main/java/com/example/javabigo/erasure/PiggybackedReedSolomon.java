@@ -0,0 +1,300 @@
+package com.example.javabigo.erasure;
+
+import java.util.Arrays;
+
+/**
+ * Reed-Solomon with piggybacks, for cheaper repair of data shards.
+ *
+ * This is the piggybacking framework of the Hitchhiker paper, applied
+ * to a ReedSolomon codec.  Each shard is split into two halves, or
+ * substripes, "a" and "b", and each substripe is coded with Reed-Solomon
+ * on its own.  Then the b half of parity shards 1 through r - 1 carries
+ * a piggyback: the exclusive or of the a halves of one group of data
+ * shards.  Parity shard 0 has no piggyback.
+ *
+ * For data shards d0..d3 and parity shards p0..p2 (4+3), with groups
+ * {d0, d1} on p1 and {d2, d3} on p2:
+ *
+ *         a half       b half
+ *    p0   p0(a)        p0(b)
+ *    p1   p1(a)        p1(b) ^ d0.a ^ d1.a
+ *    p2   p2(a)        p2(b) ^ d2.a ^ d3.a
+ *
+ * It is still MDS: any k shards have k plain a halves, which decode to
+ * every a half.  From those the piggybacks can be subtracted, which
+ * leaves k plain b halves to decode.
+ *
+ * Repairing data shard i, in the group on parity shard j, reads:
+ *
+ *   - the b halves of the other k - 1 data shards and of p0, which
+ *     give i's b half.
+ *   - the b half of pj.  With all of the b halves known, pj(b) can be
+ *     subtracted, which leaves the piggyback.
+ *   - the a halves of the rest of the group, which leave i's a half.
+ *
+ * That's k + 1 + (groupSize - 1) halves, instead of the 2k halves in
+ * k whole shards.  For 4+3 it is 3 shards' worth of bytes instead of
+ * 4, and for 10+4 it is 7 instead of 10.  With only two parity
+ * shards there is one group of every data shard, and nothing is saved.
+ *
+ * Parity shards are rebuilt with decodeMissing(), at the full cost.
+ */
+public class PiggybackedReedSolomon {
+
+    private final ReedSolomon reedSolomon;
+    private final int dataShardCount;
+    private final int parityShardCount;
+    private final int totalShardCount;
+
+    /**
+     * The index of the parity shard that carries each data shard's
+     * piggyback, or -1 for data shards without one.
+     */
+    private final int [] piggybackParity;
+
+    /**
+     * Creates a piggybacked codec on the shared ReedSolomon codec for
+     * the geometry, with the default coding loop.
+     */
+    public static PiggybackedReedSolomon create(int dataShardCount, int parityShardCount) {
+        return new PiggybackedReedSolomon(ReedSolomonRegistry.get(dataShardCount, parityShardCount));
+    }
+
+    /**
+     * Creates a piggybacked codec that codes each substripe with the
+     * given ReedSolomon codec.
+     */
+    public PiggybackedReedSolomon(ReedSolomon reedSolomon) {
+        this.reedSolomon = reedSolomon;
+        this.dataShardCount = reedSolomon.getDataShardCount();
+        this.parityShardCount = reedSolomon.getParityShardCount();
+        this.totalShardCount = reedSolomon.getTotalShardCount();
+
+        // Split the data shards into contiguous groups, one for each
+        // parity shard after the first, as evenly as possible.
+        piggybackParity = new int [dataShardCount];
+        final int groupCount = Math.min(parityShardCount - 1, dataShardCount);
+        if (groupCount <= 0) {
+            Arrays.fill(piggybackParity, -1);
+        }
+        else {
+            int iData = 0;
+            for (int g = 0; g < groupCount; g++) {
+                final int size = dataShardCount / groupCount + (g < dataShardCount % groupCount ? 1 : 0);
+                for (int i = 0; i < size; i++) {
+                    piggybackParity[iData++] = dataShardCount + 1 + g;
+                }
+            }
+        }
+    }
+
+    public int getDataShardCount() {
+        return dataShardCount;
+    }
+
+    public int getParityShardCount() {
+        return parityShardCount;
+    }
+
+    public int getTotalShardCount() {
+        return totalShardCount;
+    }
+
+    /**
+     * Returns the index of the parity shard whose b half carries the
+     * given data shard's a half, or -1 if there isn't one, which is
+     * the case when there is only one parity shard.
+     */
+    public int getPiggybackParity(int dataIndex) {
+        checkDataIndex(dataIndex);
+        return piggybackParity[dataIndex];
+    }
+
+    /**
+     * Returns the number of bytes that repairDataShard() reads to
+     * rebuild one data shard, when each shard is byteCount bytes.
+     */
+    public int getRepairReadByteCount(int dataIndex, int byteCount) {
+        checkDataIndex(dataIndex);
+        final int half = byteCount / 2;
+        final int parity = piggybackParity[dataIndex];
+        if (parity < 0) {
+            return dataShardCount * byteCount;
+        }
+        int groupSize = 0;
+        for (int p : piggybackParity) {
+            if (p == parity) {
+                groupSize += 1;
+            }
+        }
+        return (dataShardCount + 1 + groupSize - 1) * half;
+    }
+
+    /**
+     * Computes the parity shards, with piggybacks, from the data shards.
+     *
+     * @param shards An array containing data shards followed by parity
+     *               shards.  They must all be the same size.
+     * @param offset The index of the first byte in each shard to encode.
+     * @param byteCount The number of bytes to encode in each shard.  It
+     *                  must be even: the first half is the a substripe,
+     *                  and the second half is the b substripe.
+     */
+    public void encodeParity(byte [] [] shards, int offset, int byteCount) {
+        checkByteCount(byteCount);
+        final int half = byteCount / 2;
+        reedSolomon.encodeParity(shards, offset, half);
+        reedSolomon.encodeParity(shards, offset + half, half);
+        addPiggybacks(shards, offset, half);
+    }
+
+    /**
+     * Given a list of shards, some of which contain data, fills in the
+     * ones that don't have data.  Any dataShardCount shards are enough.
+     *
+     * The piggybacks are taken off the present parity shards while the
+     * b substripe is decoded, and put back afterwards, so on return all
+     * of the shards are as encodeParity() would make them.
+     */
+    public void decodeMissing(byte [] [] shards, boolean [] shardPresent, int offset, int byteCount) {
+        checkByteCount(byteCount);
+        final int half = byteCount / 2;
+
+        // The a substripe is plain Reed-Solomon.
+        reedSolomon.decodeMissing(shards, shardPresent, offset, half);
+
+        // Now all of the a halves are known, so the piggybacks can be
+        // taken off to leave plain Reed-Solomon in the b substripe.  The
+        // missing parity shards are about to be overwritten, so it
+        // doesn't matter what happens to them.
+        addPiggybacks(shards, offset, half);
+        reedSolomon.decodeMissing(shards, shardPresent, offset + half, half);
+        addPiggybacks(shards, offset, half);
+    }
+
+    /**
+     * Rebuilds one data shard, reading only part of the others, as
+     * described at the top of this class.
+     *
+     * The shards read are the other data shards and parity shard 0, plus
+     * the piggyback parity shard for dataIndex.  Only the halves listed
+     * above are read, so in the other halves, and in the other parity
+     * shards, anything can be there, including nothing (null).
+     *
+     * With only one parity shard, there are no piggybacks, and this is
+     * an ordinary Reed-Solomon repair from all of the other shards.
+     */
+    public void repairDataShard(byte [] [] shards, int dataIndex, int offset, int byteCount) {
+        if (shards.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shards: " + shards.length);
+        }
+        checkDataIndex(dataIndex);
+        checkByteCount(byteCount);
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset is negative: " + offset);
+        }
+        final int parity = piggybackParity[dataIndex];
+        final int end = offset + byteCount;
+        for (int i = 0; i < dataShardCount; i++) {
+            checkShardLength(shards[i], end);
+        }
+        checkShardLength(shards[dataShardCount], end);
+        if (parity < 0) {
+            final boolean [] present = new boolean [totalShardCount];
+            for (int i = 0; i <= dataShardCount; i++) {
+                present[i] = i != dataIndex;
+            }
+            reedSolomon.reconstruct(shards, present, new int [] { dataIndex }, offset, byteCount);
+            return;
+        }
+        checkShardLength(shards[parity], end);
+
+        final int half = byteCount / 2;
+        final int bOffset = offset + half;
+        final byte [] [] parityRows = reedSolomon.getParityRows();
+        final byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
+        final byte [] output = shards[dataIndex];
+
+        // The b half, from parity 0 and the other data shards:
+        //     b = (p0(b) - sum of c0[l] * data[l].b) / c0[i]
+        {
+            final byte [] row = parityRows[0];
+            final byte [] parityShard = shards[dataShardCount];
+            System.arraycopy(parityShard, bOffset, output, bOffset, half);
+            for (int iData = 0; iData < dataShardCount; iData++) {
+                if (iData == dataIndex) {
+                    continue;
+                }
+                final byte [] input = shards[iData];
+                final int multTableRow = (row[iData] & 0xFF) << 8;
+                for (int iByte = bOffset; iByte < end; iByte++) {
+                    output[iByte] ^= table[multTableRow | (input[iByte] & 0xFF)];
+                }
+            }
+            final int multTableRow = (Galois.INVERSE_TABLE[row[dataIndex] & 0xFF] & 0xFF) << 8;
+            for (int iByte = bOffset; iByte < end; iByte++) {
+                output[iByte] = table[multTableRow | (output[iByte] & 0xFF)];
+            }
+        }
+
+        // The a half, from the piggyback: the b half of the parity minus
+        // its plain Reed-Solomon value, minus the rest of the group.
+        {
+            final byte [] row = parityRows[parity - dataShardCount];
+            final byte [] parityShard = shards[parity];
+            System.arraycopy(parityShard, bOffset, output, offset, half);
+            for (int iData = 0; iData < dataShardCount; iData++) {
+                final byte [] input = shards[iData];
+                final int multTableRow = (row[iData] & 0xFF) << 8;
+                for (int iByte = 0; iByte < half; iByte++) {
+                    output[offset + iByte] ^= table[multTableRow | (input[bOffset + iByte] & 0xFF)];
+                }
+                if (iData != dataIndex && piggybackParity[iData] == parity) {
+                    for (int iByte = offset; iByte < bOffset; iByte++) {
+                        output[iByte] ^= input[iByte];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds (or, since it's exclusive or, takes off) the piggybacks: the
+     * a half of each data shard goes into the b half of its parity
+     * shard.
+     */
+    private void addPiggybacks(byte [] [] shards, int offset, int half) {
+        for (int iData = 0; iData < dataShardCount; iData++) {
+            final int parity = piggybackParity[iData];
+            if (parity < 0) {
+                continue;
+            }
+            final byte [] input = shards[iData];
+            final byte [] output = shards[parity];
+            for (int iByte = 0; iByte < half; iByte++) {
+                output[offset + half + iByte] ^= input[offset + iByte];
+            }
+        }
+    }
+
+    private void checkDataIndex(int dataIndex) {
+        if (dataIndex < 0 || dataShardCount <= dataIndex) {
+            throw new IllegalArgumentException("data index out of range: " + dataIndex);
+        }
+    }
+
+    private static void checkByteCount(int byteCount) {
+        if (byteCount < 0 || byteCount % 2 != 0) {
+            throw new IllegalArgumentException("byteCount must be even and non-negative: " + byteCount);
+        }
+    }
+
+    private static void checkShardLength(byte [] shard, int end) {
+        if (shard == null) {
+            throw new IllegalArgumentException("shard is null");
+        }
+        if (shard.length < end) {
+            throw new IllegalArgumentException("buffers to small: " + end);
+        }
+    }
+}
@@ -6,14 +6,90 @@
 
 package com.example.javabigo.erasure;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Reed-Solomon Coding over 8-bit values.
  */
 public class ReedSolomon {
 
+    /**
+     * How many decode matrices are kept by default.  This is enough
+     * for every erasure pattern of small geometries like 4+3, which
+     * has 35.
+     */
+    public static final int DEFAULT_DECODE_CACHE_SIZE = 256;
+
+    /**
+     * The number of bytes of each shard that one task of a parallel
+     * encode or decode works on.  With 17 inputs and 3 outputs, one
+     * slice of every shard is 1.25 MB, which fits in L2 or L3 cache.
+     */
+    public static final int PARALLEL_SLICE_SIZE = 64 * 1024;
+
+    /**
+     * Shards shorter than this are always coded on the calling thread,
+     * even when an executor is given.  Handing off small stripes costs
+     * more than it saves.
+     */
+    public static final int PARALLEL_THRESHOLD = 4 * PARALLEL_SLICE_SIZE;
+
+    /**
+     * The number of bytes of each shard that parity verification
+     * computes at a time before comparing.  One block of parity fits in
+     * L1 cache next to the blocks of data it comes from, and a mismatch
+     * is found within one block of where it is.
+     */
+    public static final int VERIFY_BLOCK_SIZE = 4 * 1024;
+
+    /**
+     * The number of bytes of each shard that encodeParityBatch() packs
+     * stripes into before running the coding loop.  With 4+3 shards,
+     * the batch buffers for one thread are at most 112 KB.
+     */
+    public static final int BATCH_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * How the encoding matrix is built.  Either one gives a systematic
+     * code, where the data shards are stored as they are, and any
+     * dataShardCount shards are enough to decode.  The two produce
+     * different parity, so shards must be decoded with the same type
+     * they were encoded with.
+     */
+    public enum MatrixType {
+
+        /**
+         * A Vandermonde matrix, multiplied by the inverse of its top
+         * square so that the top is the identity.  This is the
+         * original construction, and the default.
+         */
+        VANDERMONDE,
+
+        /**
+         * The identity on top of a Cauchy matrix, with its rows and
+         * columns scaled to need as few XORs as possible when coded
+         * with ByteOutputInputXorCodingLoop.  The first parity shard
+         * is the XOR of the data shards.
+         */
+        CAUCHY
+    }
+
     private final int dataShardCount;
     private final int parityShardCount;
     private final int totalShardCount;
+    private final MatrixType matrixType;
     private final Matrix matrix;
     private final CodingLoop codingLoop;
 
@@ -23,17 +99,78 @@ public class ReedSolomon {
      */
     private final byte [] [] parityRows;
 
+    /**
+     * Inverted decode matrices, keyed by the set of shards that were
+     * used as inputs.  Inverting the matrix is Gaussian elimination,
+     * which costs far more than decoding a small shard, and the same
+     * few patterns come up over and over while a node is down.
+     *
+     * This is an LRU map, bounded by the size given to the constructor.
+     * Every lookup locks it, so it is only used until, or unless,
+     * precomputeDecodeMatrices() fills precomputedDecodeMatrices.
+     */
+    private final Map<BitSet, byte [] []> decodeMatrixCache;
+    private final int decodeCacheSize;
+
+    /**
+     * The decode matrix for every erasure pattern, once
+     * precomputeDecodeMatrices() has run, and null until then.  The map
+     * never changes once it is set, so it is read without a lock.
+     */
+    private volatile Map<BitSet, byte [] []> precomputedDecodeMatrices;
+
+    /**
+     * Arrays that each thread reuses from call to call.
+     */
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Where parity verification works on each block, one set per
+     * thread, so that callers don't have to supply a buffer.
+     */
+    private final ThreadLocal<VerifyBuffers> verifyBuffers;
+
     /**
      * Creates a ReedSolomon codec with the default coding loop.
+     *
+     * The default loop is DefaultCodingLoop.INSTANCE, which uses
+     * whichever loop has been selected for this machine, so the codec
+     * follows any later change to the selection.
      */
     public static ReedSolomon create(int dataShardCount, int parityShardCount) {
-        return new ReedSolomon(dataShardCount, parityShardCount, new InputOutputByteTableCodingLoop());
+        return new ReedSolomon(dataShardCount, parityShardCount, DefaultCodingLoop.INSTANCE);
+    }
+
+    /**
+     * Creates a ReedSolomon codec with the default coding loop and the
+     * given type of encoding matrix.
+     */
+    public static ReedSolomon create(int dataShardCount, int parityShardCount, MatrixType matrixType) {
+        return new ReedSolomon(dataShardCount, parityShardCount, DefaultCodingLoop.INSTANCE, DEFAULT_DECODE_CACHE_SIZE, matrixType);
     }
 
     /**
      * Initializes a new encoder/decoder, with a chosen coding loop.
      */
     public ReedSolomon(int dataShardCount, int parityShardCount, CodingLoop codingLoop) {
+        this(dataShardCount, parityShardCount, codingLoop, DEFAULT_DECODE_CACHE_SIZE);
+    }
+
+    /**
+     * Initializes a new encoder/decoder, with a chosen coding loop and
+     * a limit on the number of decode matrices to cache.  A size of 0
+     * turns off caching.
+     */
+    public ReedSolomon(int dataShardCount, int parityShardCount, CodingLoop codingLoop, int decodeCacheSize) {
+        this(dataShardCount, parityShardCount, codingLoop, decodeCacheSize, MatrixType.VANDERMONDE);
+    }
+
+    /**
+     * Initializes a new encoder/decoder, with a chosen coding loop,
+     * decode cache size, and type of encoding matrix.
+     */
+    public ReedSolomon(int dataShardCount, int parityShardCount, CodingLoop codingLoop, int decodeCacheSize,
+                       MatrixType matrixType) {
 
         // We can have at most 256 shards total, as any more would
         // lead to duplicate rows in the Vandermonde matrix, which
@@ -43,16 +180,35 @@ public class ReedSolomon {
         if (256 < dataShardCount + parityShardCount) {
             throw new IllegalArgumentException("too many shards - max is 256");
         }
+        if (decodeCacheSize < 0) {
+            throw new IllegalArgumentException("decodeCacheSize is negative: " + decodeCacheSize);
+        }
 
         this.dataShardCount = dataShardCount;
         this.parityShardCount = parityShardCount;
         this.codingLoop = codingLoop;
         this.totalShardCount = dataShardCount + parityShardCount;
-        matrix = buildMatrix(dataShardCount, this.totalShardCount);
+        this.matrixType = matrixType;
+        if (matrixType == MatrixType.CAUCHY) {
+            matrix = buildCauchyMatrix(dataShardCount, this.totalShardCount);
+        }
+        else {
+            matrix = buildMatrix(dataShardCount, this.totalShardCount);
+        }
         parityRows = new byte [parityShardCount] [];
         for (int i = 0; i < parityShardCount; i++) {
             parityRows[i] = matrix.getRow(dataShardCount + i);
         }
+        this.decodeCacheSize = decodeCacheSize;
+        this.decodeMatrixCache = Collections.synchronizedMap(
+                new LinkedHashMap<BitSet, byte [] []>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<BitSet, byte [] []> eldest) {
+                        return ReedSolomon.this.decodeCacheSize < size();
+                    }
+                });
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(dataShardCount, totalShardCount));
+        this.verifyBuffers = ThreadLocal.withInitial(() -> new VerifyBuffers(dataShardCount, parityShardCount));
     }
 
     /**
@@ -76,6 +232,71 @@ public class ReedSolomon {
         return totalShardCount;
     }
 
+    /**
+     * Returns the rows of the encoding matrix that produce the parity
+     * shards, for codes in this package that are built on this one.
+     * The caller must not change them.
+     */
+    byte [] [] getParityRows() {
+        return parityRows;
+    }
+
+    /**
+     * Returns the number of decode matrices in the cache, so that tests
+     * can see what has been computed.
+     */
+    int getCachedDecodeMatrixCount() {
+        final Map<BitSet, byte [] []> precomputed = precomputedDecodeMatrices;
+        return (precomputed != null) ? precomputed.size() : decodeMatrixCache.size();
+    }
+
+    /**
+     * Returns the type of encoding matrix.
+     */
+    public MatrixType getMatrixType() {
+        return matrixType;
+    }
+
+    /**
+     * Computes the decode matrix for every erasure pattern up front, so
+     * that no degraded read has to invert a matrix, or take a lock to
+     * look one up.
+     *
+     * Each pattern is one choice of dataShardCount input shards that
+     * leaves out at least one data shard.
+     *
+     * @throws IllegalStateException if there are more patterns than
+     *         the cache will hold.
+     */
+    public void precomputeDecodeMatrices() {
+        long patternCount = binomial(totalShardCount, dataShardCount) - 1;
+        if (decodeCacheSize < patternCount) {
+            throw new IllegalStateException(
+                    "decode cache holds " + decodeCacheSize + " matrices, but there are " + patternCount + " patterns");
+        }
+
+        // Walk through all of the combinations of input rows, in
+        // lexicographic order.  The first one is all of the data
+        // shards, which never needs a decode matrix.
+        int [] rows = new int [dataShardCount];
+        for (int i = 0; i < dataShardCount; i++) {
+            rows[i] = i;
+        }
+        final Map<BitSet, byte [] []> matrices = new HashMap<>();
+        while (nextCombination(rows, totalShardCount)) {
+            BitSet inputRows = new BitSet(totalShardCount);
+            for (int row : rows) {
+                inputRows.set(row);
+            }
+            matrices.put(inputRows, computeDecodeMatrix(inputRows));
+        }
+
+        // Degraded reads look matrices up in this from now on, so the
+        // LRU cache isn't needed any more.
+        precomputedDecodeMatrices = Map.copyOf(matrices);
+        decodeMatrixCache.clear();
+    }
+
     /**
      * Encodes parity for a set of data shards.
      *
@@ -87,24 +308,204 @@ public class ReedSolomon {
      *
      */
     public void encodeParity(byte[][] shards, int offset, int byteCount) {
+        encodeParity(shards, offset, byteCount, null);
+    }
+
+    /**
+     * Encodes parity for a set of data shards, splitting the work
+     * across an executor.
+     *
+     * The byte range is cut into slices of PARALLEL_SLICE_SIZE bytes,
+     * and each slice is coded as a separate task.  Shards shorter than
+     * PARALLEL_THRESHOLD are coded on the calling thread.  This method
+     * returns when all of the slices are done.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     *               Each shard is a byte array, and they must all be the same
+     *               size.
+     * @param offset The index of the first byte in each shard to encode.
+     * @param byteCount The number of bytes to encode in each shard.
+     * @param executor Where to run the slices, for example
+     *                 ForkJoinPool.commonPool().  If null, everything runs
+     *                 on the calling thread.
+     */
+    public void encodeParity(byte[][] shards, int offset, int byteCount, Executor executor) {
         // Check arguments.
         checkBuffersAndSizes(shards, offset, byteCount);
 
-        // Build the array of output buffers.
-        byte [] [] outputs = new byte [parityShardCount] [];
+        // On the calling thread, the array of output buffers is this
+        // thread's scratch array.
+        if (executor == null) {
+            final Scratch threadScratch = scratch.get();
+            final byte [] [] outputs = threadScratch.outputs;
+            System.arraycopy(shards, dataShardCount, outputs, 0, parityShardCount);
+            try {
+                codingLoop.codeSomeShards(
+                        parityRows,
+                        shards, dataShardCount,
+                        outputs, parityShardCount,
+                        offset, byteCount);
+            }
+            finally {
+                threadScratch.clear();
+            }
+            return;
+        }
+
+        // Build the array of output buffers.  This can't use the scratch
+        // arrays: while a ForkJoinPool thread waits for the slices, it
+        // may run other tasks that use them.
+        final byte [] [] outputs = new byte [parityShardCount] [];
         System.arraycopy(shards, dataShardCount, outputs, 0, parityShardCount);
 
         // Do the coding.
-        codingLoop.codeSomeShards(
-                parityRows,
-                shards, dataShardCount,
-                outputs, parityShardCount,
-                offset, byteCount);
+        runSliced(executor, offset, byteCount, (sliceOffset, sliceByteCount) ->
+                codingLoop.codeSomeShards(
+                        parityRows,
+                        shards, dataShardCount,
+                        outputs, parityShardCount,
+                        sliceOffset, sliceByteCount));
+    }
+
+    /**
+     * Encodes parity for many independent stripes in one pass.
+     *
+     * With small stripes, the setup of each call to the coding loop
+     * costs more than the coding.  This packs the data shards of as
+     * many stripes as fit into BATCH_BUFFER_SIZE bytes, one stripe
+     * after another in one buffer per shard, codes them all with one
+     * call, and copies each stripe's parity back.  Coding each byte
+     * only depends on the same byte of the other shards, so this gives
+     * the same parity as encoding the stripes one at a time.
+     *
+     * Stripes bigger than the batch buffer are encoded on their own.
+     *
+     * @param stripes The stripes to encode.  Each one is an array of
+     *                data shards followed by parity shards, as for
+     *                encodeParity().  Different stripes can have
+     *                different shard sizes.
+     */
+    public void encodeParityBatch(byte [] [] [] stripes) {
+        // Check arguments.
+        for (byte [] [] stripe : stripes) {
+            checkBuffersAndSizes(stripe, 0, stripe[0].length);
+        }
+
+        // The batch buffers only need to be as big as the small stripes
+        // in this call, up to BATCH_BUFFER_SIZE.  They are kept for the
+        // next call on this thread.
+        int batchCapacity = 0;
+        for (byte [] [] stripe : stripes) {
+            if (stripe[0].length <= BATCH_BUFFER_SIZE) {
+                batchCapacity = Math.min(BATCH_BUFFER_SIZE, batchCapacity + stripe[0].length);
+            }
+        }
+        final Scratch threadScratch = scratch.get();
+        threadScratch.ensureBatchCapacity(batchCapacity);
+        final byte [] [] batch = threadScratch.batch;
+        final byte [] [] batchOutputs = threadScratch.batchOutputs;
+
+        int first = 0;
+        while (first < stripes.length) {
+            if (BATCH_BUFFER_SIZE < stripes[first][0].length) {
+                encodeParity(stripes[first], 0, stripes[first][0].length);
+                first += 1;
+                continue;
+            }
+
+            // Pack the data shards of as many stripes as fit.
+            int end = first;
+            int batchSize = 0;
+            while (end < stripes.length && batchSize + stripes[end][0].length <= BATCH_BUFFER_SIZE) {
+                final int shardSize = stripes[end][0].length;
+                for (int iShard = 0; iShard < dataShardCount; iShard++) {
+                    System.arraycopy(stripes[end][iShard], 0, batch[iShard], batchSize, shardSize);
+                }
+                batchSize += shardSize;
+                end += 1;
+            }
+
+            // Code them all at once.
+            codingLoop.codeSomeShards(
+                    parityRows,
+                    batch, dataShardCount,
+                    batchOutputs, parityShardCount,
+                    0, batchSize);
+
+            // Copy the parity back out to each stripe.
+            int position = 0;
+            for (int iStripe = first; iStripe < end; iStripe++) {
+                final int shardSize = stripes[iStripe][0].length;
+                for (int iParity = 0; iParity < parityShardCount; iParity++) {
+                    System.arraycopy(batchOutputs[iParity], position, stripes[iStripe][dataShardCount + iParity], 0, shardSize);
+                }
+                position += shardSize;
+            }
+            first = end;
+        }
+    }
+
+    /**
+     * Brings the parity up to date after one data shard has changed,
+     * without reading any of the other data shards.
+     *
+     * Parity is linear in the data, so changing data shard d from old
+     * to new changes parity shard p by coefficient(p, d) * (old XOR new).
+     * This adds that change to each parity shard, in place.  Only the
+     * given range of bytes is touched, so a small write to a big shard
+     * only costs that many bytes in each parity shard.
+     *
+     * @param oldData The old contents of the data shard.
+     * @param newData The new contents of the data shard.
+     * @param dataIndex Which data shard changed, from 0 to dataShardCount - 1.
+     * @param parityShards The parity shards, which must have been
+     *                     correct for the old data.
+     * @param offset The index of the first byte that changed.
+     * @param byteCount The number of bytes in the range that changed.
+     */
+    public void updateParity(byte [] oldData, byte [] newData, int dataIndex,
+                             byte [] [] parityShards, int offset, int byteCount) {
+        // Check arguments.
+        if (dataIndex < 0 || dataShardCount <= dataIndex) {
+            throw new IllegalArgumentException("dataIndex out of range: " + dataIndex);
+        }
+        if (parityShards.length != parityShardCount) {
+            throw new IllegalArgumentException("wrong number of parity shards: " + parityShards.length);
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset is negative: " + offset);
+        }
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("byteCount is negative: " + byteCount);
+        }
+        final int end = offset + byteCount;
+        if (oldData.length < end || newData.length < end) {
+            throw new IllegalArgumentException("data buffers too small: " + end);
+        }
+        for (byte [] parityShard : parityShards) {
+            if (parityShard.length < end) {
+                throw new IllegalArgumentException("parity buffers too small: " + end);
+            }
+        }
+
+        // Add the change to each parity shard.
+        final byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
+        for (int iParity = 0; iParity < parityShardCount; iParity++) {
+            final byte [] parityShard = parityShards[iParity];
+            final int multTableRow = (parityRows[iParity][dataIndex] & 0xFF) << 8;
+            for (int iByte = offset; iByte < end; iByte++) {
+                parityShard[iByte] ^= table[multTableRow | ((oldData[iByte] ^ newData[iByte]) & 0xFF)];
+            }
+        }
     }
 
     /**
      * Returns true if the parity shards contain the right data.
      *
+     * The parity is computed VERIFY_BLOCK_SIZE bytes at a time, with
+     * the codec's coding loop, into buffers kept for each thread, and
+     * this stops at the first block that doesn't match.
+     *
      * @param shards An array containing data shards followed by parity shards.
      *               Each shard is a byte array, and they must all be the same
      *               size.
@@ -112,27 +513,17 @@ public class ReedSolomon {
      * @param byteCount The number of bytes to check in each shard.
      */
     public boolean isParityCorrect(byte[][] shards, int firstByte, int byteCount) {
-        // Check arguments.
-        checkBuffersAndSizes(shards, firstByte, byteCount);
-
-        // Build the array of buffers being checked.
-        byte [] [] toCheck = new byte [parityShardCount] [];
-        System.arraycopy(shards, dataShardCount, toCheck, 0, parityShardCount);
-
-        // Do the checking.
-        return codingLoop.checkSomeShards(
-                parityRows,
-                shards, dataShardCount,
-                toCheck, parityShardCount,
-                firstByte, byteCount,
-                null);
+        return isParityCorrectParallel(shards, firstByte, byteCount, null);
     }
 
     /**
-     * Returns true if the parity shards contain the right data.
+     * Returns true if the parity shards contain the right data,
+     * computing parity for the whole range into the caller's buffer.
      *
-     * This method may be significantly faster than the one above that does
-     * not use a temporary buffer.
+     * The version above and isParityCorrectParallel() are usually
+     * faster: they work one block at a time, in buffers that stay in
+     * the cache, and the parallel one can check slices at once.
+     * This one is kept for callers that already have a buffer.
      *
      * @param shards An array containing data shards followed by parity shards.
      *               Each shard is a byte array, and they must all be the same
@@ -150,16 +541,193 @@ public class ReedSolomon {
         }
 
         // Build the array of buffers being checked.
-        byte [] [] toCheck = new byte [parityShardCount] [];
+        final Scratch threadScratch = scratch.get();
+        final byte [] [] toCheck = threadScratch.outputs;
         System.arraycopy(shards, dataShardCount, toCheck, 0, parityShardCount);
 
         // Do the checking.
-        return codingLoop.checkSomeShards(
-                parityRows,
-                shards, dataShardCount,
-                toCheck, parityShardCount,
-                firstByte, byteCount,
-                tempBuffer);
+        try {
+            return codingLoop.checkSomeShards(
+                    parityRows,
+                    shards, dataShardCount,
+                    toCheck, parityShardCount,
+                    firstByte, byteCount,
+                    tempBuffer);
+        }
+        finally {
+            threadScratch.clear();
+        }
+    }
+
+    /**
+     * Returns true if the parity shards contain the right data, checking
+     * slices of the range in parallel.
+     *
+     * This has its own name, rather than being another overload, so
+     * that a null executor doesn't make a call ambiguous with the
+     * version that takes a buffer.
+     *
+     * The range is cut into slices the same way as encodeParity() with
+     * an executor.  As soon as one slice finds a mismatch, the others
+     * stop at the end of their current block.
+     *
+     * @param executor Where to run the slices, or null to do it all on
+     *                 the calling thread.
+     */
+    public boolean isParityCorrectParallel(byte [] [] shards, int firstByte, int byteCount, Executor executor) {
+        checkBuffersAndSizes(shards, firstByte, byteCount);
+        final AtomicBoolean mismatchFound = new AtomicBoolean();
+        runSliced(executor, firstByte, byteCount, (sliceOffset, sliceByteCount) ->
+                verifyBlocks(shards, sliceOffset, sliceByteCount, mismatchFound, null));
+        return !mismatchFound.get();
+    }
+
+    /**
+     * Finds the parts of the parity shards that are wrong.
+     *
+     * Unlike isParityCorrect(), this checks the whole range, and reports
+     * every parity shard and range of bytes that doesn't match the data.
+     * Ranges are found to the resolution of VERIFY_BLOCK_SIZE, and the
+     * adjacent ones for a shard are merged.
+     *
+     * @param executor Where to run the slices of the check, or null to
+     *                 do it all on the calling thread.
+     * @return The mismatches, ordered by shard and then offset.  Empty
+     *         if the parity is correct.
+     */
+    public List<ParityMismatch> findParityMismatches(byte [] [] shards, int firstByte, int byteCount, Executor executor) {
+        checkBuffersAndSizes(shards, firstByte, byteCount);
+
+        // Each slice collects the blocks it finds into its own list.
+        final int sliceCount = Math.max(1, (byteCount + PARALLEL_SLICE_SIZE - 1) / PARALLEL_SLICE_SIZE);
+        final List<List<ParityMismatch>> sliceMismatches = new ArrayList<>(sliceCount);
+        for (int i = 0; i < sliceCount; i++) {
+            sliceMismatches.add(new ArrayList<>());
+        }
+        runSliced(executor, firstByte, byteCount, (sliceOffset, sliceByteCount) ->
+                verifyBlocks(shards, sliceOffset, sliceByteCount, null,
+                        sliceMismatches.get((sliceOffset - firstByte) / PARALLEL_SLICE_SIZE)));
+
+        // Merge the blocks into ranges for each shard.
+        final List<ParityMismatch> result = new ArrayList<>();
+        for (int iShard = dataShardCount; iShard < totalShardCount; iShard++) {
+            ParityMismatch current = null;
+            for (List<ParityMismatch> blocks : sliceMismatches) {
+                for (ParityMismatch block : blocks) {
+                    if (block.shardIndex != iShard) {
+                        continue;
+                    }
+                    if (current != null && current.offset + current.byteCount == block.offset) {
+                        current = new ParityMismatch(iShard, current.offset, current.byteCount + block.byteCount);
+                    }
+                    else {
+                        if (current != null) {
+                            result.add(current);
+                        }
+                        current = block;
+                    }
+                }
+            }
+            if (current != null) {
+                result.add(current);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A range of bytes in one parity shard that doesn't match the data.
+     */
+    public static final class ParityMismatch {
+        private final int shardIndex;
+        private final int offset;
+        private final int byteCount;
+
+        public ParityMismatch(int shardIndex, int offset, int byteCount) {
+            this.shardIndex = shardIndex;
+            this.offset = offset;
+            this.byteCount = byteCount;
+        }
+
+        /**
+         * The index of the parity shard in the array of all shards.
+         */
+        public int getShardIndex() {
+            return shardIndex;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getByteCount() {
+            return byteCount;
+        }
+
+        @Override
+        public String toString() {
+            return "shard " + shardIndex + " bytes [" + offset + ", " + (offset + byteCount) + ")";
+        }
+    }
+
+    /**
+     * Verifies the parity of a range, one block at a time.
+     *
+     * When mismatches is null, this stops at the first block that
+     * doesn't match, and sets mismatchFound.  It also stops early if
+     * another slice has set mismatchFound.  When mismatches is given,
+     * every block of every parity shard that doesn't match is added to
+     * it.
+     */
+    private void verifyBlocks(byte [] [] shards, int offset, int byteCount,
+                              AtomicBoolean mismatchFound, List<ParityMismatch> mismatches) {
+        final VerifyBuffers buffers = verifyBuffers.get();
+        final int end = offset + byteCount;
+        for (int blockStart = offset; blockStart < end; blockStart += VERIFY_BLOCK_SIZE) {
+            if (mismatchFound != null && mismatchFound.get()) {
+                return;
+            }
+            final int blockByteCount = Math.min(VERIFY_BLOCK_SIZE, end - blockStart);
+
+            // The coding loops write each output at the same offset they
+            // read the inputs from, so the block of data is copied to the
+            // start of the block buffers first.  The copy is cheap next
+            // to computing the parity.
+            for (int iData = 0; iData < dataShardCount; iData++) {
+                System.arraycopy(shards[iData], blockStart, buffers.data[iData], 0, blockByteCount);
+            }
+            codingLoop.codeSomeShards(
+                    parityRows,
+                    buffers.data, dataShardCount,
+                    buffers.parity, parityShardCount,
+                    0, blockByteCount);
+
+            for (int iParity = 0; iParity < parityShardCount; iParity++) {
+                final byte [] parityShard = shards[dataShardCount + iParity];
+                if (Arrays.mismatch(buffers.parity[iParity], 0, blockByteCount,
+                                    parityShard, blockStart, blockStart + blockByteCount) < 0) {
+                    continue;
+                }
+                if (mismatches == null) {
+                    mismatchFound.set(true);
+                    return;
+                }
+                mismatches.add(new ParityMismatch(dataShardCount + iParity, blockStart, blockByteCount));
+            }
+        }
+    }
+
+    /**
+     * One block of each shard, for verifyBlocks() to compute parity in.
+     */
+    private static final class VerifyBuffers {
+        final byte [] [] data;
+        final byte [] [] parity;
+
+        VerifyBuffers(int dataShardCount, int parityShardCount) {
+            data = new byte [dataShardCount] [VERIFY_BLOCK_SIZE];
+            parity = new byte [parityShardCount] [VERIFY_BLOCK_SIZE];
+        }
     }
 
     /**
@@ -175,9 +743,476 @@ public class ReedSolomon {
                               boolean [] shardPresent,
                               final int offset,
                               final int byteCount) {
+        decodeMissing(shards, shardPresent, offset, byteCount, null);
+    }
+
+    /**
+     * Fills in missing shards like the method above, splitting the work
+     * across an executor the same way as the parallel encodeParity().
+     *
+     * The decode matrix is worked out once, on the calling thread.
+     * Each slice then rebuilds its bytes of the missing data shards,
+     * followed by its bytes of the missing parity shards.
+     *
+     * @param executor Where to run the slices.  If null, everything runs
+     *                 on the calling thread.
+     */
+    public void decodeMissing(final byte [] [] shards,
+                              boolean [] shardPresent,
+                              final int offset,
+                              final int byteCount,
+                              Executor executor) {
         // Check arguments.
         checkBuffersAndSizes(shards, offset, byteCount);
 
+        // Work out which shards to decode from, and which to rebuild.
+        // On the calling thread, the plan and the arrays of shards are
+        // this thread's scratch space, so a decode allocates nothing
+        // once its decode matrix is in the cache.
+        if (executor == null) {
+            final Scratch threadScratch = scratch.get();
+            final DecodePlan plan = threadScratch.plan;
+            if (!planDecode(shardPresent, plan)) {
+                return;
+            }
+            try {
+                decodeSlice(plan, shards,
+                        pick(shards, plan.inputShards, dataShardCount, threadScratch.inputs),
+                        pick(shards, plan.dataOutputs, plan.dataOutputCount, threadScratch.outputs),
+                        pick(shards, plan.parityOutputs, plan.parityOutputCount, threadScratch.moreOutputs),
+                        offset, byteCount);
+            }
+            finally {
+                threadScratch.clear();
+            }
+            return;
+        }
+
+        // The slices use the plan while this thread waits for them, so
+        // it can't be scratch space.  See encodeParity().
+        final DecodePlan plan = new DecodePlan(dataShardCount, parityShardCount);
+        if (!planDecode(shardPresent, plan)) {
+            return;
+        }
+        final byte [] [] subShards = pick(shards, plan.inputShards, dataShardCount, new byte [dataShardCount] []);
+        final byte [] [] dataOutputs = pick(shards, plan.dataOutputs, plan.dataOutputCount,
+                new byte [plan.dataOutputCount] []);
+        final byte [] [] parityOutputs = pick(shards, plan.parityOutputs, plan.parityOutputCount,
+                new byte [plan.parityOutputCount] []);
+
+        // Each slice of bytes only depends on the same slice of the
+        // other shards, so both steps can be done slice by slice.
+        runSliced(executor, offset, byteCount, (sliceOffset, sliceByteCount) ->
+                decodeSlice(plan, shards, subShards, dataOutputs, parityOutputs, sliceOffset, sliceByteCount));
+    }
+
+    /**
+     * Rebuilds one range of bytes of the missing shards: the data
+     * shards from the inputs, and then the parity shards from all of
+     * the data.  The arrays of outputs may be longer than the plan's
+     * lists of outputs.
+     */
+    private void decodeSlice(DecodePlan plan, byte [] [] shards,
+                             byte [] [] subShards, byte [] [] dataOutputs, byte [] [] parityOutputs,
+                             int offset, int byteCount) {
+        if (plan.dataOutputCount != 0) {
+            codingLoop.codeSomeShards(
+                    plan.dataMatrixRows,
+                    subShards, dataShardCount,
+                    dataOutputs, plan.dataOutputCount,
+                    offset, byteCount);
+        }
+        if (plan.parityOutputCount != 0) {
+            codingLoop.codeSomeShards(
+                    plan.parityMatrixRows,
+                    shards, dataShardCount,
+                    parityOutputs, plan.parityOutputCount,
+                    offset, byteCount);
+        }
+    }
+
+    /**
+     * Arrays that one thread reuses from call to call, so that coding
+     * on the calling thread doesn't allocate them.
+     *
+     * The arrays of shards only hold on to shards during a call, and are
+     * cleared after, so that they don't keep a caller's buffers alive.
+     * The inversion arrays each hold up to a dataShardCount by
+     * dataShardCount matrix, and the int arrays the bookkeeping for
+     * building a decode matrix.  The decode plan is the one for the
+     * current decodeMissing() call on this thread.
+     */
+    private static final class Scratch {
+        final byte [] [] inputs;
+        final byte [] [] outputs;
+        final byte [] [] moreOutputs;
+        final int [] inputShards;
+        final BitSet inputRows;
+        final int [] matrixInputShards;
+        final int [] inputIndexOfData;
+        final int [] missingData;
+        final byte [] missingColumns;
+        final byte [] inverse;
+        final DecodePlan plan;
+
+        /**
+         * The buffers for encodeParityBatch(), one per shard, and the
+         * parity ones again on their own.  They start empty and grow
+         * to the biggest batch this thread has coded.
+         */
+        byte [] [] batch;
+        byte [] [] batchOutputs;
+
+        Scratch(int dataShardCount, int totalShardCount) {
+            batch = new byte [totalShardCount] [0];
+            batchOutputs = Arrays.copyOfRange(batch, dataShardCount, totalShardCount);
+            inputs = new byte [totalShardCount] [];
+            outputs = new byte [totalShardCount] [];
+            moreOutputs = new byte [totalShardCount] [];
+            inputShards = new int [dataShardCount];
+            inputRows = new BitSet(totalShardCount);
+            matrixInputShards = new int [dataShardCount];
+            inputIndexOfData = new int [dataShardCount];
+            missingData = new int [dataShardCount];
+            missingColumns = new byte [dataShardCount * dataShardCount];
+            inverse = new byte [dataShardCount * dataShardCount];
+            plan = new DecodePlan(dataShardCount, totalShardCount - dataShardCount);
+        }
+
+        void clear() {
+            Arrays.fill(inputs, null);
+            Arrays.fill(outputs, null);
+            Arrays.fill(moreOutputs, null);
+        }
+
+        void ensureBatchCapacity(int capacity) {
+            if (batch[0].length < capacity) {
+                for (int i = 0; i < batch.length; i++) {
+                    batch[i] = new byte [capacity];
+                }
+                System.arraycopy(batch, batch.length - batchOutputs.length, batchOutputs, 0, batchOutputs.length);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds only the chosen shards, over only the chosen range of
+     * bytes.
+     *
+     * decodeMissing() rebuilds every missing shard.  Often only some of
+     * them are needed: a read only needs the missing data shards, and
+     * repairing one lost shard only needs that one.  Each shard asked
+     * for is computed straight from dataShardCount of the shards that
+     * are present, in one pass.  A missing parity shard is computed
+     * from the inputs directly, without first rebuilding the missing
+     * data shards, using its encoding row times the decode matrix.
+     *
+     * Shards that are asked for but already present are left alone.
+     *
+     * @param shards All of the shards, data first.  The ones to build
+     *               must be buffers to write into.  The rest of the
+     *               missing ones are not used, and may be null.
+     * @param shardPresent Which shards have data.
+     * @param shardsToBuild The indices of the shards to rebuild.
+     * @param offset The index of the first byte in each shard to rebuild.
+     * @param byteCount The number of bytes to rebuild in each shard.
+     */
+    public void reconstruct(byte [] [] shards,
+                            boolean [] shardPresent,
+                            int [] shardsToBuild,
+                            int offset,
+                            int byteCount) {
+        reconstruct(shards, shardPresent, shardsToBuild, offset, byteCount, null);
+    }
+
+    /**
+     * Rebuilds the chosen shards like the method above, splitting the
+     * work across an executor the same way as the parallel
+     * encodeParity().
+     *
+     * @param executor Where to run the slices.  If null, everything runs
+     *                 on the calling thread.
+     */
+    public void reconstruct(byte [] [] shards,
+                            boolean [] shardPresent,
+                            int [] shardsToBuild,
+                            final int offset,
+                            final int byteCount,
+                            Executor executor) {
+        // Check arguments.  Only the shards read or written have to be
+        // there.
+        if (shards.length != totalShardCount || shardPresent.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shards: " + shards.length);
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset is negative: " + offset);
+        }
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("byteCount is negative: " + byteCount);
+        }
+
+        // On the calling thread, the arrays come from this thread's
+        // scratch space.  See encodeParity() for why the executor case
+        // can't use it.
+        if (executor == null && shardsToBuild.length <= totalShardCount) {
+            final Scratch threadScratch = scratch.get();
+            try {
+                reconstruct(shards, shardPresent, shardsToBuild, offset, byteCount, null, threadScratch);
+            }
+            finally {
+                threadScratch.clear();
+            }
+        }
+        else {
+            reconstruct(shards, shardPresent, shardsToBuild, offset, byteCount, executor, null);
+        }
+    }
+
+    /**
+     * Does the work of reconstruct(), using the arrays in threadScratch
+     * if it's not null, or new ones if it is.
+     */
+    private void reconstruct(byte [] [] shards,
+                             boolean [] shardPresent,
+                             int [] shardsToBuild,
+                             final int offset,
+                             final int byteCount,
+                             Executor executor,
+                             Scratch threadScratch) {
+        // Pick the shards to decode from: the present ones, in order,
+        // as in decodeMissing().  These are only used on this thread,
+        // before any slices start, so they are always scratch space.
+        final Scratch planScratch = (threadScratch != null) ? threadScratch : scratch.get();
+        final int [] inputShards = planScratch.inputShards;
+        final BitSet inputRows = planScratch.inputRows;
+        inputRows.clear();
+        int inputCount = 0;
+        for (int iShard = 0; iShard < totalShardCount && inputCount < dataShardCount; iShard++) {
+            if (shardPresent[iShard]) {
+                inputShards[inputCount] = iShard;
+                inputRows.set(iShard);
+                inputCount += 1;
+            }
+        }
+        if (inputCount < dataShardCount) {
+            throw new IllegalArgumentException("Not enough shards present");
+        }
+        final boolean allDataPresent = (inputShards[dataShardCount - 1] == dataShardCount - 1);
+
+        // Work out the row that produces each shard from the inputs.
+        int outputCount = 0;
+        final byte [] [] outputs = (threadScratch != null) ? threadScratch.outputs : new byte [shardsToBuild.length] [];
+        final byte [] [] outputRows = (threadScratch != null) ? threadScratch.moreOutputs : new byte [shardsToBuild.length] [];
+        for (int iShard : shardsToBuild) {
+            if (iShard < 0 || totalShardCount <= iShard) {
+                throw new IllegalArgumentException("shard index out of range: " + iShard);
+            }
+            if (shardPresent[iShard]) {
+                continue;
+            }
+            byte [] row;
+            if (iShard < dataShardCount) {
+                row = getDecodeMatrix(inputRows)[iShard];
+            }
+            else if (allDataPresent) {
+                row = parityRows[iShard - dataShardCount];
+            }
+            else {
+                row = multiplyRow(parityRows[iShard - dataShardCount], getDecodeMatrix(inputRows));
+            }
+            outputs[outputCount] = shards[iShard];
+            outputRows[outputCount] = row;
+            outputCount += 1;
+        }
+        if (outputCount == 0) {
+            return;
+        }
+
+        final byte [] [] inputs = pick(shards, inputShards, dataShardCount,
+                (threadScratch != null) ? threadScratch.inputs : new byte [dataShardCount] []);
+        for (int i = 0; i < dataShardCount; i++) {
+            checkShardLength(inputs[i], offset, byteCount);
+        }
+        for (int i = 0; i < outputCount; i++) {
+            checkShardLength(outputs[i], offset, byteCount);
+        }
+
+        // Do the coding.
+        final int finalOutputCount = outputCount;
+        runSliced(executor, offset, byteCount, (sliceOffset, sliceByteCount) ->
+                codingLoop.codeSomeShards(
+                        outputRows,
+                        inputs, dataShardCount,
+                        outputs, finalOutputCount,
+                        sliceOffset, sliceByteCount));
+    }
+
+    /**
+     * Encodes parity for a set of data shards held in ByteBuffers.
+     *
+     * The buffers can be direct, memory-mapped, or heap buffers, and are
+     * encoded in place.  A MemorySegment can be passed in through its
+     * asByteBuffer() view.  Positions and limits are not changed;
+     * offset is an absolute index into each buffer.
+     *
+     * @param shards An array containing data shards followed by parity shards.
+     *               They must all have the same limit.
+     * @param offset The index of the first byte in each shard to encode.
+     * @param byteCount The number of bytes to encode in each shard.
+     */
+    public void encodeParity(ByteBuffer [] shards, int offset, int byteCount) {
+        encodeParity(shards, offset, byteCount, null);
+    }
+
+    /**
+     * Encodes parity for shards held in ByteBuffers, splitting the work
+     * across an executor the same way as the byte array version.
+     *
+     * @param executor Where to run the slices.  If null, everything runs
+     *                 on the calling thread.
+     */
+    public void encodeParity(ByteBuffer [] shards, int offset, int byteCount, Executor executor) {
+        // Check arguments.
+        checkBuffersAndSizes(shards, offset, byteCount);
+
+        // Build the array of output buffers.
+        final ByteBuffer [] outputs = new ByteBuffer [parityShardCount];
+        System.arraycopy(shards, dataShardCount, outputs, 0, parityShardCount);
+
+        // Do the coding.
+        runSliced(executor, offset, byteCount, (sliceOffset, sliceByteCount) ->
+                codingLoop.codeSomeShards(
+                        parityRows,
+                        shards, dataShardCount,
+                        outputs, parityShardCount,
+                        sliceOffset, sliceByteCount));
+    }
+
+    /**
+     * Encodes parity for a stripe where all of the shards are laid out
+     * back to back in one buffer: shard i starts at i * shardSize.
+     *
+     * This lets data be read straight into one buffer and encoded in
+     * place, with no copying into separate shard arrays.
+     *
+     * @param stripe A buffer holding totalShardCount * shardSize bytes,
+     *               starting at index 0.
+     * @param shardSize The number of bytes in each shard.
+     * @param offset The index of the first byte in each shard to encode.
+     * @param byteCount The number of bytes to encode in each shard.
+     */
+    public void encodeParity(ByteBuffer stripe, int shardSize, int offset, int byteCount) {
+        encodeParity(shardViews(stripe, shardSize), offset, byteCount);
+    }
+
+    /**
+     * Fills in missing shards held in ByteBuffers.  See the byte array
+     * version for details, and encodeParity(ByteBuffer[], ...) for how
+     * the buffers are used.
+     */
+    public void decodeMissing(ByteBuffer [] shards,
+                              boolean [] shardPresent,
+                              final int offset,
+                              final int byteCount) {
+        decodeMissing(shards, shardPresent, offset, byteCount, null);
+    }
+
+    /**
+     * Fills in missing shards held in ByteBuffers, splitting the work
+     * across an executor the same way as the byte array version.
+     *
+     * @param executor Where to run the slices.  If null, everything runs
+     *                 on the calling thread.
+     */
+    public void decodeMissing(final ByteBuffer [] shards,
+                              boolean [] shardPresent,
+                              final int offset,
+                              final int byteCount,
+                              Executor executor) {
+        // Check arguments.
+        checkBuffersAndSizes(shards, offset, byteCount);
+
+        // Work out which shards to decode from, and which to rebuild.
+        // As in the byte array version, only the calling thread can use
+        // its scratch plan.
+        final DecodePlan plan = (executor == null)
+                ? scratch.get().plan
+                : new DecodePlan(dataShardCount, parityShardCount);
+        if (!planDecode(shardPresent, plan)) {
+            return;
+        }
+        final ByteBuffer [] subShards = pick(shards, plan.inputShards, dataShardCount,
+                new ByteBuffer [dataShardCount]);
+        final ByteBuffer [] dataOutputs = pick(shards, plan.dataOutputs, plan.dataOutputCount,
+                new ByteBuffer [plan.dataOutputCount]);
+        final ByteBuffer [] parityOutputs = pick(shards, plan.parityOutputs, plan.parityOutputCount,
+                new ByteBuffer [plan.parityOutputCount]);
+
+        // Re-create the missing data shards, then the missing parity.
+        runSliced(executor, offset, byteCount, (sliceOffset, sliceByteCount) -> {
+            if (dataOutputs.length != 0) {
+                codingLoop.codeSomeShards(
+                        plan.dataMatrixRows,
+                        subShards, dataShardCount,
+                        dataOutputs, dataOutputs.length,
+                        sliceOffset, sliceByteCount);
+            }
+            if (parityOutputs.length != 0) {
+                codingLoop.codeSomeShards(
+                        plan.parityMatrixRows,
+                        shards, dataShardCount,
+                        parityOutputs, parityOutputs.length,
+                        sliceOffset, sliceByteCount);
+            }
+        });
+    }
+
+    /**
+     * Fills in missing shards of a stripe laid out back to back in one
+     * buffer, as in encodeParity(ByteBuffer, int, int, int).
+     */
+    public void decodeMissing(ByteBuffer stripe,
+                              int shardSize,
+                              boolean [] shardPresent,
+                              final int offset,
+                              final int byteCount) {
+        decodeMissing(shardViews(stripe, shardSize), shardPresent, offset, byteCount);
+    }
+
+    /**
+     * Which shards a decode reads, which it writes, and the matrix
+     * rows that produce each one that it writes.
+     *
+     * The arrays are big enough for any decode, and are reused from
+     * plan to plan.  Only the first dataOutputCount and
+     * parityOutputCount entries of the output arrays are used.  At
+     * most parityShardCount shards can be missing, so that is as many
+     * as either kind of output can need.
+     */
+    private static final class DecodePlan {
+        final int [] inputShards;
+        final int [] dataOutputs;
+        final byte [] [] dataMatrixRows;
+        final int [] parityOutputs;
+        final byte [] [] parityMatrixRows;
+        int dataOutputCount;
+        int parityOutputCount;
+
+        DecodePlan(int dataShardCount, int parityShardCount) {
+            inputShards = new int [dataShardCount];
+            dataOutputs = new int [parityShardCount];
+            dataMatrixRows = new byte [parityShardCount] [];
+            parityOutputs = new int [parityShardCount];
+            parityMatrixRows = new byte [parityShardCount] [];
+        }
+    }
+
+    /**
+     * Works out how to fill in the shards that are not present, and
+     * writes it into plan.  Returns false if all of the shards are
+     * present, and there is nothing to do.
+     */
+    private boolean planDecode(boolean [] shardPresent, DecodePlan plan) {
         // Quick check: are all of the shards present?  If so, there's
         // nothing to do.
         int numberPresent = 0;
@@ -189,7 +1224,7 @@ public class ReedSolomon {
         if (numberPresent == totalShardCount) {
             // Cool.  All of the shards data data.  We don't
             // need to do anything.
-            return;
+            return false;
         }
 
         // More complete sanity check
@@ -197,77 +1232,331 @@ public class ReedSolomon {
             throw new IllegalArgumentException("Not enough shards present");
         }
 
-        // Pull out the rows of the matrix that correspond to the
-        // shards that we have and build a square matrix.  This
-        // matrix could be used to generate the shards that we have
-        // from the original data.
-        //
-        // Also, pull out an array holding just the shards that
-        // correspond to the rows of the submatrix.  These shards
-        // will be the input to the decoding process that re-creates
-        // the missing data shards.
-        Matrix subMatrix = new Matrix(dataShardCount, dataShardCount);
-        byte [] [] subShards = new byte [dataShardCount] [];
+        // Pick the shards to decode from.  Taking the present shards
+        // in order means that every present data shard is used,
+        // and parity shards only fill in for the missing ones.  The
+        // rows for data shards are rows of the identity matrix, so this
+        // is the choice that reconstructs the fewest shards.  When
+        // all of the data shards are present, there is nothing to
+        // invert at all: only the missing parity has to be recomputed.
+        // The set of inputs is only needed to look up the decode
+        // matrix, so it is always this thread's.
+        final BitSet inputRows = scratch.get().inputRows;
+        inputRows.clear();
+        int missingDataCount = 0;
         {
             int subMatrixRow = 0;
             for (int matrixRow = 0; matrixRow < totalShardCount && subMatrixRow < dataShardCount; matrixRow++) {
                 if (shardPresent[matrixRow]) {
-                    for (int c = 0; c < dataShardCount; c++) {
-                        subMatrix.set(subMatrixRow, c, matrix.get(matrixRow, c));
-                    }
-                    subShards[subMatrixRow] = shards[matrixRow];
+                    inputRows.set(matrixRow);
+                    plan.inputShards[subMatrixRow] = matrixRow;
                     subMatrixRow += 1;
                 }
+                else if (matrixRow < dataShardCount) {
+                    missingDataCount += 1;
+                }
             }
         }
 
-        // Invert the matrix, so we can go from the encoded shards
-        // back to the original data.  Then pull out the row that
-        // generates the shard that we want to decode.  Note that
-        // since this matrix maps back to the orginal data, it can
-        // be used to create a data shard, but not a parity shard.
-        Matrix dataDecodeMatrix = subMatrix.invert();
-
-        // Re-create any data shards that were missing.
+        // Work out the missing data shards, and the rows of the decode
+        // matrix that re-create them.
         //
         // The input to the coding is all of the shards we actually
         // have, and the output is the missing data shards.  The computation
-        // is done using the special decode matrix we just built.
-        byte [] [] outputs = new byte [parityShardCount] [];
-        byte [] [] matrixRows = new byte [parityShardCount] [];
-        int outputCount = 0;
-        for (int iShard = 0; iShard < dataShardCount; iShard++) {
-            if (!shardPresent[iShard]) {
-                outputs[outputCount] = shards[iShard];
-                matrixRows[outputCount] = dataDecodeMatrix.getRow(iShard);
-                outputCount += 1;
+        // is done using the inverse of the rows of the matrix that
+        // produce the shards we have, which goes from the encoded shards
+        // back to the original data.  Note that since this matrix maps
+        // back to the orginal data, it can be used to create a data
+        // shard, but not a parity shard.
+        plan.dataOutputCount = missingDataCount;
+        if (missingDataCount != 0) {
+            byte [] [] dataDecodeMatrix = getDecodeMatrix(inputRows);
+            int outputCount = 0;
+            for (int iShard = 0; iShard < dataShardCount; iShard++) {
+                if (!shardPresent[iShard]) {
+                    plan.dataOutputs[outputCount] = iShard;
+                    plan.dataMatrixRows[outputCount] = dataDecodeMatrix[iShard];
+                    outputCount += 1;
+                }
             }
         }
-        codingLoop.codeSomeShards(
-                matrixRows,
-                subShards, dataShardCount,
-                outputs, outputCount,
-                offset, byteCount);
 
-        // Now that we have all of the data shards intact, we can
-        // compute any of the parity that is missing.
+        // Once all of the data shards are intact, we can compute any
+        // of the parity that is missing.
         //
         // The input to the coding is ALL of the data shards, including
-        // any that we just calculated.  The output is whichever of the
-        // data shards were missing.
-        outputCount = 0;
+        // any that were just calculated.  The output is whichever of the
+        // parity shards were missing.
+        plan.parityOutputCount = totalShardCount - numberPresent - missingDataCount;
+        int outputCount = 0;
         for (int iShard = dataShardCount; iShard < totalShardCount; iShard++) {
             if (!shardPresent[iShard]) {
-                outputs[outputCount] = shards[iShard];
-                matrixRows[outputCount] = parityRows[iShard - dataShardCount];
+                plan.parityOutputs[outputCount] = iShard;
+                plan.parityMatrixRows[outputCount] = parityRows[iShard - dataShardCount];
                 outputCount += 1;
             }
         }
-        codingLoop.codeSomeShards(
-                matrixRows,
-                shards, dataShardCount,
-                outputs, outputCount,
-                offset, byteCount);
+        return true;
+    }
+
+    /**
+     * Fills in result with the shards at the first count of the given
+     * indices.
+     */
+    private static <T> T [] pick(T [] shards, int [] indices, int count, T [] result) {
+        for (int i = 0; i < count; i++) {
+            result[i] = shards[indices[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Multiplies a row vector by a square matrix, given as rows.
+     */
+    private static byte [] multiplyRow(byte [] row, byte [] [] matrixRows) {
+        final byte [] result = new byte [row.length];
+        for (int c = 0; c < result.length; c++) {
+            byte value = 0;
+            for (int i = 0; i < row.length; i++) {
+                value ^= Galois.multiply(row[i], matrixRows[i][c]);
+            }
+            result[c] = value;
+        }
+        return result;
+    }
+
+    /**
+     * Checks that one shard is there and long enough for a range.
+     */
+    private static void checkShardLength(byte [] shard, int offset, int byteCount) {
+        if (shard == null) {
+            throw new IllegalArgumentException("shard is null");
+        }
+        if (shard.length < offset + byteCount) {
+            throw new IllegalArgumentException("buffers to small: " + byteCount + offset);
+        }
+    }
+
+    /**
+     * One piece of work over a range of bytes in every shard.
+     */
+    private interface SliceTask {
+        void run(int offset, int byteCount);
+    }
+
+    /**
+     * Runs a task over a range of bytes, either all at once on the
+     * calling thread, or as slices on the executor.
+     */
+    private static void runSliced(Executor executor, int offset, int byteCount, SliceTask task) {
+        if (executor == null || byteCount < PARALLEL_THRESHOLD) {
+            task.run(offset, byteCount);
+            return;
+        }
+        final int sliceCount = (byteCount + PARALLEL_SLICE_SIZE - 1) / PARALLEL_SLICE_SIZE;
+        final CompletableFuture<?> [] futures = new CompletableFuture<?> [sliceCount];
+        for (int iSlice = 0; iSlice < sliceCount; iSlice++) {
+            final int sliceOffset = offset + iSlice * PARALLEL_SLICE_SIZE;
+            final int sliceByteCount = Math.min(PARALLEL_SLICE_SIZE, offset + byteCount - sliceOffset);
+            futures[iSlice] = CompletableFuture.runAsync(() -> task.run(sliceOffset, sliceByteCount), executor);
+        }
+        try {
+            CompletableFuture.allOf(futures).join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the rows of the decode matrix for the given set of input
+     * shards, computing it if it isn't known yet.
+     *
+     * After precomputeDecodeMatrices(), every pattern is in a map that
+     * never changes, so lookups take no lock.  Otherwise the matrices
+     * are kept in the LRU cache, which does.
+     */
+    private byte [] [] getDecodeMatrix(BitSet inputRows) {
+        final Map<BitSet, byte [] []> precomputed = precomputedDecodeMatrices;
+        if (precomputed != null) {
+            final byte [] [] result = precomputed.get(inputRows);
+            if (result != null) {
+                return result;
+            }
+        }
+        byte [] [] result = decodeMatrixCache.get(inputRows);
+        if (result == null) {
+            result = computeDecodeMatrix(inputRows);
+            // The caller's set may be scratch space that gets reused.
+            decodeMatrixCache.put((BitSet) inputRows.clone(), result);
+        }
+        return result;
+    }
+
+    /**
+     * Computes the rows of the decode matrix for the given set of input
+     * shards.
+     *
+     * The decode matrix is the inverse of the rows of the encoding
+     * matrix for the input shards.  Multiplying it by the input shards
+     * gives back the data shards.
+     *
+     * Because the top of the encoding matrix is the identity, only
+     * part of it has to be inverted.  With e data shards missing, the
+     * inputs are the other data shards plus e parity shards, and
+     *
+     *     parity = C_missing * missingData + C_present * presentData
+     *
+     * where C_missing and C_present are the columns of the parity rows
+     * for the missing and present data shards.  So
+     *
+     *     missingData = inverse(C_missing) * (parity + C_present * presentData)
+     *
+     * which takes inverting an e by e matrix instead of a
+     * dataShardCount by dataShardCount one.
+     */
+    private byte [] [] computeDecodeMatrix(BitSet inputRows) {
+        // Sort out where each input comes from.  Inputs are in
+        // order, so the present data shards come first.  The arrays
+        // for this, and for the inversion, are this thread's scratch
+        // space; only the result, which is kept, is new.
+        final Scratch threadScratch = scratch.get();
+        final int [] inputShards = threadScratch.matrixInputShards;
+        int iShard = -1;
+        for (int i = 0; i < dataShardCount; i++) {
+            iShard = inputRows.nextSetBit(iShard + 1);
+            inputShards[i] = iShard;
+        }
+        final int [] inputIndexOfData = threadScratch.inputIndexOfData;
+        Arrays.fill(inputIndexOfData, -1);
+        int presentDataCount = 0;
+        while (presentDataCount < dataShardCount && inputShards[presentDataCount] < dataShardCount) {
+            inputIndexOfData[inputShards[presentDataCount]] = presentDataCount;
+            presentDataCount += 1;
+        }
+        final int missingCount = dataShardCount - presentDataCount;
+        final int [] missingData = threadScratch.missingData;
+        for (int iData = 0, m = 0; iData < dataShardCount; iData++) {
+            if (inputIndexOfData[iData] < 0) {
+                missingData[m++] = iData;
+            }
+        }
+
+        // Invert the part of the parity rows for the missing data.
+        final byte [] missingColumns = threadScratch.missingColumns;
+        final byte [] inverse = threadScratch.inverse;
+        for (int r = 0; r < missingCount; r++) {
+            for (int c = 0; c < missingCount; c++) {
+                missingColumns[r * missingCount + c] = matrix.get(inputShards[presentDataCount + r], missingData[c]);
+            }
+        }
+        Matrix.invert(missingColumns, inverse, missingCount);
+
+        // Present data shards are copied from their inputs.
+        final byte [] [] result = new byte [dataShardCount] [];
+        for (int iData = 0; iData < dataShardCount; iData++) {
+            if (0 <= inputIndexOfData[iData]) {
+                result[iData] = new byte [dataShardCount];
+                result[iData][inputIndexOfData[iData]] = 1;
+            }
+        }
+
+        // Missing data shards come from the parity inputs, and from
+        // the present data shards through the parity rows.
+        final byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
+        for (int m = 0; m < missingCount; m++) {
+            final byte [] row = new byte [dataShardCount];
+            for (int p = 0; p < missingCount; p++) {
+                final byte coefficient = inverse[m * missingCount + p];
+                final int multTableRow = (coefficient & 0xFF) << 8;
+                final byte [] parityRow = parityRows[inputShards[presentDataCount + p] - dataShardCount];
+                row[presentDataCount + p] = coefficient;
+                for (int iData = 0; iData < dataShardCount; iData++) {
+                    if (0 <= inputIndexOfData[iData]) {
+                        row[inputIndexOfData[iData]] ^= table[multTableRow | (parityRow[iData] & 0xFF)];
+                    }
+                }
+            }
+            result[missingData[m]] = row;
+        }
+        return result;
+    }
+
+    /**
+     * Advances an array of distinct, increasing indices below n to the
+     * next combination in lexicographic order.  Returns false when
+     * there are no more.
+     */
+    private static boolean nextCombination(int [] indices, int n) {
+        int k = indices.length;
+        int i = k - 1;
+        while (0 <= i && indices[i] == n - k + i) {
+            i -= 1;
+        }
+        if (i < 0) {
+            return false;
+        }
+        indices[i] += 1;
+        for (int j = i + 1; j < k; j++) {
+            indices[j] = indices[j - 1] + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Returns n choose k, saturating at Long.MAX_VALUE.
+     */
+    static long binomial(int n, int k) {
+        long result = 1;
+        for (int i = 1; i <= Math.min(k, n - k); i++) {
+            if (Long.MAX_VALUE / (n - i + 1) < result) {
+                return Long.MAX_VALUE;
+            }
+            result = result * (n - i + 1) / i;
+        }
+        return result;
+    }
+
+    /**
+     * Returns a view of each shard in a stripe laid out back to back
+     * in one buffer.
+     */
+    private ByteBuffer [] shardViews(ByteBuffer stripe, int shardSize) {
+        if (shardSize < 0 || stripe.capacity() / totalShardCount < shardSize) {
+            throw new IllegalArgumentException("stripe is too small for " + totalShardCount + " shards of " + shardSize + " bytes");
+        }
+        ByteBuffer [] result = new ByteBuffer [totalShardCount];
+        for (int i = 0; i < totalShardCount; i++) {
+            result[i] = stripe.slice(i * shardSize, shardSize);
+        }
+        return result;
+    }
+
+    /**
+     * Checks the consistency of arguments passed to the ByteBuffer methods.
+     */
+    private void checkBuffersAndSizes(ByteBuffer [] shards, int offset, int byteCount) {
+        if (shards.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shards: " + shards.length);
+        }
+        int shardLength = shards[0].limit();
+        for (int i = 1; i < shards.length; i++) {
+            if (shards[i].limit() != shardLength) {
+                throw new IllegalArgumentException("Shards are different sizes");
+            }
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset is negative: " + offset);
+        }
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("byteCount is negative: " + byteCount);
+        }
+        if (shardLength < offset + byteCount) {
+            throw new IllegalArgumentException("buffers to small: " + byteCount + offset);
+        }
     }
 
     /**
@@ -322,6 +1611,70 @@ public class ReedSolomon {
         return vandermonde.times(top.invert());
     }
 
+    /**
+     * Create the encoding matrix for MatrixType.CAUCHY.
+     *
+     * The parity rows start as the Cauchy matrix 1 / (x_r + y_c), with
+     * x_r = dataShards + r and y_c = c.  Every square submatrix of a
+     * Cauchy matrix is invertible, and scaling rows and columns by
+     * non-zero values keeps it that way.  The columns are scaled so the
+     * first parity row is all ones, then each other row is scaled so its
+     * coefficients have as few ones as possible in their bit matrices,
+     * which is the number of XORs it takes to code with them.
+     */
+    private static Matrix buildCauchyMatrix(int dataShards, int totalShards) {
+        final int parityShards = totalShards - dataShards;
+        final Matrix result = new Matrix(totalShards, dataShards);
+        for (int i = 0; i < dataShards; i++) {
+            result.set(i, i, (byte) 1);
+        }
+        if (parityShards == 0) {
+            return result;
+        }
+
+        final byte [] [] cauchy = new byte [parityShards] [dataShards];
+        for (int r = 0; r < parityShards; r++) {
+            for (int c = 0; c < dataShards; c++) {
+                cauchy[r][c] = Galois.divide((byte) 1, (byte) ((dataShards + r) ^ c));
+            }
+        }
+
+        // Make the first row all ones.
+        for (int c = 0; c < dataShards; c++) {
+            final byte scale = cauchy[0][c];
+            for (int r = 0; r < parityShards; r++) {
+                cauchy[r][c] = Galois.divide(cauchy[r][c], scale);
+            }
+        }
+
+        // Divide each of the other rows by whichever of its elements
+        // leaves the fewest ones.
+        for (int r = 1; r < parityShards; r++) {
+            byte bestDivisor = 1;
+            int bestOnes = Integer.MAX_VALUE;
+            for (int c = 0; c < dataShards; c++) {
+                int ones = 0;
+                for (int c2 = 0; c2 < dataShards; c2++) {
+                    ones += ByteOutputInputXorCodingLoop.bitMatrixOnes(Galois.divide(cauchy[r][c2], cauchy[r][c]));
+                }
+                if (ones < bestOnes) {
+                    bestOnes = ones;
+                    bestDivisor = cauchy[r][c];
+                }
+            }
+            for (int c = 0; c < dataShards; c++) {
+                cauchy[r][c] = Galois.divide(cauchy[r][c], bestDivisor);
+            }
+        }
+
+        for (int r = 0; r < parityShards; r++) {
+            for (int c = 0; c < dataShards; c++) {
+                result.set(dataShards + r, c, cauchy[r][c]);
+            }
+        }
+        return result;
+    }
+
     /**
      * Create a Vandermonde matrix, which is guaranteed to have the
      * property that any subset of rows that forms a square matrix
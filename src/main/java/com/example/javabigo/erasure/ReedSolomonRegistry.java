@@ -0,0 +1,86 @@
+package com.example.javabigo.erasure;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shared ReedSolomon codecs, one for each geometry and coding loop.
+ *
+ * Building a codec builds and inverts its encoding matrix, and a new
+ * codec starts with an empty decode matrix cache.  A ReedSolomon is
+ * safe to share between threads: its matrices don't change after it
+ * is built, the decode cache is synchronized, and the arrays it reuses
+ * are kept per thread.  So there's no reason to have more than one for
+ * each combination of data shards, parity shards and coding loop, and
+ * code that needs one should get it here instead of creating it.
+ *
+ * When all of a geometry's decode matrices fit in the cache, they are
+ * computed when the codec is first asked for, so no degraded read has
+ * to invert a matrix.
+ */
+public final class ReedSolomonRegistry {
+
+    private static final ConcurrentMap<Key, ReedSolomon> CODECS = new ConcurrentHashMap<>();
+
+    private ReedSolomonRegistry() {
+    }
+
+    /**
+     * Returns the shared codec for the geometry, using the default
+     * coding loop.
+     */
+    public static ReedSolomon get(int dataShardCount, int parityShardCount) {
+        return get(dataShardCount, parityShardCount, DefaultCodingLoop.INSTANCE);
+    }
+
+    /**
+     * Returns the shared codec for the geometry and coding loop,
+     * creating it the first time.
+     */
+    public static ReedSolomon get(int dataShardCount, int parityShardCount, CodingLoop codingLoop) {
+        return CODECS.computeIfAbsent(
+                new Key(dataShardCount, parityShardCount, codingLoop),
+                key -> create(key.dataShardCount, key.parityShardCount, key.codingLoop));
+    }
+
+    private static ReedSolomon create(int dataShardCount, int parityShardCount, CodingLoop codingLoop) {
+        final ReedSolomon codec = new ReedSolomon(dataShardCount, parityShardCount, codingLoop);
+        if (ReedSolomon.binomial(dataShardCount + parityShardCount, dataShardCount) - 1
+                <= ReedSolomon.DEFAULT_DECODE_CACHE_SIZE) {
+            codec.precomputeDecodeMatrices();
+        }
+        return codec;
+    }
+
+    /**
+     * The things that make one codec different from another.  Coding
+     * loops are compared by identity.
+     */
+    private static final class Key {
+        final int dataShardCount;
+        final int parityShardCount;
+        final CodingLoop codingLoop;
+
+        Key(int dataShardCount, int parityShardCount, CodingLoop codingLoop) {
+            this.dataShardCount = dataShardCount;
+            this.parityShardCount = parityShardCount;
+            this.codingLoop = codingLoop;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) other;
+            return dataShardCount == that.dataShardCount
+                    && parityShardCount == that.parityShardCount
+                    && codingLoop == that.codingLoop;
+        }
+
+        @Override
+        public int hashCode() {
+            return (dataShardCount * 257 + parityShardCount) * 31 + System.identityHashCode(codingLoop);
+        }
+    }
+}
@@ -7,12 +7,21 @@
 package com.example.javabigo.erasure;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Command-line program that decodes a file using Reed-Solomon 4+2.
@@ -21,6 +30,14 @@ import java.nio.ByteBuffer;
  * "foo.txt".  This program will expected to find "foo.txt.0" through
  * "foo.txt.5", with at most two missing.  It will then write
  * "foo.txt.decoded".
+ *
+ * The shard files and the decoded file are memory-mapped, so nothing
+ * the size of the file is held on the heap, and the missing shards are
+ * computed in slices spread across all of the cores.  The missing
+ * shards are re-created as files, which repairs the set of shards.
+ *
+ * If the argument is a directory, every file in it that has shard
+ * files is decoded.  The files are decoded in parallel, one per core.
  */
 public class SampleDecoder {
 
@@ -30,12 +47,15 @@ public class SampleDecoder {
 
     public static final int BYTES_IN_INT = 4;
 
-    @SuppressWarnings("ResultOfMethodCallIgnored")
+    private static final String SHARD_FILE_SUFFIX = "\\.[0-9]+";
+
+    private static final ReedSolomon REED_SOLOMON = ReedSolomonRegistry.get(DATA_SHARDS, PARITY_SHARDS);
+
     public static void main(String [] arguments) throws IOException {
 
         // Parse the command line
         if (arguments.length != 1) {
-            System.out.println("Usage: SampleDecoder <fileName>");
+            System.out.println("Usage: SampleDecoder <fileName or directory>");
             return;
         }
         final File originalFile = new File(arguments[0]);
@@ -44,60 +64,164 @@ public class SampleDecoder {
             return;
         }
 
-        // Read in any of the shards that are present.
-        // (There should be checking here to make sure the input
-        // shards are the same size, but there isn't.)
-        final byte [] [] shards = new byte [TOTAL_SHARDS] [];
+        if (originalFile.isDirectory()) {
+            decodeDirectory(originalFile);
+        }
+        else {
+            decodeFile(originalFile, ForkJoinPool.commonPool());
+        }
+    }
+
+    /**
+     * Decodes every file in a directory that has shard files, one file
+     * per core at a time.  A file that fails is reported, and the rest
+     * are still decoded.
+     */
+    private static void decodeDirectory(File directory) {
+        final String [] shardNames = directory.list((dir, name) -> name.matches(".*" + SHARD_FILE_SUFFIX));
+        if (shardNames == null) {
+            System.out.println("Cannot list directory: " + directory);
+            return;
+        }
+        final Set<String> originalNames = new TreeSet<>();
+        for (String shardName : shardNames) {
+            originalNames.add(shardName.replaceFirst(SHARD_FILE_SUFFIX + "$", ""));
+        }
+        final List<File> originalFiles = new ArrayList<>();
+        for (String name : originalNames) {
+            originalFiles.add(new File(directory, name));
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (File originalFile : originalFiles) {
+                // Each file is coded on one thread; the parallelism
+                // comes from doing many files at once.
+                futures.add(executor.submit(() -> {
+                    decodeFile(originalFile, null);
+                    return null;
+                }));
+            }
+            int failureCount = 0;
+            for (int i = 0; i < originalFiles.size(); i++) {
+                try {
+                    futures.get(i).get();
+                }
+                catch (ExecutionException e) {
+                    System.err.println("Failed to decode " + originalFiles.get(i) + ": " + e.getCause());
+                    failureCount += 1;
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            System.out.println("decoded " + (originalFiles.size() - failureCount) + " of " + originalFiles.size() + " files");
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Decodes one file from its shard files, re-creating any missing
+     * shard files along the way.
+     *
+     * @param executor Where to run the slices of the decoding, or null
+     *                 to do it all on the calling thread.
+     */
+    private static void decodeFile(File originalFile, Executor executor) throws IOException {
+
+        // Find out which shards are present, and how big they are.
+        final File [] shardFiles = new File [TOTAL_SHARDS];
         final boolean [] shardPresent = new boolean [TOTAL_SHARDS];
-        int shardSize = 0;
+        long shardSize = -1;
         int shardCount = 0;
         for (int i = 0; i < TOTAL_SHARDS; i++) {
-            File shardFile = new File(
+            shardFiles[i] = new File(
                     originalFile.getParentFile(),
                     originalFile.getName() + "." + i);
-            if (shardFile.exists()) {
-                shardSize = (int) shardFile.length();
-                shards[i] = new byte [shardSize];
+            if (shardFiles[i].exists()) {
+                if (0 <= shardSize && shardFiles[i].length() != shardSize) {
+                    throw new IOException("shards are different sizes: " + shardFiles[i]);
+                }
+                shardSize = shardFiles[i].length();
                 shardPresent[i] = true;
                 shardCount += 1;
-                InputStream in = new FileInputStream(shardFile);
-                in.read(shards[i], 0, shardSize);
-                in.close();
-                System.out.println("Read " + shardFile);
             }
         }
 
         // We need at least DATA_SHARDS to be able to reconstruct the file.
         if (shardCount < DATA_SHARDS) {
-            System.out.println("Not enough shards present");
-            return;
+            throw new IOException("Not enough shards present: " + originalFile);
+        }
+        if (Integer.MAX_VALUE < shardSize) {
+            throw new IOException("shards too big: " + originalFile);
+        }
+
+        // Map the shards that are present, and create files for the
+        // ones that are missing.
+        final MappedByteBuffer [] shards = new MappedByteBuffer [TOTAL_SHARDS];
+        for (int i = 0; i < TOTAL_SHARDS; i++) {
+            if (shardPresent[i]) {
+                try (FileChannel in = FileChannel.open(shardFiles[i].toPath(), StandardOpenOption.READ)) {
+                    shards[i] = in.map(FileChannel.MapMode.READ_ONLY, 0, shardSize);
+                }
+            }
+            else {
+                try (FileChannel out = FileChannel.open(
+                        shardFiles[i].toPath(),
+                        StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)) {
+                    shards[i] = out.map(FileChannel.MapMode.READ_WRITE, 0, shardSize);
+                }
+            }
         }
 
-        // Make empty buffers for the missing shards.
+        // Use Reed-Solomon to fill in the missing shards, in place.
+        REED_SOLOMON.decodeMissing(shards, shardPresent, 0, (int) shardSize, executor);
         for (int i = 0; i < TOTAL_SHARDS; i++) {
             if (!shardPresent[i]) {
-                shards[i] = new byte [shardSize];
+                shards[i].force();
+                System.out.println("Rebuilt " + shardFiles[i]);
             }
         }
 
-        // Use Reed-Solomon to fill in the missing shards
-        ReedSolomon reedSolomon = ReedSolomon.create(DATA_SHARDS, PARITY_SHARDS);
-        reedSolomon.decodeMissing(shards, shardPresent, 0, shardSize);
+        // Extract the file length.  It can be spread across more
+        // than one shard when the shards are small.
+        final int size = (int) shardSize;
+        final byte [] sizeBytes = new byte [BYTES_IN_INT];
+        for (int n = 0; n < BYTES_IN_INT; n++) {
+            sizeBytes[n] = shards[n / size].get(n % size);
+        }
+        final int fileSize = ByteBuffer.wrap(sizeBytes).getInt();
+        if (fileSize < 0 || DATA_SHARDS * shardSize - BYTES_IN_INT < fileSize) {
+            throw new IOException("bad file size in shards: " + fileSize);
+        }
 
-        // Combine the data shards into one buffer for convenience.
-        // (This is not efficient, but it is convenient.)
-        byte [] allBytes = new byte [shardSize * DATA_SHARDS];
+        // Write the decoded file, copying back out of the data shards.
+        // Byte n of the stored data is in shard n / shardSize, at
+        // n % shardSize.
+        final File decodedFile = new File(originalFile.getParentFile(), originalFile.getName() + ".decoded");
+        final MappedByteBuffer output;
+        try (FileChannel out = FileChannel.open(
+                decodedFile.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            output = out.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        }
         for (int i = 0; i < DATA_SHARDS; i++) {
-            System.arraycopy(shards[i], 0, allBytes, shardSize * i, shardSize);
+            final int storedStart = Math.max(i * size, BYTES_IN_INT);
+            final int storedEnd = (int) Math.min((i + 1L) * size, fileSize + (long) BYTES_IN_INT);
+            if (storedStart < storedEnd) {
+                output.put(storedStart - BYTES_IN_INT, shards[i], storedStart - i * size, storedEnd - storedStart);
+            }
         }
-
-        // Extract the file length
-        int fileSize = ByteBuffer.wrap(allBytes).getInt();
-
-        // Write the decoded file
-        File decodedFile = new File(originalFile.getParentFile(), originalFile.getName() + ".decoded");
-        OutputStream out = new FileOutputStream(decodedFile);
-        out.write(allBytes, BYTES_IN_INT, fileSize);
+        output.force();
         System.out.println("Wrote " + decodedFile);
     }
 }
@@ -7,12 +7,19 @@
 package com.example.javabigo.erasure;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Command-line program encodes one file using Reed-Solomon 4+2.
@@ -27,6 +34,14 @@ import java.nio.ByteBuffer;
  * contents of the file, and then padded to a multiple of four bytes
  * with zeros.  The padding is because all four data shards must be
  * the same size.
+ *
+ * The input file and the shard files are memory-mapped, so nothing
+ * the size of the file is held on the heap, and the parity is computed
+ * in slices spread across all of the cores.
+ *
+ * If the argument is a directory, every file in it is encoded, except
+ * for shard files and decoded files left by earlier runs.  The files
+ * are encoded in parallel, one per core.
  */
 public class SampleEncoder {
 
@@ -36,11 +51,19 @@ public class SampleEncoder {
 
     public static final int BYTES_IN_INT = 4;
 
+    /**
+     * Names of files written by the sample programs, which are not
+     * encoded in directory mode.
+     */
+    private static final String OUTPUT_FILE_PATTERN = ".*\\.([0-9]+|decoded)";
+
+    private static final ReedSolomon REED_SOLOMON = ReedSolomonRegistry.get(DATA_SHARDS, PARITY_SHARDS);
+
     public static void main(String [] arguments) throws IOException {
 
         // Parse the command line
         if (arguments.length != 1) {
-            System.out.println("Usage: SampleEncoder <fileName>");
+            System.out.println("Usage: SampleEncoder <fileName or directory>");
             return;
         }
         final File inputFile = new File(arguments[0]);
@@ -49,48 +72,125 @@ public class SampleEncoder {
             return;
         }
 
-        // Get the size of the input file.  (Files bigger that
-        // Integer.MAX_VALUE will fail here!)
-        final int fileSize = (int) inputFile.length();
+        if (inputFile.isDirectory()) {
+            encodeDirectory(inputFile);
+        }
+        else {
+            encodeFile(inputFile, ForkJoinPool.commonPool());
+        }
+    }
+
+    /**
+     * Encodes every file in a directory, one file per core at a time.
+     * A file that fails is reported, and the rest are still encoded.
+     */
+    private static void encodeDirectory(File directory) {
+        final File [] inputFiles = directory.listFiles(
+                file -> file.isFile() && !file.getName().matches(OUTPUT_FILE_PATTERN));
+        if (inputFiles == null) {
+            System.out.println("Cannot list directory: " + directory);
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (File inputFile : inputFiles) {
+                // Each file is coded on one thread; the parallelism
+                // comes from doing many files at once.
+                futures.add(executor.submit(() -> {
+                    encodeFile(inputFile, null);
+                    return null;
+                }));
+            }
+            int failureCount = 0;
+            for (int i = 0; i < inputFiles.length; i++) {
+                try {
+                    futures.get(i).get();
+                }
+                catch (ExecutionException e) {
+                    System.err.println("Failed to encode " + inputFiles[i] + ": " + e.getCause());
+                    failureCount += 1;
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            System.out.println("encoded " + (inputFiles.length - failureCount) + " of " + inputFiles.length + " files");
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Encodes one file into its six shard files.
+     *
+     * @param executor Where to run the slices of the parity computation,
+     *                 or null to do it all on the calling thread.
+     */
+    private static void encodeFile(File inputFile, Executor executor) throws IOException {
+
+        // Map the input file.  The size is stored as an int, so files
+        // bigger than that can't be encoded.
+        final MappedByteBuffer input;
+        try (FileChannel in = FileChannel.open(inputFile.toPath(), StandardOpenOption.READ)) {
+            if (Integer.MAX_VALUE - BYTES_IN_INT < in.size()) {
+                throw new IOException("file too big to encode: " + inputFile);
+            }
+            input = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        }
+        final int fileSize = input.limit();
 
         // Figure out how big each shard will be.  The total size stored
-        // will be the file size (8 bytes) plus the file.
+        // will be the file size (4 bytes) plus the file.
         final int storedSize = fileSize + BYTES_IN_INT;
         final int shardSize = (storedSize + DATA_SHARDS - 1) / DATA_SHARDS;
 
-        // Create a buffer holding the file size, followed by
-        // the contents of the file.
-        final int bufferSize = shardSize * DATA_SHARDS;
-        final byte [] allBytes = new byte[bufferSize];
-        ByteBuffer.wrap(allBytes).putInt(fileSize);
-        InputStream in = new FileInputStream(inputFile);
-        int bytesRead = in.read(allBytes, BYTES_IN_INT, fileSize);
-        if (bytesRead != fileSize) {
-            throw new IOException("not enough bytes read");
+        // Create the shard files at their full size, and map them.  A
+        // mapping stays valid after its channel is closed.  The files
+        // start out as zeros, which takes care of the padding.
+        final MappedByteBuffer [] shards = new MappedByteBuffer [TOTAL_SHARDS];
+        for (int i = 0; i < TOTAL_SHARDS; i++) {
+            try (FileChannel out = FileChannel.open(
+                    shardFile(inputFile, i).toPath(),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                shards[i] = out.map(FileChannel.MapMode.READ_WRITE, 0, shardSize);
+            }
         }
-        in.close();
-
-        // Make the buffers to hold the shards.
-        byte [] [] shards = new byte [TOTAL_SHARDS] [shardSize];
 
-        // Fill in the data shards
+        // Copy the file size and the contents of the file into the data
+        // shards.  Byte n of the stored data goes in shard
+        // n / shardSize, at n % shardSize.
+        // Small files have shards shorter than the size, so it is
+        // stored a byte at a time.
+        final byte [] sizeBytes = ByteBuffer.allocate(BYTES_IN_INT).putInt(fileSize).array();
+        for (int n = 0; n < BYTES_IN_INT; n++) {
+            shards[n / shardSize].put(n % shardSize, sizeBytes[n]);
+        }
         for (int i = 0; i < DATA_SHARDS; i++) {
-            System.arraycopy(allBytes, i * shardSize, shards[i], 0, shardSize);
+            final int storedStart = Math.max(i * shardSize, BYTES_IN_INT);
+            final int storedEnd = (int) Math.min((i + 1L) * shardSize, storedSize);
+            if (storedStart < storedEnd) {
+                shards[i].put(storedStart - i * shardSize, input, storedStart - BYTES_IN_INT, storedEnd - storedStart);
+            }
         }
 
-        // Use Reed-Solomon to calculate the parity.
-        ReedSolomon reedSolomon = ReedSolomon.create(DATA_SHARDS, PARITY_SHARDS);
-        reedSolomon.encodeParity(shards, 0, shardSize);
+        // Use Reed-Solomon to calculate the parity, in place.
+        REED_SOLOMON.encodeParity(shards, 0, shardSize, executor);
 
-        // Write out the resulting files.
+        // Make sure the shard files are on disk.
         for (int i = 0; i < TOTAL_SHARDS; i++) {
-            File outputFile = new File(
-                    inputFile.getParentFile(),
-                    inputFile.getName() + "." + i);
-            OutputStream out = new FileOutputStream(outputFile);
-            out.write(shards[i]);
-            out.close();
-            System.out.println("wrote " + outputFile);
+            shards[i].force();
+            System.out.println("wrote " + shardFile(inputFile, i));
         }
     }
+
+    private static File shardFile(File inputFile, int shardIndex) {
+        return new File(inputFile.getParentFile(), inputFile.getName() + "." + shardIndex);
+    }
 }
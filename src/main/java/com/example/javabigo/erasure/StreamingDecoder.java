@@ -0,0 +1,130 @@
+package com.example.javabigo.erasure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Reed-Solomon decoding of a stream written by StreamingEncoder.
+ *
+ * Takes the shard streams that are still available, at least
+ * dataShardCount of them, and writes out the original data.  The
+ * missing data shards are rebuilt one stripe at a time, so only one
+ * stripe is held in memory.
+ *
+ * The chunk size must be the same one the data was encoded with.
+ */
+public class StreamingDecoder {
+
+    private final ReedSolomon codec;
+    private final int chunkSize;
+
+    public StreamingDecoder(ReedSolomon codec) {
+        this(codec, StreamingEncoder.DEFAULT_CHUNK_SIZE);
+    }
+
+    public StreamingDecoder(ReedSolomon codec, int chunkSize) {
+        StreamingEncoder.checkChunkSize(codec, chunkSize);
+        this.codec = codec;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Decodes the shards, writing the original data to the output.
+     * Neither the inputs nor the output are closed.
+     *
+     * @param shardInputs One input for each shard, data shards first,
+     *                    with null for the ones that are missing.
+     * @param out Where to write the original data.
+     * @return The number of bytes written.
+     */
+    public long decode(InputStream [] shardInputs, OutputStream out) throws IOException {
+        final int dataShardCount = codec.getDataShardCount();
+        final int totalShardCount = codec.getTotalShardCount();
+        if (shardInputs.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shard inputs: " + shardInputs.length);
+        }
+        final boolean [] shardPresent = new boolean [totalShardCount];
+        int shardCount = 0;
+        for (int i = 0; i < totalShardCount; i++) {
+            if (shardInputs[i] != null) {
+                shardPresent[i] = true;
+                shardCount += 1;
+            }
+        }
+        if (shardCount < dataShardCount) {
+            throw new IllegalArgumentException("Not enough shards present");
+        }
+
+        final long stripeCapacity = (long) dataShardCount * chunkSize - StreamingEncoder.LENGTH_BYTES;
+        final byte [] [] shards = new byte [totalShardCount] [chunkSize];
+
+        long written = 0;
+        while (readStripe(shardInputs, shardPresent, shards)) {
+            long length = ByteBuffer.wrap(shards[dataShardCount - 1], chunkSize - StreamingEncoder.LENGTH_BYTES, StreamingEncoder.LENGTH_BYTES).getLong();
+            if (length < 0 || stripeCapacity < length) {
+                throw new IOException("bad stripe length: " + length);
+            }
+            long remaining = length;
+            for (int i = 0; i < dataShardCount && 0 < remaining; i++) {
+                int count = (int) Math.min(chunkSize, remaining);
+                out.write(shards[i], 0, count);
+                remaining -= count;
+            }
+            written += length;
+
+            // The last stripe is the first one that isn't full.
+            if (length < stripeCapacity) {
+                return written;
+            }
+        }
+        throw new IOException("shards end without a final stripe");
+    }
+
+    /**
+     * Decodes shard channels, writing the original data to a channel.
+     * The channels are not closed.
+     */
+    public long decode(ReadableByteChannel [] shardInputs, WritableByteChannel out) throws IOException {
+        InputStream [] inputs = new InputStream [shardInputs.length];
+        for (int i = 0; i < shardInputs.length; i++) {
+            inputs[i] = (shardInputs[i] == null) ? null : Channels.newInputStream(shardInputs[i]);
+        }
+        return decode(inputs, Channels.newOutputStream(out));
+    }
+
+    /**
+     * Reads one stripe from the shards that are present and fills in
+     * the missing data shards.  Returns false at the end of the shards.
+     */
+    private boolean readStripe(InputStream [] shardInputs, boolean [] shardPresent, byte [] [] shards) throws IOException {
+        int stripeCount = 0;
+        int endCount = 0;
+        for (int i = 0; i < shards.length; i++) {
+            if (shardPresent[i]) {
+                int bytesRead = shardInputs[i].readNBytes(shards[i], 0, chunkSize);
+                if (bytesRead == 0) {
+                    endCount += 1;
+                }
+                else if (bytesRead == chunkSize) {
+                    stripeCount += 1;
+                }
+                else {
+                    throw new IOException("shard " + i + " ends in the middle of a stripe");
+                }
+            }
+        }
+        if (stripeCount != 0 && endCount != 0) {
+            throw new IOException("shards have different lengths");
+        }
+        if (stripeCount == 0) {
+            return false;
+        }
+        codec.decodeMissing(shards, shardPresent, 0, chunkSize);
+        return true;
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.javabigo.erasure;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Reed-Solomon encoding of a stream of any length.
+ *
+ * The input is cut into stripes.  Each stripe holds chunkSize bytes
+ * of every data shard, filled in order.  The last LENGTH_BYTES bytes
+ * of a stripe's data are the number of input bytes in that stripe, as
+ * a big-endian long, so one stripe carries up to
+ * dataShardCount * chunkSize - LENGTH_BYTES bytes of input.  The
+ * parity for the stripe is computed and each shard's chunk is written
+ * to that shard's output.  Only one stripe is held in memory at a time.
+ *
+ * The length of the input isn't known until the end.  Every stripe but
+ * the last is full, and the last one is the first that isn't, with
+ * zero padding between the end of the input and the length.  When the
+ * input ends exactly at the end of a stripe, an empty stripe follows.
+ *
+ * StreamingDecoder reverses this.
+ */
+public class StreamingEncoder {
+
+    /**
+     * The default number of bytes of each shard in one stripe.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * The number of bytes used to store the input length.
+     */
+    public static final int LENGTH_BYTES = 8;
+
+    private final ReedSolomon codec;
+    private final int chunkSize;
+
+    public StreamingEncoder(ReedSolomon codec) {
+        this(codec, DEFAULT_CHUNK_SIZE);
+    }
+
+    public StreamingEncoder(ReedSolomon codec, int chunkSize) {
+        checkChunkSize(codec, chunkSize);
+        this.codec = codec;
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Checks that the length fits at the end of the last data shard,
+     * and that a stripe has room for at least one byte of input besides
+     * it.  Otherwise every stripe would be empty and encoding would
+     * never end.
+     */
+    static void checkChunkSize(ReedSolomon codec, int chunkSize) {
+        if (chunkSize < LENGTH_BYTES) {
+            throw new IllegalArgumentException("chunkSize must be at least " + LENGTH_BYTES + ": " + chunkSize);
+        }
+        if ((long) codec.getDataShardCount() * chunkSize <= LENGTH_BYTES) {
+            throw new IllegalArgumentException("a stripe of " + codec.getDataShardCount() + " shards of "
+                    + chunkSize + " bytes has no room for data besides the length");
+        }
+    }
+
+    /**
+     * Encodes everything in the input, writing one output per shard.
+     * The outputs are not closed.
+     *
+     * @param in The data to encode.  It is read to the end.
+     * @param shardOutputs One output for each shard, data shards first.
+     * @return The number of bytes of input encoded.
+     */
+    public long encode(InputStream in, OutputStream [] shardOutputs) throws IOException {
+        final int dataShardCount = codec.getDataShardCount();
+        final int totalShardCount = codec.getTotalShardCount();
+        if (shardOutputs.length != totalShardCount) {
+            throw new IllegalArgumentException("wrong number of shard outputs: " + shardOutputs.length);
+        }
+        final long stripeCapacity = (long) dataShardCount * chunkSize - LENGTH_BYTES;
+        final byte [] [] shards = new byte [totalShardCount] [chunkSize];
+
+        long totalLength = 0;
+        while (true) {
+            // Fill the data shards of this stripe, in order.
+            long filled = 0;
+            for (int i = 0; i < dataShardCount && filled < stripeCapacity; i++) {
+                int wanted = (int) Math.min(chunkSize, stripeCapacity - filled);
+                int bytesRead = in.readNBytes(shards[i], 0, wanted);
+                filled += bytesRead;
+                if (bytesRead < wanted) {
+                    break;
+                }
+            }
+            totalLength += filled;
+
+            // Clear anything left over from the last stripe, and put
+            // the length at the end.
+            clearDataFrom(shards, filled);
+            ByteBuffer.wrap(shards[dataShardCount - 1], chunkSize - LENGTH_BYTES, LENGTH_BYTES).putLong(filled);
+            writeStripe(shards, shardOutputs);
+
+            if (filled < stripeCapacity) {
+                return totalLength;
+            }
+        }
+    }
+
+    /**
+     * Encodes everything in a channel, writing one channel per shard.
+     * The channels are not closed.
+     */
+    public long encode(ReadableByteChannel in, WritableByteChannel [] shardOutputs) throws IOException {
+        OutputStream [] outputs = new OutputStream [shardOutputs.length];
+        for (int i = 0; i < shardOutputs.length; i++) {
+            outputs[i] = Channels.newOutputStream(shardOutputs[i]);
+        }
+        return encode(Channels.newInputStream(in), outputs);
+    }
+
+    private void writeStripe(byte [] [] shards, OutputStream [] shardOutputs) throws IOException {
+        codec.encodeParity(shards, 0, chunkSize);
+        for (int i = 0; i < shards.length; i++) {
+            shardOutputs[i].write(shards[i], 0, chunkSize);
+        }
+    }
+
+    /**
+     * Zeros the data in the stripe from the given position to the end.
+     */
+    private void clearDataFrom(byte [] [] shards, long position) {
+        final int dataShardCount = codec.getDataShardCount();
+        final int first = (int) (position / chunkSize);
+        for (int i = first; i < dataShardCount; i++) {
+            int from = (i == first) ? (int) (position % chunkSize) : 0;
+            Arrays.fill(shards[i], from, chunkSize, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.javabigo.erasure;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Coding loop that works through the shards one cache-sized block
+ * at a time.
+ *
+ * The InputOutputByte loops stream a whole shard for each input and
+ * output, so with long shards the outputs have fallen out of L1 cache
+ * by the time the next input comes around.  The Byte loops stay on one
+ * byte, but jump between all of the shards for every byte.  This loop
+ * takes a block of bytes from every input and output, small enough
+ * that they all fit in L1 cache together, and runs another loop over
+ * just that block before moving on to the next one.
+ *
+ * The best block size depends on the processor and the number of
+ * shards; TiledCodingLoopBenchmark (in src/jmh) measures it.
+ */
+public class TiledCodingLoop implements CodingLoop {
+
+    /**
+     * The default block size.  With 17 inputs and 3 outputs, one block
+     * from every shard is 40 KB, about the size of an L1 data cache.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 2 * 1024;
+
+    private final CodingLoop inner;
+    private final int blockSize;
+
+    /**
+     * Tiles InputOutputByteTableCodingLoop with the default block size.
+     */
+    public TiledCodingLoop() {
+        this(new InputOutputByteTableCodingLoop(), DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Tiles the given loop with the given block size.
+     */
+    public TiledCodingLoop(CodingLoop inner, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        }
+        this.inner = inner;
+        this.blockSize = blockSize;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        final int end = offset + byteCount;
+        for (int blockStart = offset; blockStart < end; blockStart += blockSize) {
+            final int blockLength = Math.min(blockSize, end - blockStart);
+            inner.codeSomeShards(
+                    matrixRows,
+                    inputs, inputCount,
+                    outputs, outputCount,
+                    blockStart, blockLength);
+        }
+    }
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            ByteBuffer[] inputs, int inputCount,
+            ByteBuffer[] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        final int end = offset + byteCount;
+        for (int blockStart = offset; blockStart < end; blockStart += blockSize) {
+            final int blockLength = Math.min(blockSize, end - blockStart);
+            inner.codeSomeShards(
+                    matrixRows,
+                    inputs, inputCount,
+                    outputs, outputCount,
+                    blockStart, blockLength);
+        }
+    }
+
+    @Override
+    public boolean checkSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] toCheck, int checkCount,
+            int offset, int byteCount,
+            byte[] tempBuffer) {
+
+        final int end = offset + byteCount;
+        for (int blockStart = offset; blockStart < end; blockStart += blockSize) {
+            final int blockLength = Math.min(blockSize, end - blockStart);
+            if (!inner.checkSomeShards(
+                    matrixRows,
+                    inputs, inputCount,
+                    toCheck, checkCount,
+                    blockStart, blockLength,
+                    tempBuffer)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
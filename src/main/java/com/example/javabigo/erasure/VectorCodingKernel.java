@@ -0,0 +1,211 @@
+package com.example.javabigo.erasure;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Coding loop kernel that uses the Java Vector API.
+ *
+ * Each multiplication is done with two 16-entry table lookups, one
+ * for the low nibble and one for the high nibble of every input byte,
+ * using a lane shuffle.  That processes a whole vector (16 to 64 bytes,
+ * depending on the processor) per step.  Any bytes left over at the
+ * end of the range are done one at a time with the multiplication
+ * table.
+ *
+ * This class references jdk.incubator.vector directly, so it must only
+ * be loaded after checking that the module is present.  Use
+ * InputOutputByteVectorCodingLoop, which does that check.
+ */
+final class VectorCodingKernel extends CodingLoopBase {
+
+    static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    /**
+     * The nibble tables, padded out to the vector length so that
+     * they can be loaded directly into a vector register.
+     */
+    private static final byte [] [] LOW_TABLES = padTables(Galois.LOW_NIBBLE_TABLE);
+    private static final byte [] [] HIGH_TABLES = padTables(Galois.HIGH_NIBBLE_TABLE);
+
+    /**
+     * Returns true if the preferred species is wide enough to hold a
+     * 16-entry lookup table.
+     */
+    static boolean isSupported() {
+        return 16 <= SPECIES.length();
+    }
+
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        final int vectorEnd = offset + SPECIES.loopBound(byteCount);
+        final int end = offset + byteCount;
+        final byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
+
+        for (int iInput = 0; iInput < inputCount; iInput++) {
+            final byte [] inputShard = inputs[iInput];
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final byte [] outputShard = outputs[iOutput];
+                final int coefficient = matrixRows[iOutput][iInput] & 0xFF;
+                final ByteVector low = ByteVector.fromArray(SPECIES, LOW_TABLES[coefficient], 0);
+                final ByteVector high = ByteVector.fromArray(SPECIES, HIGH_TABLES[coefficient], 0);
+                final int multTableRow = coefficient << 8;
+                if (iInput == 0) {
+                    for (int iByte = offset; iByte < vectorEnd; iByte += SPECIES.length()) {
+                        multiply(low, high, inputShard, iByte).intoArray(outputShard, iByte);
+                    }
+                    for (int iByte = vectorEnd; iByte < end; iByte++) {
+                        outputShard[iByte] = table[multTableRow | (inputShard[iByte] & 0xFF)];
+                    }
+                }
+                else {
+                    for (int iByte = offset; iByte < vectorEnd; iByte += SPECIES.length()) {
+                        ByteVector.fromArray(SPECIES, outputShard, iByte)
+                                .lanewise(VectorOperators.XOR, multiply(low, high, inputShard, iByte))
+                                .intoArray(outputShard, iByte);
+                    }
+                    for (int iByte = vectorEnd; iByte < end; iByte++) {
+                        outputShard[iByte] ^= table[multTableRow | (inputShard[iByte] & 0xFF)];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The same loop over ByteBuffers.
+     *
+     * Heap buffers are coded in place, through their backing arrays.  The
+     * Vector API in Java 21 can only load from off-heap memory through
+     * MemorySegment, which is still a preview API there, so direct and
+     * mapped buffers go through the default copy-through adapter, a few
+     * KB at a time, into the array loop above.
+     */
+    @Override
+    public void codeSomeShards(
+            byte[][] matrixRows,
+            ByteBuffer[] inputs, int inputCount,
+            ByteBuffer[] outputs, int outputCount,
+            int offset, int byteCount) {
+
+        if (!allHaveArrays(inputs, inputCount) || !allHaveArrays(outputs, outputCount)) {
+            super.codeSomeShards(matrixRows, inputs, inputCount, outputs, outputCount, offset, byteCount);
+            return;
+        }
+
+        final int vectorCount = SPECIES.loopBound(byteCount);
+        final byte [] table = Galois.MULTIPLICATION_TABLE_FLAT;
+
+        for (int iInput = 0; iInput < inputCount; iInput++) {
+            final byte [] inputShard = inputs[iInput].array();
+            final int inputStart = inputs[iInput].arrayOffset() + offset;
+            for (int iOutput = 0; iOutput < outputCount; iOutput++) {
+                final byte [] outputShard = outputs[iOutput].array();
+                final int outputStart = outputs[iOutput].arrayOffset() + offset;
+                final int coefficient = matrixRows[iOutput][iInput] & 0xFF;
+                final ByteVector low = ByteVector.fromArray(SPECIES, LOW_TABLES[coefficient], 0);
+                final ByteVector high = ByteVector.fromArray(SPECIES, HIGH_TABLES[coefficient], 0);
+                final int multTableRow = coefficient << 8;
+                if (iInput == 0) {
+                    for (int i = 0; i < vectorCount; i += SPECIES.length()) {
+                        multiply(low, high, inputShard, inputStart + i).intoArray(outputShard, outputStart + i);
+                    }
+                    for (int i = vectorCount; i < byteCount; i++) {
+                        outputShard[outputStart + i] = table[multTableRow | (inputShard[inputStart + i] & 0xFF)];
+                    }
+                }
+                else {
+                    for (int i = 0; i < vectorCount; i += SPECIES.length()) {
+                        ByteVector.fromArray(SPECIES, outputShard, outputStart + i)
+                                .lanewise(VectorOperators.XOR, multiply(low, high, inputShard, inputStart + i))
+                                .intoArray(outputShard, outputStart + i);
+                    }
+                    for (int i = vectorCount; i < byteCount; i++) {
+                        outputShard[outputStart + i] ^= table[multTableRow | (inputShard[inputStart + i] & 0xFF)];
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean checkSomeShards(
+            byte[][] matrixRows,
+            byte[][] inputs, int inputCount,
+            byte[][] toCheck, int checkCount,
+            int offset, int byteCount,
+            byte[] tempBuffer) {
+
+        if (tempBuffer == null) {
+            return super.checkSomeShards(matrixRows, inputs, inputCount, toCheck, checkCount, offset, byteCount, null);
+        }
+
+        // Compute one output at a time into the temp buffer, using
+        // the same loop as above, then compare a vector at a time.
+        final int vectorEnd = offset + SPECIES.loopBound(byteCount);
+        final int end = offset + byteCount;
+        final byte [] [] tempOutputs = new byte [] [] { tempBuffer };
+        final byte [] [] oneRow = new byte [1] [];
+        for (int iOutput = 0; iOutput < checkCount; iOutput++) {
+            oneRow[0] = matrixRows[iOutput];
+            codeSomeShards(oneRow, inputs, inputCount, tempOutputs, 1, offset, byteCount);
+            final byte [] outputShard = toCheck[iOutput];
+            for (int iByte = offset; iByte < vectorEnd; iByte += SPECIES.length()) {
+                ByteVector expected = ByteVector.fromArray(SPECIES, tempBuffer, iByte);
+                ByteVector actual = ByteVector.fromArray(SPECIES, outputShard, iByte);
+                if (expected.compare(VectorOperators.NE, actual).anyTrue()) {
+                    return false;
+                }
+            }
+            for (int iByte = vectorEnd; iByte < end; iByte++) {
+                if (tempBuffer[iByte] != outputShard[iByte]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Multiplies one vector of input bytes by the coefficient whose
+     * nibble tables are given.
+     */
+    private static ByteVector multiply(ByteVector low, ByteVector high, byte [] input, int index) {
+        ByteVector in = ByteVector.fromArray(SPECIES, input, index);
+        ByteVector lowNibbles = in.and((byte) 0x0F);
+        ByteVector highNibbles = in.lanewise(VectorOperators.LSHR, 4).and((byte) 0x0F);
+        return lowNibbles.selectFrom(low).lanewise(VectorOperators.XOR, highNibbles.selectFrom(high));
+    }
+
+    /**
+     * Returns true if the first count buffers are writable heap buffers.
+     */
+    private static boolean allHaveArrays(ByteBuffer [] buffers, int count) {
+        for (int i = 0; i < count; i++) {
+            if (!buffers[i].hasArray()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies each 16-entry table into an array one vector long.
+     */
+    private static byte [] [] padTables(byte [] [] tables) {
+        final int length = Math.max(16, SPECIES.length());
+        byte [] [] result = new byte [tables.length] [length];
+        for (int i = 0; i < tables.length; i++) {
+            System.arraycopy(tables[i], 0, result[i], 0, 16);
+        }
+        return result;
+    }
+}
@@ -10,19 +10,90 @@ public class BigoService {
 
     private final Map<String, DataEntry> dataStore = new ConcurrentHashMap<>();
 
-    public void saveData(String locationId, byte[] shard) {
-        DataEntry existingEntry = dataStore.get(locationId);
-        if (existingEntry == null) {
-            dataStore.put(locationId, new DataEntry(shard, 1));
-        } else {
-            existingEntry.shard = shard;
-            existingEntry.incrementModificationCount();
+    /**
+     * This node's shards of packed stripes, by group id.  A group is dropped
+     * when no location points into it any more.  Until then the whole shard is
+     * kept, records that were overwritten included: groups aren't compacted,
+     * so a group with one live record left costs as much as a full one.
+     */
+    private final Map<String, ShardGroup> groups = new ConcurrentHashMap<>();
+
+    public synchronized void saveData(String locationId, byte[] shard) {
+        save(locationId, shard, StoragePolicy.ERASURE_CODED);
+    }
+
+    /**
+     * Stores a replicated payload's record, or just notes that the location is
+     * replicated elsewhere when record is null.
+     */
+    public synchronized void saveReplica(String locationId, byte[] record) {
+        save(locationId, record, StoragePolicy.REPLICATED);
+    }
+
+    /**
+     * Stores this node's shard of a packed stripe, and points each location at
+     * its record in the stripe.
+     */
+    public synchronized void savePackedData(String groupId, byte[] shard, String[] locationIds,
+                                            int[] offsets, int[] lengths) {
+        groups.put(groupId, new ShardGroup(shard, locationIds.length));
+        for (int i = 0; i < locationIds.length; i++) {
+            DataEntry entry = dataStore.get(locationIds[i]);
+            if (entry == null) {
+                entry = new DataEntry(null, 0);
+                dataStore.put(locationIds[i], entry);
+            } else {
+                releaseGroup(entry.groupId);
+                entry.shard = null;
+            }
+            entry.groupId = groupId;
+            entry.policy = StoragePolicy.PACKED;
+            entry.offset = offsets[i];
+            entry.length = lengths[i];
+            entry.incrementModificationCount();
         }
     }
 
+    /**
+     * Returns the shard stored for an erasure coded location, or null if there
+     * isn't one.
+     */
     public byte[] getShardOf(String locationId) {
         DataEntry entry = dataStore.get(locationId);
-        return entry != null ? entry.shard : null;
+        return entry != null && entry.policy == StoragePolicy.ERASURE_CODED ? entry.shard : null;
+    }
+
+    /**
+     * Returns the record stored for a replicated location, or null if this
+     * node doesn't have a copy.
+     */
+    public byte[] getReplicaOf(String locationId) {
+        DataEntry entry = dataStore.get(locationId);
+        return entry != null && entry.policy == StoragePolicy.REPLICATED ? entry.shard : null;
+    }
+
+    /**
+     * Returns how a location is stored, or null if this node doesn't know it.
+     */
+    public StoragePolicy getPolicyOf(String locationId) {
+        DataEntry entry = dataStore.get(locationId);
+        return entry != null ? entry.policy : null;
+    }
+
+    /**
+     * Returns where a location's record is, if it is in a packed stripe.
+     */
+    public synchronized PackedLocation getPackedLocationOf(String locationId) {
+        DataEntry entry = dataStore.get(locationId);
+        if (entry == null || entry.groupId == null) {
+            return null;
+        }
+        return new PackedLocation(entry.groupId, entry.offset, entry.length);
+    }
+
+    public byte[] getGroupShard(String groupId) {
+        ShardGroup group = groups.get(groupId);
+        return group != null ? group.shard : null;
     }
 
     public int getModificationCountOf(String locationId) {
@@ -34,9 +105,69 @@ public class BigoService {
         return dataStore.size();
     }
 
+    public int groupCount() {
+        return groups.size();
+    }
+
+    private void save(String locationId, byte[] data, StoragePolicy policy) {
+        DataEntry existingEntry = dataStore.get(locationId);
+        if (existingEntry == null) {
+            DataEntry entry = new DataEntry(data, 1);
+            entry.policy = policy;
+            dataStore.put(locationId, entry);
+        } else {
+            releaseGroup(existingEntry.groupId);
+            existingEntry.shard = data;
+            existingEntry.groupId = null;
+            existingEntry.policy = policy;
+            existingEntry.incrementModificationCount();
+        }
+    }
+
+    private void releaseGroup(String groupId) {
+        if (groupId == null) {
+            return;
+        }
+        ShardGroup group = groups.get(groupId);
+        if (group != null && --group.liveRecords == 0) {
+            groups.remove(groupId);
+        }
+    }
+
+    /**
+     * Where a location's record is in a packed stripe.
+     */
+    public static final class PackedLocation {
+        private final String groupId;
+        private final int offset;
+        private final int length;
+
+        PackedLocation(String groupId, int offset, int length) {
+            this.groupId = groupId;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+    }
+
     private static class DataEntry {
         private byte[] shard;
         private int modificationCount;
+        private StoragePolicy policy = StoragePolicy.ERASURE_CODED;
+        private String groupId;
+        private int offset;
+        private int length;
 
         public DataEntry(byte[] shard, int modificationCount) {
             this.shard = shard;
@@ -47,4 +178,14 @@ public class BigoService {
             this.modificationCount++;
         }
     }
+
+    private static class ShardGroup {
+        private final byte[] shard;
+        private int liveRecords;
+
+        ShardGroup(byte[] shard, int liveRecords) {
+            this.shard = shard;
+            this.liveRecords = liveRecords;
+        }
+    }
 }
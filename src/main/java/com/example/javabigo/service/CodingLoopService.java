@@ -0,0 +1,116 @@
+package com.example.javabigo.service;
+
+import com.example.javabigo.erasure.CodingLoop;
+import com.example.javabigo.erasure.CodingLoopCalibrator;
+import com.example.javabigo.erasure.DefaultCodingLoop;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+@Service
+public class CodingLoopService {
+
+    private final Path calibrationFile;
+    private final CodingLoopCalibrator calibrator;
+    private final boolean calibrateOnStartup;
+    private volatile String source = "default";
+
+    @Autowired
+    public CodingLoopService(ShardGeometry shardGeometry,
+                             @Value("${erasure.calibration.file}") String calibrationFile,
+                             @Value("${erasure.calibration.on-startup}") boolean calibrateOnStartup,
+                             @Value("${erasure.calibration.shard-size}") int shardSize) {
+        this.calibrationFile = Paths.get(calibrationFile);
+        this.calibrateOnStartup = calibrateOnStartup;
+        this.calibrator = new CodingLoopCalibrator(shardGeometry.getDataShardCount(),
+                shardGeometry.getParityShardCount(), shardSize);
+
+        CodingLoop saved = null;
+        try {
+            saved = calibrator.load(this.calibrationFile);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not read coding loop calibration: " + e.getMessage());
+        }
+        if (saved != null) {
+            DefaultCodingLoop.INSTANCE.setSelected(saved);
+            source = "file";
+        }
+        System.out.println("Coding loop for " + calibrator.getGeometryKey() + ": " + getSelectedName() + " (" + source + ")");
+    }
+
+    /**
+     * If calibration on startup is on and no loop was saved for this geometry,
+     * measures the loops once the application is up.  It runs on a background
+     * thread, so startup isn't held up; until it finishes, the default loop is
+     * used.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void calibrateInBackground() {
+        if (!calibrateOnStartup || !"default".equals(source)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            String name = recalibrate();
+            System.out.println("Coding loop for " + calibrator.getGeometryKey() + ": " + name + " (calibration)");
+        }, "coding-loop-calibration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the class name of the coding loop in use.
+     */
+    public String getSelectedName() {
+        return DefaultCodingLoop.INSTANCE.getSelected().getClass().getSimpleName();
+    }
+
+    /**
+     * Returns where the coding loop in use came from: "default",
+     * "file", "calibration" or "override".
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public String getGeometryKey() {
+        return calibrator.getGeometryKey();
+    }
+
+    /**
+     * Measures all of the coding loops, switches to the fastest, and
+     * saves it.
+     */
+    public synchronized String recalibrate() {
+        CodingLoop fastest = calibrator.calibrate();
+        DefaultCodingLoop.INSTANCE.setSelected(fastest);
+        source = "calibration";
+        persist(fastest);
+        return getSelectedName();
+    }
+
+    /**
+     * Switches to the named coding loop, and saves it.
+     *
+     * @throws IllegalArgumentException if there is no loop with that name.
+     */
+    public synchronized void override(String name) {
+        CodingLoop codingLoop = CodingLoopCalibrator.forName(name);
+        DefaultCodingLoop.INSTANCE.setSelected(codingLoop);
+        source = "override";
+        persist(codingLoop);
+    }
+
+    private void persist(CodingLoop codingLoop) {
+        try {
+            calibrator.save(calibrationFile, codingLoop);
+        } catch (IOException e) {
+            System.err.println("Could not save coding loop calibration: " + e.getMessage());
+        }
+    }
+}
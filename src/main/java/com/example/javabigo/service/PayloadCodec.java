@@ -2,22 +2,126 @@ package com.example.javabigo.service;
 
 import com.example.javabigo.Payload;
 import com.example.javabigo.erasure.ReedSolomon;
+import com.example.javabigo.erasure.ReedSolomonRegistry;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
 
+/**
+ * Turns payloads into erasure-coded shards and back.
+ *
+ * Payloads are stored in one of two formats.  Reading handles both, whichever
+ * one this codec writes, so shards written before the binary format existed
+ * still decode.
+ *
+ * JSON (the original format): a 4-byte big-endian length, then the payload as
+ * JSON from Jackson.
+ *
+ * BINARY: about 45 bytes instead of about 110.
+ * <pre>
+ *   byte    0x80 | version (1)
+ *   byte    flags: which fields are present, and how the id is stored
+ *   id      16 bytes (UUID, most significant half first), or a 4-byte
+ *           length and UTF-8 bytes for ids that aren't lower-case UUIDs
+ *   double  seismic_activity, temperature_c, radiation_level; only the ones
+ *           whose flags are set
+ *   short   length of the extension block, then the block
+ * </pre>
+ * The high bit of the first byte tells the formats apart: in JSON it's the
+ * top of a non-negative length, so it's always 0.
+ *
+ * Fields added later go in the extension block.  A writer may append to it
+ * without changing the version, and readers of the same version skip what
+ * they don't know.  The version only changes if the layout before the block
+ * does, and readers reject versions newer than their own, so that change
+ * can't be read by older code.
+ */
 public class PayloadCodec {
-    public static final int DATA_SHARDS = 4;
-    public static final int PARITY_SHARDS = 3;
-    public static final int TOTAL_SHARDS = DATA_SHARDS + PARITY_SHARDS;
+    public static final int DEFAULT_DATA_SHARDS = 4;
+    public static final int DEFAULT_PARITY_SHARDS = 3;
     public static final int BYTES_IN_INT = 4;
 
+    /**
+     * The formats a payload can be stored in.
+     */
+    public enum Format {
+        JSON,
+        BINARY;
+
+        /**
+         * Returns the format with the given name, ignoring case.
+         */
+        public static Format forName(String name) {
+            for (Format format : values()) {
+                if (format.name().equalsIgnoreCase(name.trim())) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown payload format: " + name);
+        }
+    }
+
+    public static final int BINARY_VERSION = 1;
+    private static final int BINARY_MARKER = 0x80;
+    private static final int FLAG_UUID_ID = 0x01;
+    private static final int FLAG_STRING_ID = 0x02;
+    private static final int FLAG_SEISMIC_ACTIVITY = 0x04;
+    private static final int FLAG_TEMPERATURE_C = 0x08;
+    private static final int FLAG_RADIATION_LEVEL = 0x10;
+    private static final int UUID_LENGTH = 36;
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    // ObjectMapper is thread-safe once configured, so all codecs share one.
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
     private final ObjectMapper objectMapper;
+    private final ReedSolomon reedSolomon;
+    private final Format format;
+    private final int dataShards;
+    private final int totalShards;
 
+    // Every data shard, for rebuilding whichever ones are missing.
+    private final int[] dataShardIndices;
+
+    /**
+     * Creates a 4+3 codec that writes the JSON format, which every node can
+     * read.
+     */
     public PayloadCodec() {
-        this.objectMapper = new ObjectMapper();
+        this(Format.JSON);
+    }
+
+    /**
+     * Creates a 4+3 codec that writes the given format.  Only write BINARY
+     * once every node runs a version that can read it.
+     */
+    public PayloadCodec(Format format) {
+        this(format, DEFAULT_DATA_SHARDS, DEFAULT_PARITY_SHARDS);
+    }
+
+    /**
+     * Creates a codec for the given number of data and parity shards.  Shards
+     * can only be decoded by a codec with the geometry that encoded them.
+     */
+    public PayloadCodec(Format format, int dataShards, int parityShards) {
+        this.format = format;
+        this.objectMapper = OBJECT_MAPPER;
+        // The shared codec for this geometry, whose decode matrices for
+        // every erasure pattern were computed once, up front.
+        this.reedSolomon = ReedSolomonRegistry.get(dataShards, parityShards);
+        this.dataShards = dataShards;
+        this.totalShards = dataShards + parityShards;
+        this.dataShardIndices = new int[dataShards];
+        for (int i = 0; i < dataShards; i++) {
+            dataShardIndices[i] = i;
+        }
     }
 
     /**
@@ -26,39 +130,178 @@ public class PayloadCodec {
      * @return An array of byte arrays, each representing a shard
      */
     public byte[][] encode(Payload payload) throws IOException {
-        // Convert payload to JSON bytes
-        byte[] payloadBytes = objectMapper.writeValueAsBytes(payload);
-        final int payloadSize = payloadBytes.length;
+        byte[][] shards = toShards(payload);
 
-        // Figure out how big each shard will be.
-        // The total size stored will be the payload size (4 bytes) plus the payload.
-        final int storedSize = payloadSize + BYTES_IN_INT;
-        final int shardSize = (storedSize + DATA_SHARDS - 1) / DATA_SHARDS;
+        // Use Reed-Solomon to calculate the parity.
+        reedSolomon.encodeParity(shards, 0, shards[0].length);
 
-        // Create a buffer holding the payload size, followed by
-        // the contents of the payload.
-        final int bufferSize = shardSize * DATA_SHARDS;
-        final byte[] allBytes = new byte[bufferSize];
+        // Return the array of shards
+        return shards;
+    }
 
-        // Store payload size at the beginning
-        ByteBuffer.wrap(allBytes).putInt(payloadSize);
+    /**
+     * Encodes many Payload objects at once. The parity for all of them is
+     * computed in a few passes of the coding loop, rather than one per payload.
+     * The write path doesn't use this: requests arrive one payload at a time,
+     * and StripePacker packs concurrent ones into a single stripe instead. It
+     * is for callers that already hold many payloads, such as a bulk load.
+     * @param payloads The payloads to encode
+     * @return The shards for each payload, in the same order
+     */
+    public List<byte[][]> encodeAll(List<Payload> payloads) throws IOException {
+        byte[][][] stripes = new byte[payloads.size()][][];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = toShards(payloads.get(i));
+        }
 
-        // Copy payload bytes after the size
-        System.arraycopy(payloadBytes, 0, allBytes, BYTES_IN_INT, payloadSize);
+        // Use Reed-Solomon to calculate the parity of every stripe.
+        reedSolomon.encodeParityBatch(stripes);
 
-        // Make the buffers to hold the shards.
-        byte[][] shards = new byte[TOTAL_SHARDS][shardSize];
+        return Arrays.asList(stripes);
+    }
 
-        // Fill in the data shards
-        for (int i = 0; i < DATA_SHARDS; i++) {
-            System.arraycopy(allBytes, i * shardSize, shards[i], 0, shardSize);
+    /**
+     * Encodes many payloads into one stripe, one record after another, so
+     * that each node keeps one shard for all of them.  A record is what
+     * encode() would store for the payload on its own; read one back with
+     * decodeRecord() and its offset and length.
+     * @param payloads The payloads to pack
+     * @return The shards, and where each payload's record is
+     */
+    public PackedStripe encodePacked(List<Payload> payloads) throws IOException {
+        final StripeOutputStream stripe = SCRATCH.get().stripe;
+        stripe.reset();
+        int[] offsets = new int[payloads.size()];
+        int[] lengths = new int[payloads.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = stripe.size();
+            writeRecord(stripe, payloads.get(i));
+            lengths[i] = stripe.size() - offsets[i];
         }
+        byte[][] shards = toShards(stripe);
+        reedSolomon.encodeParity(shards, 0, shards[0].length);
+        return new PackedStripe(shards, offsets, lengths);
+    }
 
-        // Use Reed-Solomon to calculate the parity.
-        ReedSolomon reedSolomon = ReedSolomon.create(DATA_SHARDS, PARITY_SHARDS);
-        reedSolomon.encodeParity(shards, 0, shardSize);
+    /**
+     * Serializes a payload without splitting it into shards: the bytes that
+     * encode() would spread over the data shards, without the padding.  This
+     * is what's stored for a replicated payload.
+     */
+    public byte[] encodeRecord(Payload payload) throws IOException {
+        final StripeOutputStream stripe = SCRATCH.get().stripe;
+        stripe.reset();
+        writeRecord(stripe, payload);
+        byte[] record = new byte[stripe.size()];
+        stripe.copyTo(0, record, record.length);
+        return record;
+    }
 
-        // Return the array of shards
+    /**
+     * Decodes a payload serialized by encodeRecord().
+     */
+    public Payload decodeRecord(byte[] record) throws IOException {
+        if (record.length == 0) {
+            throw new IOException("empty record");
+        }
+        try {
+            return readRecord(new byte[][] {record}, record.length, 0, record.length);
+        } finally {
+            SCRATCH.get().input.reset(null, 0, 0, 0);
+        }
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public int getDataShardCount() {
+        return dataShards;
+    }
+
+    public int getTotalShardCount() {
+        return totalShards;
+    }
+
+    /**
+     * The shards of a stripe of packed payloads, with the offset and length of
+     * each payload's record in the stripe's data.
+     */
+    public static final class PackedStripe {
+        private final byte[][] shards;
+        private final int[] offsets;
+        private final int[] lengths;
+
+        PackedStripe(byte[][] shards, int[] offsets, int[] lengths) {
+            this.shards = shards;
+            this.offsets = offsets;
+            this.lengths = lengths;
+        }
+
+        public byte[][] getShards() {
+            return shards;
+        }
+
+        public int getRecordCount() {
+            return offsets.length;
+        }
+
+        public int getOffset(int record) {
+            return offsets[record];
+        }
+
+        public int getLength(int record) {
+            return lengths[record];
+        }
+    }
+
+    /**
+     * Serializes a payload into data shards, with empty parity shards.
+     * The payload is written straight into this thread's stripe buffer, and
+     * then copied once into the shards.
+     */
+    private byte[][] toShards(Payload payload) throws IOException {
+        final StripeOutputStream stripe = SCRATCH.get().stripe;
+        stripe.reset();
+        writeRecord(stripe, payload);
+        return toShards(stripe);
+    }
+
+    /**
+     * Appends a payload to the stripe, in this codec's format.
+     */
+    private void writeRecord(StripeOutputStream stripe, Payload payload) throws IOException {
+        if (format == Format.BINARY) {
+            writeBinary(stripe, payload);
+        } else {
+            // Store payload size at the beginning.
+            // The total size stored is the payload size (4 bytes) plus the payload.
+            final int start = stripe.size();
+            stripe.writeInt(0);
+            objectMapper.writeValue(stripe, payload);
+            stripe.putInt(start, stripe.size() - start - BYTES_IN_INT);
+        }
+    }
+
+    /**
+     * Splits what is in the stripe buffer into data shards, with empty parity
+     * shards.
+     */
+    private byte[][] toShards(StripeOutputStream stripe) {
+        final int storedSize = stripe.size();
+
+        // Figure out how big each shard will be.
+        final int shardSize = (storedSize + dataShards - 1) / dataShards;
+
+        // Make the buffers to hold the shards, and fill in the data shards.
+        // New arrays are zeros, which takes care of the padding.
+        byte[][] shards = new byte[totalShards][shardSize];
+        for (int i = 0; i < dataShards; i++) {
+            final int start = i * shardSize;
+            if (start < storedSize) {
+                stripe.copyTo(start, shards[i], Math.min(shardSize, storedSize - start));
+            }
+        }
         return shards;
     }
 
@@ -68,8 +311,22 @@ public class PayloadCodec {
      * @return The reconstructed Payload object
      */
     public Payload decode(byte[][] shards) throws IOException {
-        if (shards.length != TOTAL_SHARDS) {
-            throw new IllegalArgumentException("Expected " + TOTAL_SHARDS + " shards, got " + shards.length);
+        return decodeRecord(shards, 0, -1);
+    }
+
+    /**
+     * Decodes one payload from a stripe made by encodePacked().  Only the data
+     * shards that hold the record are needed; if any of them are missing, they
+     * are rebuilt from the others, which needs as many shards as there are
+     * data shards.
+     * @param shards The array of shards, some of which may be null
+     * @param offset Where the record starts in the stripe's data
+     * @param length The length of the record, or -1 for the rest of the data
+     * @return The reconstructed Payload object
+     */
+    public Payload decodeRecord(byte[][] shards, int offset, int length) throws IOException {
+        if (shards.length != totalShards) {
+            throw new IllegalArgumentException("Expected " + totalShards + " shards, got " + shards.length);
         }
 
         // Determine shard size from the first non-null shard
@@ -86,55 +343,440 @@ public class PayloadCodec {
         }
 
         // Count available shards
+        final Scratch scratch = SCRATCH.get();
+        scratch.setShardCount(totalShards);
         int shardCount = 0;
-        boolean[] shardPresent = new boolean[TOTAL_SHARDS];
-        for (int i = 0; i < TOTAL_SHARDS; i++) {
-            if (shards[i] != null) {
-                shardPresent[i] = true;
+        boolean[] shardPresent = scratch.shardPresent;
+        for (int i = 0; i < totalShards; i++) {
+            shardPresent[i] = shards[i] != null;
+            if (shardPresent[i]) {
                 shardCount++;
             }
         }
 
-        // We need at least DATA_SHARDS to be able to reconstruct the data
-        if (shardCount < DATA_SHARDS) {
-            throw new IllegalArgumentException("Not enough shards present. Need at least " + DATA_SHARDS + ", have " + shardCount);
+        final int storedSize = dataShards * shardSize;
+        if (length < 0) {
+            length = storedSize - offset;
+        }
+        if (offset < 0 || length <= 0 || storedSize - offset < length) {
+            throw new IllegalArgumentException("Record " + offset + "+" + length + " is outside the stripe");
         }
 
-        // If we're missing any data shards, we need to use Reed-Solomon to reconstruct them
-        if (shardCount < TOTAL_SHARDS) {
-            // Create a reed solomon codec
-            ReedSolomon reedSolomon = ReedSolomon.create(DATA_SHARDS, PARITY_SHARDS);
+        // Only the data shards that hold the record are read.
+        final int firstShard = offset / shardSize;
+        final int lastShard = (offset + length - 1) / shardSize;
 
-            // Create a copy of the shards matrix, with null shards replaced by new byte arrays
-            byte[][] shardsCopy = new byte[TOTAL_SHARDS][];
-            for (int i = 0; i < TOTAL_SHARDS; i++) {
-                if (shards[i] != null) {
-                    shardsCopy[i] = shards[i];
-                } else {
-                    shardsCopy[i] = new byte[shardSize];
+        // If we're missing any of them, we need to use Reed-Solomon to reconstruct them.
+        // Only the missing data shards are rebuilt; missing parity isn't needed to read.
+        // They are rebuilt into this thread's buffers, which may be longer than the shards.
+        byte[][] workShards = scratch.shards;
+        try {
+            boolean missingData = false;
+            System.arraycopy(shards, 0, workShards, 0, totalShards);
+            for (int i = firstShard; i <= lastShard; i++) {
+                if (!shardPresent[i]) {
+                    workShards[i] = scratch.rebuiltShard(i, shardSize);
+                    missingData = true;
                 }
             }
+            if (missingData) {
+                // We need at least dataShards shards to be able to reconstruct the data
+                if (shardCount < dataShards) {
+                    throw new IllegalArgumentException("Not enough shards present. Need at least " + dataShards + ", have " + shardCount);
+                }
+                // Present shards in the list are skipped.
+                final int[] toBuild = firstShard == 0 && lastShard == dataShards - 1
+                        ? dataShardIndices
+                        : Arrays.copyOfRange(dataShardIndices, firstShard, lastShard + 1);
+                reedSolomon.reconstruct(workShards, shardPresent, toBuild, 0, shardSize);
+            }
 
-            // Reconstruct missing shards
-            reedSolomon.decodeMissing(shardsCopy, shardPresent, 0, shardSize);
-
-            // Use the reconstructed shards for further processing
-            shards = shardsCopy;
+            return readRecord(workShards, shardSize, offset, length);
+        } finally {
+            // Don't keep the caller's shards alive.
+            Arrays.fill(workShards, null);
+            scratch.input.reset(null, 0, 0, 0);
         }
+    }
 
-        // Combine the data shards to get the original data
-        byte[] allBytes = new byte[shardSize * DATA_SHARDS];
-        for (int i = 0; i < DATA_SHARDS; i++) {
-            System.arraycopy(shards[i], 0, allBytes, i * shardSize, shardSize);
+    /**
+     * Cuts the columns that one packed record is in out of a shard of its
+     * stripe.  Reed-Solomon codes each column of the shards on its own, so
+     * decodeRecord() can read the record, or rebuild it, from the same cut of
+     * each shard, at recordOffsetInColumns().  Every shard of the stripe is cut
+     * the same way, parity included.
+     *
+     * A record in one data shard needs only its own columns.  One that runs
+     * into the next data shard needs the columns from its start to the end of
+     * the shard, and from the start of the shard to its end: two ranges, which
+     * are kept in column order so the record stays in one piece.  A record
+     * longer than a shard needs the whole shard.
+     */
+    public static byte[] cutRecordColumns(byte[] shard, int offset, int length) {
+        final int[] ranges = recordColumnRanges(shard.length, offset, length);
+        final int wrapEnd = ranges[0];
+        final int start = ranges[1];
+        final int end = ranges[2];
+        byte[] columns = new byte[wrapEnd + end - start];
+        System.arraycopy(shard, 0, columns, 0, wrapEnd);
+        System.arraycopy(shard, start, columns, wrapEnd, end - start);
+        return columns;
+    }
+
+    /**
+     * Where a record starts in the stripe's data once its shards have been cut
+     * by cutRecordColumns().
+     */
+    public static int recordOffsetInColumns(int shardSize, int offset, int length) {
+        final int[] ranges = recordColumnRanges(shardSize, offset, length);
+        final int wrapEnd = ranges[0];
+        final int start = ranges[1];
+        final int end = ranges[2];
+        final int firstShard = offset / shardSize;
+        final int width = wrapEnd + end - start;
+        return firstShard * width + wrapEnd + (offset - firstShard * shardSize - start);
+    }
+
+    /**
+     * The columns a record needs, as {wrapEnd, start, end}: columns 0 to
+     * wrapEnd, then start to end.
+     */
+    private static int[] recordColumnRanges(int shardSize, int offset, int length) {
+        if (shardSize <= 0 || offset < 0 || length <= 0) {
+            throw new IllegalArgumentException("Record " + offset + "+" + length + " is outside the stripe");
+        }
+        final int firstShard = offset / shardSize;
+        final int lastShard = (offset + length - 1) / shardSize;
+        final int startColumn = offset % shardSize;
+        final int endColumn = (offset + length - 1) % shardSize + 1;
+        if (firstShard == lastShard) {
+            return new int[] {0, startColumn, endColumn};
+        }
+        if (lastShard == firstShard + 1 && endColumn <= startColumn) {
+            return new int[] {endColumn, startColumn, shardSize};
         }
+        return new int[] {0, 0, shardSize};
+    }
 
-        // Extract the original payload size
-        int payloadSize = ByteBuffer.wrap(allBytes).getInt();
+    /**
+     * Reads the record at offset in the data shards, in whichever format it is.
+     * Byte n of the stored data is in shard n / shardSize, at n % shardSize.
+     */
+    private Payload readRecord(byte[][] dataShards, int shardSize, int offset, int length) throws IOException {
+        // Read the payload straight out of the data shards.
+        final DataShardsInputStream input = SCRATCH.get().input;
+        input.reset(dataShards, shardSize, offset, length);
+        final int first = input.read();
+        if (first < 0) {
+            throw new IOException("empty shards");
+        }
+        if ((first & BINARY_MARKER) != 0) {
+            return readBinary(input, first & ~BINARY_MARKER);
+        }
 
-        // Extract the payload bytes
-        byte[] payloadBytes = Arrays.copyOfRange(allBytes, BYTES_IN_INT, BYTES_IN_INT + payloadSize);
+        // The JSON format: a length, then the JSON.
+        input.reset(dataShards, shardSize, offset, BYTES_IN_INT);
+        final int payloadSize = input.readInt();
+        if (payloadSize < 0 || length - BYTES_IN_INT < payloadSize) {
+            throw new IOException("bad payload size in shards: " + payloadSize);
+        }
+        input.reset(dataShards, shardSize, offset + BYTES_IN_INT, payloadSize);
 
         // Convert back to Payload object
-        return objectMapper.readValue(payloadBytes, Payload.class);
+        return objectMapper.readValue(input, Payload.class);
+    }
+
+    /**
+     * Writes a payload in the binary format.
+     */
+    private static void writeBinary(StripeOutputStream out, Payload payload) {
+        final String id = payload.getId();
+        int flags = 0;
+        if (id != null) {
+            flags |= isLowerCaseUuid(id) ? FLAG_UUID_ID : FLAG_STRING_ID;
+        }
+        if (payload.getSeismicActivity() != null) {
+            flags |= FLAG_SEISMIC_ACTIVITY;
+        }
+        if (payload.getTemperatureC() != null) {
+            flags |= FLAG_TEMPERATURE_C;
+        }
+        if (payload.getRadiationLevel() != null) {
+            flags |= FLAG_RADIATION_LEVEL;
+        }
+
+        out.write(BINARY_MARKER | BINARY_VERSION);
+        out.write(flags);
+        if ((flags & FLAG_UUID_ID) != 0) {
+            out.writeLong(parseHex(id, 0, 18));
+            out.writeLong(parseHex(id, 19, UUID_LENGTH));
+        } else if ((flags & FLAG_STRING_ID) != 0) {
+            byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(idBytes.length);
+            out.write(idBytes, 0, idBytes.length);
+        }
+        if ((flags & FLAG_SEISMIC_ACTIVITY) != 0) {
+            out.writeLong(Double.doubleToRawLongBits(payload.getSeismicActivity()));
+        }
+        if ((flags & FLAG_TEMPERATURE_C) != 0) {
+            out.writeLong(Double.doubleToRawLongBits(payload.getTemperatureC()));
+        }
+        if ((flags & FLAG_RADIATION_LEVEL) != 0) {
+            out.writeLong(Double.doubleToRawLongBits(payload.getRadiationLevel()));
+        }
+
+        // No extensions yet.
+        out.write(0);
+        out.write(0);
+    }
+
+    /**
+     * Reads a payload in the binary format, after its first byte.
+     */
+    private static Payload readBinary(DataShardsInputStream in, int version) throws IOException {
+        if (version < 1 || BINARY_VERSION < version) {
+            throw new IOException("unsupported payload format version: " + version);
+        }
+        final int flags = in.readUnsignedByte();
+        final Payload payload = new Payload();
+        if ((flags & FLAG_UUID_ID) != 0) {
+            payload.setId(new UUID(in.readLong(), in.readLong()).toString());
+        } else if ((flags & FLAG_STRING_ID) != 0) {
+            int length = in.readInt();
+            if (length < 0 || in.available() < length) {
+                throw new IOException("bad id length in shards: " + length);
+            }
+            byte[] idBytes = new byte[length];
+            in.read(idBytes, 0, length);
+            payload.setId(new String(idBytes, StandardCharsets.UTF_8));
+        }
+        if ((flags & FLAG_SEISMIC_ACTIVITY) != 0) {
+            payload.setSeismicActivity(Double.longBitsToDouble(in.readLong()));
+        }
+        if ((flags & FLAG_TEMPERATURE_C) != 0) {
+            payload.setTemperatureC(Double.longBitsToDouble(in.readLong()));
+        }
+        if ((flags & FLAG_RADIATION_LEVEL) != 0) {
+            payload.setRadiationLevel(Double.longBitsToDouble(in.readLong()));
+        }
+
+        // Skip fields from later writers that this version doesn't know.
+        int extensionLength = (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+        if (in.available() < extensionLength) {
+            throw new IOException("bad extension length in shards: " + extensionLength);
+        }
+        in.skipNBytes(extensionLength);
+        return payload;
+    }
+
+    /**
+     * Returns true if the id is a UUID in the form UUID.toString() makes,
+     * which is the only form that can be stored in 16 bytes and read back
+     * exactly.
+     */
+    private static boolean isLowerCaseUuid(String id) {
+        if (id.length() != UUID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            char c = id.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+            } else if (!(('0' <= c && c <= '9') || ('a' <= c && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the hex digits between start and end, skipping dashes.
+     */
+    private static long parseHex(String id, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = id.charAt(i);
+            if (c != '-') {
+                value = (value << 4) | Character.digit(c, 16);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Buffers that one thread reuses for every payload, so that encoding and
+     * decoding only allocate the shards returned and the Payload.
+     */
+    private static final class Scratch {
+        final StripeOutputStream stripe = new StripeOutputStream();
+        final DataShardsInputStream input = new DataShardsInputStream();
+        boolean[] shardPresent = new boolean[0];
+        byte[][] shards = new byte[0][];
+        byte[][] rebuilt = new byte[0][];
+
+        /**
+         * Sizes the arrays for a geometry with the given number of shards.
+         * Codecs for different geometries can share a thread.
+         */
+        void setShardCount(int totalShards) {
+            if (shards.length != totalShards) {
+                shardPresent = new boolean[totalShards];
+                shards = new byte[totalShards][];
+                rebuilt = new byte[totalShards][];
+            }
+        }
+
+        /**
+         * Returns a buffer of at least shardSize bytes for rebuilding data shard i.
+         */
+        byte[] rebuiltShard(int i, int shardSize) {
+            if (rebuilt[i] == null || rebuilt[i].length < shardSize) {
+                rebuilt[i] = new byte[shardSize];
+            }
+            return rebuilt[i];
+        }
+    }
+
+    /**
+     * An output stream that writes into a growable array, which is kept from
+     * one payload to the next.
+     */
+    private static final class StripeOutputStream extends OutputStream {
+        private byte[] buffer = new byte[1024];
+        private int count;
+
+        void reset() {
+            count = 0;
+        }
+
+        int size() {
+            return count;
+        }
+
+        void writeInt(int value) {
+            ensureCapacity(count + BYTES_IN_INT);
+            putInt(count, value);
+            count += BYTES_IN_INT;
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        /**
+         * Writes a big-endian int, like ByteBuffer.putInt().
+         */
+        void putInt(int index, int value) {
+            buffer[index] = (byte) (value >>> 24);
+            buffer[index + 1] = (byte) (value >>> 16);
+            buffer[index + 2] = (byte) (value >>> 8);
+            buffer[index + 3] = (byte) value;
+        }
+
+        void copyTo(int start, byte[] destination, int length) {
+            System.arraycopy(buffer, start, destination, 0, length);
+        }
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1);
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            ensureCapacity(count + length);
+            System.arraycopy(bytes, offset, buffer, count, length);
+            count += length;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (buffer.length < capacity) {
+                buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+            }
+        }
+    }
+
+    /**
+     * An input stream over a range of the bytes stored in the data shards, read
+     * in place, as if the shards were one array.
+     */
+    private static final class DataShardsInputStream extends InputStream {
+        private byte[][] shards;
+        private int shardSize;
+        private int position;
+        private int end;
+
+        void reset(byte[][] shards, int shardSize, int start, int length) {
+            this.shards = shards;
+            this.shardSize = shardSize;
+            this.position = start;
+            this.end = start + length;
+        }
+
+        int readUnsignedByte() throws IOException {
+            int b = read();
+            if (b < 0) {
+                throw new IOException("shards too short for payload");
+            }
+            return b;
+        }
+
+        int readInt() throws IOException {
+            int value = 0;
+            for (int i = 0; i < BYTES_IN_INT; i++) {
+                value = (value << 8) | readUnsignedByte();
+            }
+            return value;
+        }
+
+        long readLong() throws IOException {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        @Override
+        public int read() {
+            if (end <= position) {
+                return -1;
+            }
+            int b = shards[position / shardSize][position % shardSize] & 0xFF;
+            position++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (end <= position) {
+                return -1;
+            }
+            // Copy from one shard at a time.
+            int copied = 0;
+            while (copied < length && position < end) {
+                int shardOffset = position % shardSize;
+                int count = Math.min(Math.min(length - copied, end - position), shardSize - shardOffset);
+                System.arraycopy(shards[position / shardSize], shardOffset, bytes, offset + copied, count);
+                position += count;
+                copied += count;
+            }
+            return copied;
+        }
+
+        @Override
+        public long skip(long count) {
+            long skipped = Math.max(0, Math.min(count, end - position));
+            position += (int) skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return end - position;
+        }
     }
 }
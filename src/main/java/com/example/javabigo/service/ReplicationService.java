@@ -1,6 +1,7 @@
 package com.example.javabigo.service;
 
 import com.example.javabigo.Payload;
+import jakarta.annotation.PreDestroy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -26,15 +27,27 @@ public class ReplicationService {
     private static final int SOCKET_PORT = 8089;
     private final Map<String, Socket> peerConnections = new ConcurrentHashMap<>();
     private final Map<String, byte[]> requestedShardsResponse = new ConcurrentHashMap<>();
-    private final PayloadCodec payloadCodec = new PayloadCodec();
+    private final PayloadCodec payloadCodec;
+    private final StripePacker stripePacker;
 
     @Autowired
-    public ReplicationService(BigoService bigoService, @Value("${current.node.ip}") String currentNodeIp,
-                              @Value("${all.node.ips}") String allNodeIps) {
+    public ReplicationService(BigoService bigoService, ShardGeometry shardGeometry,
+                              @Value("${current.node.ip}") String currentNodeIp,
+                              @Value("${all.node.ips}") String allNodeIps,
+                              @Value("${payload.format:json}") String payloadFormat,
+                              @Value("${packing.enabled:false}") boolean packingEnabled,
+                              @Value("${packing.window-millis:2}") long packingWindowMillis,
+                              @Value("${packing.max-records:256}") int packingMaxRecords) {
         this.currentNodeIp = currentNodeIp;
+        this.payloadCodec = new PayloadCodec(PayloadCodec.Format.forName(payloadFormat),
+                shardGeometry.getDataShardCount(), shardGeometry.getParityShardCount());
+        this.stripePacker = packingEnabled
+                ? new StripePacker(payloadCodec, this::storePackedStripe, packingWindowMillis, packingMaxRecords)
+                : null;
         this.bigoService = bigoService;
         List<String> allNodes = Arrays.stream(allNodeIps.split(","))
                 .map(String::trim)
+                .filter(ip -> !ip.isEmpty())
                 .toList();
 
         for (int i = 0; i < allNodes.size(); i++) {
@@ -49,11 +62,27 @@ public class ReplicationService {
         connectToPeers();
     }
 
+    /**
+     * Writes the payloads still waiting to be packed before the node stops,
+     * so that no write that was accepted is lost.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (stripePacker != null) {
+            stripePacker.shutdown();
+        }
+    }
+
     public void saveData(String locationId, Payload payload) {
         ReentrantLock lock = lockMap.computeIfAbsent(locationId, id -> new ReentrantLock());
         lock.lock();
         try {
-            shardAndReplicateData(locationId, payload);
+            if (stripePacker != null) {
+                // Waits for the stripe the payload is packed into to be stored.
+                stripePacker.add(locationId, payload).join();
+            } else {
+                shardAndReplicateData(locationId, payload);
+            }
         } catch (Exception e) {
             System.err.println("Error encoding data: " + e.getMessage());
         } finally {
@@ -62,63 +91,204 @@ public class ReplicationService {
         }
     }
 
+    /**
+     * Serializes a payload the way it is stored whole, for replication.
+     */
+    public byte[] encodeRecord(Payload payload) throws IOException {
+        return payloadCodec.encodeRecord(payload);
+    }
+
+    /**
+     * Stores a serialized payload whole on copies nodes, and tells the rest that
+     * the location is replicated.  The copies go on the nodes with the lowest
+     * replicaRank() for the location, so they are spread over the cluster.
+     */
+    public void saveReplicatedData(String locationId, byte[] record, int copies) {
+        ReentrantLock lock = lockMap.computeIfAbsent(locationId, id -> new ReentrantLock());
+        lock.lock();
+        try {
+            bigoService.saveReplica(locationId, replicaRank(locationId, currentNodeIp) < copies ? record : null);
+            String encoded = Base64.getEncoder().encodeToString(record);
+            for (String peerIp : peerNodeIps) {
+                String data = replicaRank(locationId, peerIp) < copies ? encoded : "";
+                sendMessageTo(peerIp, "RSTORE:" + locationId + ":" + data + "\n");
+            }
+        } finally {
+            lock.unlock();
+            lockMap.computeIfPresent(locationId, (id, l) -> l.hasQueuedThreads() ? l : null);
+        }
+    }
+
+    /**
+     * Reads a replicated payload: the copy on this node if there is one, or else
+     * the first copy a peer has.  Peers are asked one at a time, in replicaRank()
+     * order, so the ones holding copies are asked first whatever the replica
+     * count was when the payload was written.
+     */
+    public Payload getReplicatedData(String locationId) {
+        byte[] record = bigoService.getReplicaOf(locationId);
+        if (record == null) {
+            List<String> peers = new ArrayList<>(peerNodeIps);
+            peers.sort(Comparator.comparingInt(peerIp -> replicaRank(locationId, peerIp)));
+            for (int i = 0; record == null && i < peers.size(); i++) {
+                record = fetchFromPeer(peers.get(i), "RFETCH:", locationId, false);
+            }
+        }
+        if (record == null) {
+            System.out.println("Replica not found");
+            return null;
+        }
+        try {
+            return payloadCodec.decodeRecord(record);
+        } catch (IOException e) {
+            throw new RuntimeException("Decoding failed", e);
+        }
+    }
+
+    private int replicaRank(String locationId, String nodeIp) {
+        return replicaRank(locationId, nodesIndex.get(nodeIp), nodesIndex.size());
+    }
+
+    /**
+     * Returns where a node comes in the placement order for a location's
+     * copies, from 0 to nodeCount - 1.  The order starts at the node the
+     * location's hash picks and goes round the node list from there; a payload
+     * with n copies keeps them on the nodes ranked below n.
+     */
+    static int replicaRank(String locationId, int nodeIndex, int nodeCount) {
+        int first = Math.floorMod(locationId.hashCode(), nodeCount);
+        return Math.floorMod(nodeIndex - first, nodeCount);
+    }
+
     private void shardAndReplicateData(String locationId, Payload payload) throws IOException {
         byte[][] shards = payloadCodec.encode(payload);
         bigoService.saveData(locationId, shards[nodesIndex.get(currentNodeIp)]);
         replicateData(locationId, shards);
     }
 
+    /**
+     * Stores a stripe of packed payloads: this node's shard and index here, and
+     * each peer's shard and the index on the peer.
+     */
+    private void storePackedStripe(String groupId, String[] locationIds, PayloadCodec.PackedStripe stripe) {
+        byte[][] shards = stripe.getShards();
+        int[] offsets = new int[locationIds.length];
+        int[] lengths = new int[locationIds.length];
+        StringBuilder index = new StringBuilder();
+        for (int i = 0; i < locationIds.length; i++) {
+            offsets[i] = stripe.getOffset(i);
+            lengths[i] = stripe.getLength(i);
+            if (i > 0) {
+                index.append(';');
+            }
+            index.append(offsets[i]).append(',').append(lengths[i]).append(',')
+                    .append(Base64.getEncoder().encodeToString(locationIds[i].getBytes()));
+        }
+        bigoService.savePackedData(groupId, shards[nodesIndex.get(currentNodeIp)], locationIds, offsets, lengths);
+        for (String peerIp : peerNodeIps) {
+            byte[] shard = shards[nodesIndex.get(peerIp)];
+            sendMessageTo(peerIp, "PSTORE:" + groupId + ":" + Base64.getEncoder().encodeToString(shard) + ":" + index + "\n");
+        }
+    }
+
 
     public Payload getData(String locationId, boolean isWriting) {
-        byte[][] shards = new byte[7][];
+        BigoService.PackedLocation packedLocation = bigoService.getPackedLocationOf(locationId);
+        if (packedLocation != null) {
+            return getPackedData(packedLocation, isWriting);
+        }
+
+        byte[][] shards = new byte[payloadCodec.getTotalShardCount()][];
         byte[] currentShard = bigoService.getShardOf(locationId);
         if (currentShard == null) {
             System.out.println("Shard not saved in node");
             return null;
         }
         shards[nodesIndex.get(currentNodeIp)] = currentShard;
+        collectShards(shards, "FETCH:", locationId, isWriting);
+
+        try {
+            return payloadCodec.decode(shards);
+        } catch (IOException e) {
+            throw new RuntimeException("Decoding failed", e);
+        }
+    }
+
+    /**
+     * Reads one record out of a packed stripe.  The shards are fetched by group,
+     * so they all come from the same stripe, and only the columns the record is
+     * in are fetched, not whole shards.
+     */
+    private Payload getPackedData(BigoService.PackedLocation packedLocation, boolean isWriting) {
+        byte[][] shards = new byte[payloadCodec.getTotalShardCount()][];
+        byte[] currentShard = bigoService.getGroupShard(packedLocation.getGroupId());
+        if (currentShard == null) {
+            System.out.println("Shard not saved in node");
+            return null;
+        }
+        int offset = packedLocation.getOffset();
+        int length = packedLocation.getLength();
+        shards[nodesIndex.get(currentNodeIp)] = PayloadCodec.cutRecordColumns(currentShard, offset, length);
+        collectShards(shards, "GFETCH:", packedLocation.getGroupId() + ":" + offset + ":" + length, isWriting);
+
+        try {
+            return payloadCodec.decodeRecord(shards,
+                    PayloadCodec.recordOffsetInColumns(currentShard.length, offset, length), length);
+        } catch (IOException e) {
+            throw new RuntimeException("Decoding failed", e);
+        }
+    }
 
+    /**
+     * Fetches the peers' shards of a key into their slots in shards.  Shards that
+     * can't be fetched are left null.
+     */
+    private void collectShards(byte[][] shards, String fetchCommand, String key, boolean isWriting) {
         Map<String, CompletableFuture<Void>> futures = new HashMap<>();
 
         for (String peerIp : peerNodeIps) {
-            String requestId = UUID.randomUUID().toString();
-            Socket peerSocket = peerConnections.get(peerIp);
-
-            if (peerSocket == null) {
+            if (peerConnections.get(peerIp) == null) {
                 shards[nodesIndex.get(peerIp)] = null;
                 continue;
             }
 
-            CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
-                try {
-                    fetchShardFromNode(peerSocket, locationId, requestId);
-                    long startTime = System.currentTimeMillis();
-                    long timeout = 500;
-
-                    while (requestedShardsResponse.get(requestId) == null) {
-                        if (!isWriting && peerConnections.size() != 7 && System.currentTimeMillis() - startTime > timeout) {
-                            shards[nodesIndex.get(peerIp)] = null;
-                            peerConnections.remove(peerIp);
-                            break;
-                        }
-                    }
-                    shards[nodesIndex.get(peerIp)] = requestedShardsResponse.get(requestId);
-                    requestedShardsResponse.remove(requestId);
-                } catch (Exception e) {
-                    shards[nodesIndex.get(peerIp)] = null;
-                    peerConnections.remove(peerIp);
-                }
-            });
+            CompletableFuture<Void> future = CompletableFuture.runAsync(() ->
+                    shards[nodesIndex.get(peerIp)] = fetchFromPeer(peerIp, fetchCommand, key, isWriting));
 
-            futures.put(requestId, future);
+            futures.put(peerIp, future);
         }
         CompletableFuture[] futureArray = futures.values().toArray(new CompletableFuture[futures.size()]);
         CompletableFuture.allOf(futureArray).join();
+    }
 
+    /**
+     * Asks one peer for the data it has for a key, and waits for the answer.
+     * Returns null if the peer doesn't have it, or, on a read, doesn't answer
+     * within 500 ms; the peer is then dropped from the connections.
+     */
+    private byte[] fetchFromPeer(String peerIp, String fetchCommand, String key, boolean isWriting) {
+        String requestId = UUID.randomUUID().toString();
+        Socket peerSocket = peerConnections.get(peerIp);
+        if (peerSocket == null) {
+            return null;
+        }
         try {
-            return payloadCodec.decode(shards);
-        } catch (IOException e) {
-            throw new RuntimeException("Decoding failed", e);
+            fetchShardFromNode(peerSocket, fetchCommand, key, requestId);
+            long startTime = System.currentTimeMillis();
+            long timeout = 500;
+
+            while (requestedShardsResponse.get(requestId) == null) {
+                if (!isWriting && System.currentTimeMillis() - startTime > timeout) {
+                    peerConnections.remove(peerIp);
+                    break;
+                }
+            }
+            // Peers answer with nothing when they don't have the shard.
+            byte[] shard = requestedShardsResponse.remove(requestId);
+            return shard != null && shard.length > 0 ? shard : null;
+        } catch (Exception e) {
+            peerConnections.remove(peerIp);
+            return null;
         }
     }
 
@@ -165,11 +335,14 @@ public class ReplicationService {
     }
 
     private void sendShardTo(String peer, String locationId, byte[] shard) {
+        sendMessageTo(peer, "STORE:" + locationId + ":" + Base64.getEncoder().encodeToString(shard) + "\n");
+    }
+
+    private void sendMessageTo(String peer, String message) {
         Socket socket = peerConnections.get(peer);
         if (socket != null && !socket.isClosed()) {
             try {
                 OutputStream outputStream = socket.getOutputStream();
-                String message = "STORE:" + locationId + ":" + Base64.getEncoder().encodeToString(shard) + "\n";
                 outputStream.write(message.getBytes());
             } catch (IOException e) {
                 System.err.println("Error when sending message to " + socket.getInetAddress().getHostAddress() + ": " + e.getMessage());
@@ -180,7 +353,7 @@ public class ReplicationService {
     private void runSocketServer(String currentNodeIp) {
         new Thread(() -> {
             try (ServerSocket serverSocket = new ServerSocket(SOCKET_PORT, 50, InetAddress.getByName(currentNodeIp))) {
-                while (peerConnections.size() < 6) {
+                while (peerConnections.size() < peerNodeIps.size()) {
                     Socket clientSocket = serverSocket.accept();
                     listenToSocket(clientSocket);
                 }
@@ -218,6 +391,80 @@ public class ReplicationService {
             } else {
                 System.err.println("Invalid message format: " + message);
             }
+        } else if (message.startsWith("PSTORE:")) {
+            // PSTORE:groupId:shard:offset,length,locationId;...
+            String[] parts = message.split(":", 4);
+            if (parts.length >= 4) {
+                try {
+                    byte[] shard = Base64.getDecoder().decode(parts[2]);
+                    String[] records = parts[3].split(";");
+                    String[] locationIds = new String[records.length];
+                    int[] offsets = new int[records.length];
+                    int[] lengths = new int[records.length];
+                    for (int i = 0; i < records.length; i++) {
+                        String[] fields = records[i].split(",", 3);
+                        offsets[i] = Integer.parseInt(fields[0]);
+                        lengths[i] = Integer.parseInt(fields[1]);
+                        locationIds[i] = new String(Base64.getDecoder().decode(fields[2]));
+                    }
+                    bigoService.savePackedData(parts[1], shard, locationIds, offsets, lengths);
+                } catch (Exception e) {
+                    System.err.println("Failed to parse packed stripe: " + e.getMessage());
+                }
+            } else {
+                System.err.println("Invalid message format: " + message);
+            }
+        } else if (message.startsWith("RSTORE:")) {
+            // RSTORE:locationId:record, with no record on nodes that don't keep a copy.
+            String[] parts = message.split(":", 3);
+            if (parts.length >= 3) {
+                String locationId = parts[1];
+                ReentrantLock lock = lockMap.computeIfAbsent(locationId, id -> new ReentrantLock());
+                lock.lock();
+                try {
+                    byte[] record = parts[2].isEmpty() ? null : Base64.getDecoder().decode(parts[2]);
+                    bigoService.saveReplica(locationId, record);
+                } catch (Exception e) {
+                    System.err.println("Failed to parse replica: " + e.getMessage());
+                } finally {
+                    lock.unlock();
+                    lockMap.computeIfPresent(locationId, (id, l) -> l.hasQueuedThreads() ? l : null);
+                }
+            } else {
+                System.err.println("Invalid message format: " + message);
+            }
+        } else if (message.startsWith("RFETCH:")) {
+            try {
+                String[] parts = message.split(":", 3);
+                String locationId = parts[1];
+                String requestId = parts[2];
+                byte[] record = bigoService.getReplicaOf(locationId);
+
+                String encoded = record != null ? Base64.getEncoder().encodeToString(record) : "";
+                String response = "RESP:" + encoded + ":" + requestId + '\n';
+                socket.getOutputStream().write(response.getBytes());
+            } catch (IOException e) {
+                System.err.println("Failed to handle fetch request");
+            }
+        } else if (message.startsWith("GFETCH:")) {
+            // GFETCH:groupId:offset:length:requestId, answered with the columns of
+            // the group shard that the record at offset and length is in.
+            try {
+                String[] parts = message.split(":", 5);
+                String groupId = parts[1];
+                int offset = Integer.parseInt(parts[2]);
+                int length = Integer.parseInt(parts[3]);
+                String requestId = parts[4];
+                byte[] shard = bigoService.getGroupShard(groupId);
+
+                String encoded = shard != null
+                        ? Base64.getEncoder().encodeToString(PayloadCodec.cutRecordColumns(shard, offset, length))
+                        : "";
+                String response = "RESP:" + encoded + ":" + requestId + '\n';
+                socket.getOutputStream().write(response.getBytes());
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println("Failed to handle fetch request");
+            }
         } else if (message.startsWith("FETCH:")) {
             try {
                 String[] parts = message.split(":", 3);
@@ -241,10 +488,10 @@ public class ReplicationService {
         }
     }
 
-    private void fetchShardFromNode(Socket socket, String locationId, String requestId) {
+    private void fetchShardFromNode(Socket socket, String fetchCommand, String key, String requestId) {
 
         try {
-            String request = "FETCH:" + locationId + ":" + requestId + '\n';
+            String request = fetchCommand + key + ":" + requestId + '\n';
             socket.getOutputStream().write(request.getBytes());
         } catch (IOException e) {
             System.err.println("Fetch failed");
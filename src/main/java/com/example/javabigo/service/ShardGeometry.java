@@ -0,0 +1,121 @@
+package com.example.javabigo.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+
+/**
+ * How many data and parity shards each payload is split into.
+ *
+ * Every node keeps one shard of each stripe, the shard at its position in
+ * all.node.ips, so there are as many shards as nodes.  The number of parity
+ * shards is configured, and the rest are data shards: 7 nodes with 3 parity
+ * shards is 4+3, and 11 nodes is 8+3.  The number of data shards can be set
+ * too, as a check that the cluster is the size it was planned for.
+ *
+ * A cluster of fewer than 7 nodes, such as the single node of the default
+ * configuration, uses the original 4+3 as long as it is configured for 3
+ * parity shards and 4 or the default number of data shards.  Each node keeps
+ * the shard at its position, and the shards past the last node aren't stored,
+ * so reads need enough of the cluster to be there to make up the data shards.
+ * Any other geometry that needs more nodes than there are is an error.
+ *
+ * All nodes must use the same geometry, and shards written with one geometry
+ * can't be read with another.
+ */
+@Service
+public class ShardGeometry {
+
+    private final int nodeCount;
+    private final int dataShardCount;
+    private final int parityShardCount;
+
+    @Autowired
+    public ShardGeometry(@Value("${all.node.ips}") String allNodeIps,
+                         @Value("${erasure.data-shards:0}") int dataShards,
+                         @Value("${erasure.parity-shards:3}") int parityShards) {
+        this(countNodes(allNodeIps), dataShards, parityShards);
+    }
+
+    /**
+     * @param nodeCount The number of nodes, each of which keeps one shard
+     * @param dataShards The number of data shards, or 0 for every node that
+     *                   doesn't keep a parity shard
+     * @param parityShards The number of parity shards
+     */
+    public ShardGeometry(int nodeCount, int dataShards, int parityShards) {
+        if (nodeCount < 1) {
+            throw new IllegalArgumentException("There must be at least one node: " + nodeCount);
+        }
+        if (parityShards < 1) {
+            throw new IllegalArgumentException("There must be at least one parity shard: " + parityShards);
+        }
+        int needed = (dataShards <= 0 ? 1 : dataShards) + parityShards;
+        if (nodeCount < needed && fallsBackToDefault(nodeCount, dataShards, parityShards)) {
+            System.err.println("Only " + nodeCount + " nodes, but " + needed + " are needed; using "
+                    + PayloadCodec.DEFAULT_DATA_SHARDS + "+" + PayloadCodec.DEFAULT_PARITY_SHARDS);
+            dataShards = PayloadCodec.DEFAULT_DATA_SHARDS;
+            parityShards = PayloadCodec.DEFAULT_PARITY_SHARDS;
+        } else if (dataShards <= 0) {
+            if (nodeCount < needed) {
+                throw new IllegalArgumentException("Geometry with " + parityShards + " parity shards needs at least "
+                        + needed + " nodes, but there are " + nodeCount);
+            }
+            dataShards = nodeCount - parityShards;
+        } else if (dataShards + parityShards != nodeCount) {
+            throw new IllegalArgumentException("Geometry " + dataShards + "+" + parityShards
+                    + " needs " + (dataShards + parityShards) + " nodes, but there are " + nodeCount);
+        }
+        this.nodeCount = nodeCount;
+        this.dataShardCount = dataShards;
+        this.parityShardCount = parityShards;
+    }
+
+    /**
+     * True if a cluster too small for the configured geometry should use the
+     * original 4+3: it's smaller than that, and the configuration is the
+     * default one or asks for 4+3.
+     */
+    private static boolean fallsBackToDefault(int nodeCount, int dataShards, int parityShards) {
+        return nodeCount < PayloadCodec.DEFAULT_DATA_SHARDS + PayloadCodec.DEFAULT_PARITY_SHARDS
+                && (dataShards <= 0 || dataShards == PayloadCodec.DEFAULT_DATA_SHARDS)
+                && parityShards == PayloadCodec.DEFAULT_PARITY_SHARDS;
+    }
+
+    /**
+     * Counts the node addresses in a comma-separated list, ignoring blanks.
+     */
+    static int countNodes(String allNodeIps) {
+        return (int) Arrays.stream(allNodeIps.split(","))
+                .map(String::trim)
+                .filter(ip -> !ip.isEmpty())
+                .count();
+    }
+
+    /**
+     * Returns the number of nodes, which is fewer than the number of shards
+     * when a small cluster uses 4+3.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getDataShardCount() {
+        return dataShardCount;
+    }
+
+    public int getParityShardCount() {
+        return parityShardCount;
+    }
+
+    public int getTotalShardCount() {
+        return dataShardCount + parityShardCount;
+    }
+
+    @Override
+    public String toString() {
+        return dataShardCount + "+" + parityShardCount;
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.javabigo.service;
+
+/**
+ * How a location's payload is stored across the nodes.
+ */
+public enum StoragePolicy {
+    /**
+     * Split into data and parity shards, one on each node.
+     */
+    ERASURE_CODED,
+
+    /**
+     * A record in a stripe shared with other payloads, one shard of which is
+     * on each node.
+     */
+    PACKED,
+
+    /**
+     * Copied whole to a few nodes.  The other nodes only know that it is
+     * replicated, so they can ask for it.
+     */
+    REPLICATED
+}
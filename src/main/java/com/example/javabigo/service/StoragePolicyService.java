@@ -0,0 +1,127 @@
+package com.example.javabigo.service;
+
+import com.example.javabigo.Payload;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+
+/**
+ * Chooses how each payload is stored, and reads it back the same way.
+ *
+ * Erasure coding a payload of a hundred bytes costs an encode, a message to
+ * every node, and on every read a message to every node and a decode, for
+ * shards smaller than the per-object overhead of storing them.  For payloads
+ * that small it's cheaper to keep a few whole copies: a write sends the copies
+ * and needs no encode, and a read on a node with a copy is local.
+ *
+ * In "auto" mode, payloads whose stored record is at most replicate-max-bytes
+ * are replicated, and larger ones are erasure coded (and packed, if packing is
+ * on).  "replication" and "erasure" modes use one policy for everything.  The
+ * policy used is recorded with each location, so it can be read whatever the
+ * mode is now.
+ *
+ * The default is "erasure", which is how every payload was stored before.
+ * "auto" and "replication" change durability: a replicated payload survives
+ * the loss of replicas - 1 nodes, and an erasure coded one the loss of as many
+ * nodes as there are parity shards.
+ */
+@Service
+public class StoragePolicyService {
+
+    public enum Mode {
+        AUTO,
+        REPLICATION,
+        ERASURE;
+
+        public static Mode forName(String name) {
+            for (Mode mode : values()) {
+                if (mode.name().equalsIgnoreCase(name.trim())) {
+                    return mode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown storage policy mode: " + name);
+        }
+    }
+
+    private final ReplicationService replicationService;
+    private final BigoService bigoService;
+    private final Mode mode;
+    private final int replicateMaxBytes;
+    private final int replicas;
+
+    @Autowired
+    public StoragePolicyService(ReplicationService replicationService, BigoService bigoService,
+                                ShardGeometry shardGeometry,
+                                @Value("${storage.policy.mode:erasure}") String mode,
+                                @Value("${storage.policy.replicate-max-bytes:128}") int replicateMaxBytes,
+                                @Value("${storage.policy.replicas:3}") int replicas) {
+        this.mode = Mode.forName(mode);
+        // Erasure mode never places replicas, so the default count mustn't
+        // stop a cluster smaller than it from starting.
+        if (this.mode != Mode.ERASURE && (replicas < 1 || shardGeometry.getNodeCount() < replicas)) {
+            throw new IllegalArgumentException("replicas must be between 1 and the number of nodes ("
+                    + shardGeometry.getNodeCount() + "): " + replicas);
+        }
+        this.replicationService = replicationService;
+        this.bigoService = bigoService;
+        this.replicateMaxBytes = replicateMaxBytes;
+        this.replicas = replicas;
+    }
+
+    /**
+     * Returns the policy for a payload whose stored record is recordSize bytes.
+     */
+    public StoragePolicy choose(int recordSize) {
+        switch (mode) {
+            case REPLICATION:
+                return StoragePolicy.REPLICATED;
+            case ERASURE:
+                return StoragePolicy.ERASURE_CODED;
+            default:
+                return recordSize <= replicateMaxBytes ? StoragePolicy.REPLICATED : StoragePolicy.ERASURE_CODED;
+        }
+    }
+
+    public void saveData(String locationId, Payload payload) {
+        if (mode == Mode.ERASURE) {
+            replicationService.saveData(locationId, payload);
+            return;
+        }
+        byte[] record;
+        try {
+            record = replicationService.encodeRecord(payload);
+        } catch (IOException e) {
+            System.err.println("Error encoding data: " + e.getMessage());
+            return;
+        }
+        if (choose(record.length) == StoragePolicy.REPLICATED) {
+            replicationService.saveReplicatedData(locationId, record, replicas);
+        } else {
+            // Erasure coding (or packing) serializes the payload again, into
+            // its stripe; that's small next to the encode.
+            replicationService.saveData(locationId, payload);
+        }
+    }
+
+    /**
+     * Reads a payload with the policy it was stored with, or returns null if
+     * this node has never heard of the location.
+     */
+    public Payload getData(String locationId) {
+        StoragePolicy policy = bigoService.getPolicyOf(locationId);
+        if (policy == null) {
+            System.out.println("Shard not saved in node");
+            return null;
+        }
+        if (policy == StoragePolicy.REPLICATED) {
+            return replicationService.getReplicatedData(locationId);
+        }
+        return replicationService.getData(locationId, false);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.javabigo.service;
+
+import com.example.javabigo.Payload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the payloads written within a short window and encodes them
+ * together as one packed stripe, so each node stores one shard for the whole
+ * group instead of one per location.
+ *
+ * A stripe is written when the first payload in it has waited for the window,
+ * or when it has maxRecords payloads, whichever comes first.  Writers wait for
+ * their stripe to be stored, so a write is readable as soon as it returns.
+ */
+public class StripePacker {
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    /**
+     * Stores an encoded stripe: this node's shard and index, and the peers'.
+     */
+    public interface StripeStore {
+        void store(String groupId, String[] locationIds, PayloadCodec.PackedStripe stripe);
+    }
+
+    private final PayloadCodec payloadCodec;
+    private final StripeStore store;
+    private final long windowMillis;
+    private final int maxRecords;
+    private final ScheduledExecutorService timer;
+
+    private List<PendingWrite> pending = new ArrayList<>();
+    private boolean shutDown;
+
+    // Counts the stripes taken, so a window timer that fires after its
+    // stripe was written by someone else leaves the next one alone.
+    private long stripeNumber;
+    private ScheduledFuture<?> windowTimer;
+
+    public StripePacker(PayloadCodec payloadCodec, StripeStore store, long windowMillis, int maxRecords) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("windowMillis is negative: " + windowMillis);
+        }
+        if (maxRecords < 1) {
+            throw new IllegalArgumentException("maxRecords must be positive: " + maxRecords);
+        }
+        this.payloadCodec = payloadCodec;
+        this.store = store;
+        this.windowMillis = windowMillis;
+        this.maxRecords = maxRecords;
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "stripe-packer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // shutdown() writes what's pending itself, so the flushes still
+        // waiting for their window are dropped rather than waited for.
+        timer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.timer = timer;
+    }
+
+    /**
+     * Adds a payload to the stripe being collected.
+     * @return A future that completes when the stripe holding it is stored
+     */
+    public CompletableFuture<Void> add(String locationId, Payload payload) {
+        PendingWrite write = new PendingWrite(locationId, payload);
+        List<PendingWrite> full = null;
+        synchronized (this) {
+            pending.add(write);
+            if (shutDown || pending.size() >= maxRecords) {
+                // After shutdown there is no timer, so writes aren't held.
+                full = takePending();
+            } else if (pending.size() == 1) {
+                long stripe = stripeNumber;
+                windowTimer = timer.schedule(() -> flushStripe(stripe), windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        // A full stripe is written by the writer that filled it.
+        if (full != null) {
+            write(full);
+        }
+        return write.stored;
+    }
+
+    /**
+     * Writes whatever has been collected so far.
+     */
+    public void flush() {
+        List<PendingWrite> writes;
+        synchronized (this) {
+            writes = takePending();
+        }
+        if (!writes.isEmpty()) {
+            write(writes);
+        }
+    }
+
+    /**
+     * Writes the stripe the window timer was started for, if it hasn't been
+     * written already.
+     */
+    private void flushStripe(long stripe) {
+        List<PendingWrite> writes;
+        synchronized (this) {
+            if (stripe != stripeNumber) {
+                return;
+            }
+            writes = takePending();
+        }
+        if (!writes.isEmpty()) {
+            write(writes);
+        }
+    }
+
+    /**
+     * Writes whatever has been collected, and waits for a write the timer has
+     * already started, so every future returned by add() so far completes.
+     * Payloads added after this are written straight away, each in its own
+     * stripe.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutDown = true;
+        }
+        timer.shutdown();
+        flush();
+        try {
+            if (!timer.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                System.err.println("Stripe packer did not finish writing within " + SHUTDOWN_TIMEOUT_SECONDS + " seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<PendingWrite> takePending() {
+        if (windowTimer != null) {
+            windowTimer.cancel(false);
+            windowTimer = null;
+        }
+        stripeNumber++;
+        List<PendingWrite> writes = pending;
+        pending = new ArrayList<>();
+        return writes;
+    }
+
+    private void write(List<PendingWrite> writes) {
+        try {
+            String[] locationIds = new String[writes.size()];
+            List<Payload> payloads = new ArrayList<>(writes.size());
+            for (int i = 0; i < locationIds.length; i++) {
+                locationIds[i] = writes.get(i).locationId;
+                payloads.add(writes.get(i).payload);
+            }
+            PayloadCodec.PackedStripe stripe = payloadCodec.encodePacked(payloads);
+            store.store(UUID.randomUUID().toString(), locationIds, stripe);
+            for (PendingWrite write : writes) {
+                write.stored.complete(null);
+            }
+        } catch (Exception e) {
+            for (PendingWrite write : writes) {
+                write.stored.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static class PendingWrite {
+        private final String locationId;
+        private final Payload payload;
+        private final CompletableFuture<Void> stored = new CompletableFuture<>();
+
+        PendingWrite(String locationId, Payload payload) {
+            this.locationId = locationId;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.javabigo.erasure;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for CodingLoopCalibrator.
+ *
+ * The measurements are kept to a millisecond per loop: these only check
+ * what is picked and saved, not that it is the fastest.
+ */
+class CodingLoopCalibratorTest {
+
+    @Test
+    void calibratePicksOneOfTheLoops() {
+        final CodingLoop picked = new CodingLoopCalibrator(4, 3, 64, 1).calibrate();
+        assertTrue(Arrays.asList(CodingLoop.ALL_CODING_LOOPS).contains(picked), String.valueOf(picked));
+    }
+
+    @Test
+    void savedLoopsRoundTripPerGeometry() throws IOException {
+        final Path directory = Files.createTempDirectory("calibration");
+        final Path file = directory.resolve("nested").resolve("coding-loop.properties");
+        try {
+            final CodingLoopCalibrator fourPlusThree = new CodingLoopCalibrator(4, 3, 64, 1);
+            final CodingLoopCalibrator tenPlusFour = new CodingLoopCalibrator(10, 4, 64, 1);
+            assertEquals("4+3@64", fourPlusThree.getGeometryKey());
+            assertNull(fourPlusThree.load(file));
+
+            final CodingLoop first = CodingLoop.ALL_CODING_LOOPS[0];
+            final CodingLoop last = CodingLoop.ALL_CODING_LOOPS[CodingLoop.ALL_CODING_LOOPS.length - 1];
+            fourPlusThree.save(file, first);
+            assertNull(tenPlusFour.load(file));
+            tenPlusFour.save(file, last);
+
+            // Saving one geometry keeps the other's entry.
+            assertSame(first, fourPlusThree.load(file));
+            assertSame(last, tenPlusFour.load(file));
+            assertSame(first, new CodingLoopCalibrator(4, 3, 64).load(file));
+            assertNull(new CodingLoopCalibrator(4, 3, 128).load(file));
+        }
+        finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(file.getParent());
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    void forName() {
+        for (CodingLoop codingLoop : CodingLoop.ALL_CODING_LOOPS) {
+            assertSame(codingLoop, CodingLoopCalibrator.forName(codingLoop.getClass().getSimpleName()));
+        }
+        assertThrows(IllegalArgumentException.class, () -> CodingLoopCalibrator.forName("NoSuchCodingLoop"));
+        assertThrows(IllegalArgumentException.class, () -> CodingLoopCalibrator.forName("DefaultCodingLoop"));
+    }
+
+    @Test
+    void defaultCodingLoopRejectsItself() {
+        assertThrows(IllegalArgumentException.class, () -> DefaultCodingLoop.INSTANCE.setSelected(null));
+        assertThrows(IllegalArgumentException.class,
+                () -> DefaultCodingLoop.INSTANCE.setSelected(DefaultCodingLoop.INSTANCE));
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.javabigo.erasure;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for LocalReconstructionCode.
+ */
+class LocalReconstructionCodeTest {
+
+    /**
+     * Data shards, local groups, and global parity shards.
+     */
+    private static final int [] [] GEOMETRIES = {
+            {4, 2, 1}, {6, 2, 2}, {12, 2, 2}, {5, 2, 1}, {10, 5, 4}
+    };
+
+    private static final int SHARD_SIZE = 53;
+
+    @Test
+    void localParityIsXorOfGroup() {
+        for (int [] geometry : GEOMETRIES) {
+            final LocalReconstructionCode lrc = new LocalReconstructionCode(geometry[0], geometry[1], geometry[2]);
+            final byte [] [] shards = encodedStripe(lrc, 1);
+            for (int g = 0; g < lrc.getLocalGroupCount(); g++) {
+                final byte [] xor = new byte [SHARD_SIZE];
+                for (int i = 0; i < lrc.getDataShardCount(); i++) {
+                    if (lrc.getLocalGroup(i) == g) {
+                        for (int b = 0; b < SHARD_SIZE; b++) {
+                            xor[b] ^= shards[i][b];
+                        }
+                    }
+                }
+                assertArrayEquals(xor, shards[lrc.getDataShardCount() + g], describe(geometry) + " group " + g);
+            }
+        }
+    }
+
+    @Test
+    void repairShardReadsOnlyItsRepairShards() {
+        for (int [] geometry : GEOMETRIES) {
+            final LocalReconstructionCode lrc = new LocalReconstructionCode(geometry[0], geometry[1], geometry[2]);
+            final int totalCount = lrc.getTotalShardCount();
+            final byte [] [] expected = encodedStripe(lrc, 2);
+            for (int i = 0; i < totalCount; i++) {
+                final int [] repairShards = lrc.getRepairShards(i);
+                if (lrc.getLocalGroup(i) < 0) {
+                    assertEquals(lrc.getDataShardCount(), repairShards.length, describe(geometry));
+                }
+                else {
+                    assertEquals(groupSize(lrc, lrc.getLocalGroup(i)), repairShards.length, describe(geometry));
+                }
+                final byte [] [] shards = new byte [totalCount] [];
+                for (int input : repairShards) {
+                    shards[input] = expected[input].clone();
+                }
+                shards[i] = new byte [SHARD_SIZE];
+                lrc.repairShard(shards, i, 0, SHARD_SIZE);
+                assertArrayEquals(expected[i], shards[i], describe(geometry) + " shard " + i);
+            }
+        }
+    }
+
+    @Test
+    void decodesEveryPatternOfGlobalPlusOneLosses() {
+        for (CodingLoop codingLoop : CodingLoop.ALL_CODING_LOOPS) {
+            for (int [] geometry : GEOMETRIES) {
+                final LocalReconstructionCode lrc =
+                        new LocalReconstructionCode(geometry[0], geometry[1], geometry[2], codingLoop);
+                final int totalCount = lrc.getTotalShardCount();
+                final byte [] [] expected = encodedStripe(lrc, 3);
+                for (int mask = 1; mask < (1 << totalCount); mask++) {
+                    if (lrc.getGlobalParityCount() + 1 < Integer.bitCount(mask)) {
+                        continue;
+                    }
+                    final boolean [] present = new boolean [totalCount];
+                    final byte [] [] shards = new byte [totalCount] [];
+                    for (int i = 0; i < totalCount; i++) {
+                        present[i] = (mask & (1 << i)) == 0;
+                        shards[i] = present[i] ? expected[i].clone() : new byte [SHARD_SIZE];
+                    }
+                    lrc.decodeMissing(shards, present, 0, SHARD_SIZE);
+                    for (int i = 0; i < totalCount; i++) {
+                        assertArrayEquals(expected[i], shards[i],
+                                codingLoop.getClass().getSimpleName() + " " + describe(geometry)
+                                        + ", missing mask " + Integer.toBinaryString(mask) + ", shard " + i);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void decodesOneLossPerGroupPlusGlobalCount() {
+        // 12 data shards in two groups, with two global parities: one
+        // loss in each group, plus two more anywhere, is four losses.
+        final LocalReconstructionCode lrc = new LocalReconstructionCode(12, 2, 2);
+        final byte [] [] expected = encodedStripe(lrc, 4);
+        final boolean [] present = new boolean [lrc.getTotalShardCount()];
+        final byte [] [] shards = new byte [lrc.getTotalShardCount()] [];
+        for (int i = 0; i < shards.length; i++) {
+            present[i] = (i != 0 && i != 1 && i != 6 && i != 15);
+            shards[i] = present[i] ? expected[i].clone() : new byte [SHARD_SIZE];
+        }
+        lrc.decodeMissing(shards, present, 0, SHARD_SIZE);
+        for (int i = 0; i < shards.length; i++) {
+            assertArrayEquals(expected[i], shards[i], "shard " + i);
+        }
+    }
+
+    @Test
+    void rejectsUndecodablePattern() {
+        // Four data shards lost from one group leaves four unknowns and
+        // only three shards (the group's local parity and the two global
+        // parities) that mention them.
+        final LocalReconstructionCode lrc = new LocalReconstructionCode(12, 2, 2);
+        final byte [] [] shards = encodedStripe(lrc, 5);
+        final boolean [] present = new boolean [lrc.getTotalShardCount()];
+        for (int i = 0; i < present.length; i++) {
+            present[i] = 4 <= i;
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> lrc.decodeMissing(shards, present, 0, SHARD_SIZE));
+    }
+
+    private static byte [] [] encodedStripe(LocalReconstructionCode lrc, long seed) {
+        final Random random = new Random(seed);
+        final byte [] [] shards = new byte [lrc.getTotalShardCount()] [SHARD_SIZE];
+        for (int i = 0; i < lrc.getDataShardCount(); i++) {
+            random.nextBytes(shards[i]);
+        }
+        lrc.encodeParity(shards, 0, SHARD_SIZE);
+        return shards;
+    }
+
+    private static int groupSize(LocalReconstructionCode lrc, int group) {
+        int size = 0;
+        for (int i = 0; i < lrc.getDataShardCount(); i++) {
+            if (lrc.getLocalGroup(i) == group) {
+                size += 1;
+            }
+        }
+        return size;
+    }
+
+    private static String describe(int [] geometry) {
+        return geometry[0] + " data, " + geometry[1] + " groups, " + geometry[2] + " global";
+    }
+}
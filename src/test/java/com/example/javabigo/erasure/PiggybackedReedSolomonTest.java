@@ -0,0 +1,178 @@
+package com.example.javabigo.erasure;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for PiggybackedReedSolomon.
+ *
+ * The shards have a few bytes on either side of the range that is
+ * coded, to check that nothing outside it is read or written.
+ */
+class PiggybackedReedSolomonTest {
+
+    private static final int [] [] GEOMETRIES = {
+            {4, 3}, {4, 2}, {4, 1}, {8, 3}, {10, 4}, {6, 5}
+    };
+
+    private static final int OFFSET = 3;
+    private static final int BYTE_COUNT = 52;
+    private static final int SHARD_SIZE = OFFSET + BYTE_COUNT + 5;
+
+    @Test
+    void aHalvesAndFirstParityArePlainReedSolomon() {
+        for (int [] geometry : GEOMETRIES) {
+            final int dataCount = geometry[0];
+            final int parityCount = geometry[1];
+            final byte [] [] shards = encodedStripe(dataCount, parityCount, 1);
+
+            final byte [] [] plain = new byte [dataCount + parityCount] [];
+            for (int i = 0; i < plain.length; i++) {
+                plain[i] = i < dataCount ? shards[i].clone() : new byte [SHARD_SIZE];
+            }
+            ReedSolomon.create(dataCount, parityCount).encodeParity(plain, OFFSET, BYTE_COUNT / 2);
+            ReedSolomon.create(dataCount, parityCount).encodeParity(plain, OFFSET + BYTE_COUNT / 2, BYTE_COUNT / 2);
+            for (int i = dataCount; i < plain.length; i++) {
+                assertArrayEquals(
+                        Arrays.copyOfRange(plain[i], OFFSET, OFFSET + BYTE_COUNT / 2),
+                        Arrays.copyOfRange(shards[i], OFFSET, OFFSET + BYTE_COUNT / 2),
+                        describe(geometry) + " a half of shard " + i);
+            }
+            assertArrayEquals(
+                    Arrays.copyOfRange(plain[dataCount], OFFSET, OFFSET + BYTE_COUNT),
+                    Arrays.copyOfRange(shards[dataCount], OFFSET, OFFSET + BYTE_COUNT),
+                    describe(geometry) + " parity 0");
+        }
+    }
+
+    @Test
+    void decodesEveryErasurePattern() {
+        for (int [] geometry : GEOMETRIES) {
+            final int dataCount = geometry[0];
+            final int parityCount = geometry[1];
+            final int totalCount = dataCount + parityCount;
+            final PiggybackedReedSolomon codec = PiggybackedReedSolomon.create(dataCount, parityCount);
+            final byte [] [] expected = encodedStripe(dataCount, parityCount, 2);
+
+            for (int mask = 1; mask < (1 << totalCount); mask++) {
+                if (parityCount < Integer.bitCount(mask)) {
+                    continue;
+                }
+                final boolean [] present = new boolean [totalCount];
+                final byte [] [] shards = new byte [totalCount] [];
+                for (int i = 0; i < totalCount; i++) {
+                    present[i] = (mask & (1 << i)) == 0;
+                    shards[i] = expected[i].clone();
+                    if (!present[i]) {
+                        Arrays.fill(shards[i], OFFSET, OFFSET + BYTE_COUNT, (byte) 0x5A);
+                    }
+                }
+                codec.decodeMissing(shards, present, OFFSET, BYTE_COUNT);
+                for (int i = 0; i < totalCount; i++) {
+                    assertArrayEquals(expected[i], shards[i],
+                            describe(geometry) + ", missing mask " + Integer.toBinaryString(mask) + ", shard " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    void repairsEachDataShardFromTheHalvesItReads() {
+        for (int [] geometry : GEOMETRIES) {
+            final int dataCount = geometry[0];
+            final int parityCount = geometry[1];
+            final PiggybackedReedSolomon codec = PiggybackedReedSolomon.create(dataCount, parityCount);
+            final byte [] [] expected = encodedStripe(dataCount, parityCount, 3);
+
+            for (int dataIndex = 0; dataIndex < dataCount; dataIndex++) {
+                final byte [] [] shards = unreadHalvesScrambled(codec, expected, dataIndex);
+                codec.repairDataShard(shards, dataIndex, OFFSET, BYTE_COUNT);
+                assertArrayEquals(
+                        Arrays.copyOfRange(expected[dataIndex], OFFSET, OFFSET + BYTE_COUNT),
+                        Arrays.copyOfRange(shards[dataIndex], OFFSET, OFFSET + BYTE_COUNT),
+                        describe(geometry) + " data shard " + dataIndex);
+            }
+        }
+    }
+
+    @Test
+    void repairReadByteCount() {
+        // 4+3: two groups of two.  Four data b halves, p0(b), p1(b),
+        // and the other a half in the group: six halves, three shards.
+        final PiggybackedReedSolomon fourPlusThree = PiggybackedReedSolomon.create(4, 3);
+        for (int dataIndex = 0; dataIndex < 4; dataIndex++) {
+            assertEquals(300, fourPlusThree.getRepairReadByteCount(dataIndex, 100));
+        }
+
+        // 10+4: groups of 4, 3 and 3.
+        final PiggybackedReedSolomon tenPlusFour = PiggybackedReedSolomon.create(10, 4);
+        assertEquals(700, tenPlusFour.getRepairReadByteCount(0, 100));
+        assertEquals(650, tenPlusFour.getRepairReadByteCount(9, 100));
+
+        // 4+2: one group of every data shard saves nothing.
+        assertEquals(400, PiggybackedReedSolomon.create(4, 2).getRepairReadByteCount(1, 100));
+
+        // 4+1: no piggybacks, so a whole Reed-Solomon repair.
+        final PiggybackedReedSolomon fourPlusOne = PiggybackedReedSolomon.create(4, 1);
+        assertEquals(-1, fourPlusOne.getPiggybackParity(2));
+        assertEquals(400, fourPlusOne.getRepairReadByteCount(2, 100));
+    }
+
+    @Test
+    void rejectsOddByteCount() {
+        final PiggybackedReedSolomon codec = PiggybackedReedSolomon.create(4, 3);
+        final byte [] [] shards = new byte [7] [SHARD_SIZE];
+        assertThrows(IllegalArgumentException.class, () -> codec.encodeParity(shards, 0, 51));
+        assertThrows(IllegalArgumentException.class,
+                () -> codec.decodeMissing(shards, new boolean [7], 0, 51));
+        assertThrows(IllegalArgumentException.class, () -> codec.repairDataShard(shards, 0, 0, 51));
+    }
+
+    /**
+     * Copies a stripe for repairing dataIndex, with garbage in every
+     * half that repairDataShard() isn't supposed to read, and null for
+     * the parity shards it doesn't read at all.
+     */
+    private static byte [] [] unreadHalvesScrambled(PiggybackedReedSolomon codec, byte [] [] expected, int dataIndex) {
+        final int dataCount = codec.getDataShardCount();
+        final int parity = codec.getPiggybackParity(dataIndex);
+        final int half = BYTE_COUNT / 2;
+        final byte [] [] shards = new byte [codec.getTotalShardCount()] [];
+        for (int i = 0; i <= dataCount; i++) {
+            shards[i] = expected[i].clone();
+        }
+        Arrays.fill(shards[dataIndex], (byte) 0x5A);
+        if (parity < 0) {
+            return shards;
+        }
+        shards[parity] = expected[parity].clone();
+        Arrays.fill(shards[dataCount], OFFSET, OFFSET + half, (byte) 0x5A);
+        Arrays.fill(shards[parity], OFFSET, OFFSET + half, (byte) 0x5A);
+        for (int i = 0; i < dataCount; i++) {
+            if (codec.getPiggybackParity(i) != parity) {
+                Arrays.fill(shards[i], OFFSET, OFFSET + half, (byte) 0x5A);
+            }
+        }
+        return shards;
+    }
+
+    private static byte [] [] encodedStripe(int dataCount, int parityCount, long seed) {
+        final Random random = new Random(seed);
+        final byte [] [] shards = new byte [dataCount + parityCount] [SHARD_SIZE];
+        for (byte [] shard : shards) {
+            random.nextBytes(shard);
+        }
+        PiggybackedReedSolomon.create(dataCount, parityCount).encodeParity(shards, OFFSET, BYTE_COUNT);
+        return shards;
+    }
+
+    private static String describe(int [] geometry) {
+        return geometry[0] + "+" + geometry[1];
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.javabigo.erasure;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests for ReedSolomonRegistry.
+ *
+ * The registry is shared by everything in the JVM, so each case that
+ * looks at a codec's cache asks for it with a coding loop of its own,
+ * which no other code can have used.
+ */
+class ReedSolomonRegistryTest {
+
+    @Test
+    void oneCodecPerGeometryAndLoop() {
+        final CodingLoop codingLoop = new InputOutputByteTableCodingLoop();
+        final ReedSolomon codec = ReedSolomonRegistry.get(4, 3, codingLoop);
+        assertSame(codec, ReedSolomonRegistry.get(4, 3, codingLoop));
+        assertEquals(4, codec.getDataShardCount());
+        assertEquals(3, codec.getParityShardCount());
+
+        assertNotSame(codec, ReedSolomonRegistry.get(4, 2, codingLoop));
+        assertNotSame(codec, ReedSolomonRegistry.get(5, 3, codingLoop));
+
+        // Loops are compared by identity, not by class.
+        assertNotSame(codec, ReedSolomonRegistry.get(4, 3, new InputOutputByteTableCodingLoop()));
+
+        assertSame(ReedSolomonRegistry.get(4, 3, DefaultCodingLoop.INSTANCE), ReedSolomonRegistry.get(4, 3));
+    }
+
+    @Test
+    void precomputesOnlyWhenEveryPatternFits() {
+        final CodingLoop codingLoop = new InputOutputByteTableCodingLoop();
+
+        // 4+3: C(7, 4) - 1 = 34 patterns.
+        assertEquals(34, ReedSolomonRegistry.get(4, 3, codingLoop).getCachedDecodeMatrixCount());
+
+        // 6+4: C(10, 6) - 1 = 209 patterns, the most under the default
+        // cache size for four parity shards.
+        assertEquals(209, ReedSolomon.binomial(10, 6) - 1);
+        assertEquals(209, ReedSolomonRegistry.get(6, 4, codingLoop).getCachedDecodeMatrixCount());
+
+        // 7+4: C(11, 7) - 1 = 329 patterns don't fit in 256 entries,
+        // so the cache fills up as patterns come up.
+        assertEquals(0, ReedSolomonRegistry.get(7, 4, codingLoop).getCachedDecodeMatrixCount());
+        assertEquals(0, ReedSolomonRegistry.get(10, 4, codingLoop).getCachedDecodeMatrixCount());
+    }
+}
@@ -0,0 +1,459 @@
+package com.example.javabigo.erasure;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for ReedSolomon.
+ *
+ * Most cases run with every coding loop, each matrix type, and a few
+ * shard geometries.  The shard size is odd, so that the loops that work
+ * in words or vectors also run their tails.
+ */
+class ReedSolomonTest {
+
+    private static final int [] [] GEOMETRIES = {
+            {4, 3}, {4, 2}, {8, 3}, {10, 4}, {17, 3}
+    };
+
+    private static final int SHARD_SIZE = 53;
+
+    private static final CodingLoop REFERENCE_LOOP = new InputOutputByteTableCodingLoop();
+
+    @Test
+    void everyLoopMatchesTheReference() {
+        for (ReedSolomon.MatrixType matrixType : ReedSolomon.MatrixType.values()) {
+            for (int [] geometry : GEOMETRIES) {
+                final byte [] [] expected = randomStripe(geometry[0], geometry[1], 1);
+                new ReedSolomon(geometry[0], geometry[1], REFERENCE_LOOP, 0, matrixType)
+                        .encodeParity(expected, 0, SHARD_SIZE);
+                for (CodingLoop codingLoop : CodingLoop.ALL_CODING_LOOPS) {
+                    final byte [] [] shards = randomStripe(geometry[0], geometry[1], 1);
+                    new ReedSolomon(geometry[0], geometry[1], codingLoop, 0, matrixType)
+                            .encodeParity(shards, 0, SHARD_SIZE);
+                    assertStripeEquals(expected, shards, describe(codingLoop, matrixType, geometry));
+                }
+            }
+        }
+    }
+
+    @Test
+    void everyLoopMatchesTheReferenceOnUnalignedRanges() {
+        // Ranges that start and end off any word or vector boundary,
+        // with the bytes around them left as they were.
+        for (int [] range : new int [] [] {{1, 0}, {3, 5}, {7, 8}, {5, 41}, {1, 52}}) {
+            final byte [] [] expected = randomStripe(4, 3, 2);
+            new ReedSolomon(4, 3, REFERENCE_LOOP, 0).encodeParity(expected, range[0], range[1]);
+            for (CodingLoop codingLoop : CodingLoop.ALL_CODING_LOOPS) {
+                final byte [] [] shards = randomStripe(4, 3, 2);
+                new ReedSolomon(4, 3, codingLoop, 0).encodeParity(shards, range[0], range[1]);
+                assertStripeEquals(expected, shards,
+                        codingLoop.getClass().getSimpleName() + " at " + range[0] + " for " + range[1]);
+            }
+        }
+    }
+
+    @Test
+    void everyLoopDecodesEveryErasurePattern() {
+        for (ReedSolomon.MatrixType matrixType : ReedSolomon.MatrixType.values()) {
+            for (int [] geometry : GEOMETRIES) {
+                for (CodingLoop codingLoop : CodingLoop.ALL_CODING_LOOPS) {
+                    final ReedSolomon codec = new ReedSolomon(
+                            geometry[0], geometry[1], codingLoop, ReedSolomon.DEFAULT_DECODE_CACHE_SIZE, matrixType);
+                    checkAllErasurePatterns(codec, describe(codingLoop, matrixType, geometry));
+                }
+            }
+        }
+    }
+
+    @Test
+    void decodeCacheDoesNotChangeResults() {
+        for (int cacheSize : new int [] {0, 1, 2, ReedSolomon.DEFAULT_DECODE_CACHE_SIZE}) {
+            final ReedSolomon codec = new ReedSolomon(8, 3, REFERENCE_LOOP, cacheSize);
+            // Twice, so that the second pass decodes from cached matrices.
+            checkAllErasurePatterns(codec, "cache size " + cacheSize);
+            checkAllErasurePatterns(codec, "cache size " + cacheSize + ", second pass");
+        }
+    }
+
+    @Test
+    void precomputeDecodeMatrices() {
+        final ReedSolomon codec = new ReedSolomon(4, 3, REFERENCE_LOOP, 34);
+        codec.precomputeDecodeMatrices();
+        checkAllErasurePatterns(codec, "precomputed");
+        assertEquals(34, codec.getCachedDecodeMatrixCount());
+
+        // C(7, 4) - 1 = 34 patterns don't fit in 33 entries.
+        final ReedSolomon tooSmall = new ReedSolomon(4, 3, REFERENCE_LOOP, 33);
+        assertThrows(IllegalStateException.class, tooSmall::precomputeDecodeMatrices);
+    }
+
+    @Test
+    void cauchyFirstParityIsXorOfData() {
+        for (int [] geometry : GEOMETRIES) {
+            final int dataCount = geometry[0];
+            final byte [] [] shards = randomStripe(dataCount, geometry[1], 2);
+            ReedSolomon.create(dataCount, geometry[1], ReedSolomon.MatrixType.CAUCHY)
+                    .encodeParity(shards, 0, SHARD_SIZE);
+            final byte [] xor = new byte [SHARD_SIZE];
+            for (int i = 0; i < dataCount; i++) {
+                for (int b = 0; b < SHARD_SIZE; b++) {
+                    xor[b] ^= shards[i][b];
+                }
+            }
+            assertArrayEquals(xor, shards[dataCount], dataCount + "+" + geometry[1]);
+        }
+    }
+
+    @Test
+    void reconstructBuildsOnlyTheChosenShards() {
+        for (ReedSolomon.MatrixType matrixType : ReedSolomon.MatrixType.values()) {
+            final ReedSolomon codec = new ReedSolomon(10, 4, REFERENCE_LOOP, 0, matrixType);
+            final int totalCount = codec.getTotalShardCount();
+            final byte [] [] expected = randomStripe(10, 4, 3);
+            codec.encodeParity(expected, 0, SHARD_SIZE);
+
+            // Lose one data shard and two parity shards, and ask for
+            // one of each.  The third lost shard is null and stays so.
+            final boolean [] present = new boolean [totalCount];
+            final byte [] [] shards = new byte [totalCount] [];
+            for (int i = 0; i < totalCount; i++) {
+                present[i] = (i != 3 && i != 11 && i != 12);
+                shards[i] = present[i] ? expected[i].clone() : null;
+            }
+            shards[3] = new byte [SHARD_SIZE];
+            shards[12] = new byte [SHARD_SIZE];
+            codec.reconstruct(shards, present, new int [] {3, 12}, 0, SHARD_SIZE);
+
+            assertArrayEquals(expected[3], shards[3], matrixType.toString());
+            assertArrayEquals(expected[12], shards[12], matrixType.toString());
+            assertNull(shards[11], matrixType.toString());
+        }
+    }
+
+    @Test
+    void updateParityMatchesReencode() {
+        for (ReedSolomon.MatrixType matrixType : ReedSolomon.MatrixType.values()) {
+            for (int [] geometry : GEOMETRIES) {
+                final int dataCount = geometry[0];
+                final int parityCount = geometry[1];
+                final ReedSolomon codec = new ReedSolomon(dataCount, parityCount, REFERENCE_LOOP, 0, matrixType);
+                final byte [] [] shards = randomStripe(dataCount, parityCount, 4);
+                codec.encodeParity(shards, 0, SHARD_SIZE);
+
+                final Random random = new Random(5);
+                final int dataIndex = dataCount - 1;
+                final int offset = 7;
+                final int byteCount = 20;
+                final byte [] oldData = shards[dataIndex].clone();
+                final byte [] newData = oldData.clone();
+                for (int b = offset; b < offset + byteCount; b++) {
+                    newData[b] = (byte) random.nextInt(256);
+                }
+                final byte [] [] parity = new byte [parityCount] [];
+                System.arraycopy(shards, dataCount, parity, 0, parityCount);
+                codec.updateParity(oldData, newData, dataIndex, parity, offset, byteCount);
+
+                final byte [] [] expected = new byte [dataCount + parityCount] [];
+                for (int i = 0; i < dataCount; i++) {
+                    expected[i] = shards[i].clone();
+                }
+                expected[dataIndex] = newData;
+                for (int i = dataCount; i < dataCount + parityCount; i++) {
+                    expected[i] = new byte [SHARD_SIZE];
+                }
+                codec.encodeParity(expected, 0, SHARD_SIZE);
+                for (int i = 0; i < parityCount; i++) {
+                    assertArrayEquals(expected[dataCount + i], parity[i],
+                            matrixType + " " + dataCount + "+" + parityCount + " parity " + i);
+                }
+            }
+        }
+    }
+
+    @Test
+    void encodeParityBatchMatchesOneAtATime() {
+        final ReedSolomon codec = ReedSolomon.create(4, 3);
+        // Small calls first, so the per-thread batch buffers have to
+        // grow, then stripes that overflow one batch or don't fit at all.
+        final int [] [] calls = {
+                {8},
+                {8, 30, 1},
+                {ReedSolomon.BATCH_BUFFER_SIZE - 10, 30, 0, 11},
+                {ReedSolomon.BATCH_BUFFER_SIZE + 1, 256, 256},
+        };
+        long seed = 11;
+        for (int [] shardSizes : calls) {
+            final byte [] [] [] stripes = new byte [shardSizes.length] [] [];
+            final byte [] [] [] expected = new byte [shardSizes.length] [] [];
+            for (int i = 0; i < shardSizes.length; i++) {
+                stripes[i] = randomStripe(4, 3, seed++, shardSizes[i]);
+                expected[i] = new byte [7] [];
+                for (int j = 0; j < 7; j++) {
+                    expected[i][j] = stripes[i][j].clone();
+                }
+                codec.encodeParity(expected[i], 0, shardSizes[i]);
+            }
+            codec.encodeParityBatch(stripes);
+            for (int i = 0; i < shardSizes.length; i++) {
+                assertStripeEquals(expected[i], stripes[i], "stripe of " + shardSizes[i] + " bytes");
+            }
+        }
+    }
+
+    @Test
+    void isParityCorrect() {
+        final ReedSolomon codec = ReedSolomon.create(4, 3);
+        final byte [] [] shards = randomStripe(4, 3, 6);
+        codec.encodeParity(shards, 0, SHARD_SIZE);
+        assertTrue(codec.isParityCorrect(shards, 0, SHARD_SIZE));
+        assertTrue(codec.isParityCorrect(shards, 0, SHARD_SIZE, new byte [SHARD_SIZE]));
+
+        shards[5][17] ^= 1;
+        assertFalse(codec.isParityCorrect(shards, 0, SHARD_SIZE));
+        assertFalse(codec.isParityCorrect(shards, 0, SHARD_SIZE, new byte [SHARD_SIZE]));
+        assertTrue(codec.isParityCorrect(shards, 18, SHARD_SIZE - 18));
+    }
+
+    @Test
+    void findParityMismatchesReportsFlippedByte() {
+        // Long enough for two parallel slices, with a short last block.
+        final int shardSize = ReedSolomon.PARALLEL_SLICE_SIZE + 3 * ReedSolomon.VERIFY_BLOCK_SIZE + 100;
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (CodingLoop codingLoop : CodingLoop.ALL_CODING_LOOPS) {
+                final ReedSolomon codec = new ReedSolomon(4, 3, codingLoop);
+                final byte [] [] shards = new byte [7] [shardSize];
+                final Random random = new Random(9);
+                for (int i = 0; i < 4; i++) {
+                    random.nextBytes(shards[i]);
+                }
+                codec.encodeParity(shards, 0, shardSize);
+                final String name = codingLoop.getClass().getSimpleName();
+                assertTrue(codec.findParityMismatches(shards, 0, shardSize, executor).isEmpty(), name);
+                assertTrue(codec.isParityCorrectParallel(shards, 0, shardSize, executor), name);
+
+                // Flip a byte in the second block of the second slice.
+                final int flipped = ReedSolomon.PARALLEL_SLICE_SIZE + ReedSolomon.VERIFY_BLOCK_SIZE + 17;
+                shards[5][flipped] ^= 0x40;
+                final List<ReedSolomon.ParityMismatch> mismatches =
+                        codec.findParityMismatches(shards, 0, shardSize, executor);
+                assertEquals(1, mismatches.size(), name);
+                assertEquals(5, mismatches.get(0).getShardIndex(), name);
+                assertEquals(ReedSolomon.PARALLEL_SLICE_SIZE + ReedSolomon.VERIFY_BLOCK_SIZE,
+                        mismatches.get(0).getOffset(), name);
+                assertEquals(ReedSolomon.VERIFY_BLOCK_SIZE, mismatches.get(0).getByteCount(), name);
+                assertFalse(codec.isParityCorrectParallel(shards, 0, shardSize, executor), name);
+                assertFalse(codec.isParityCorrect(shards, 0, shardSize), name);
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void findParityMismatchesMergesAdjacentBlocks() {
+        final int shardSize = 3 * ReedSolomon.VERIFY_BLOCK_SIZE + 100;
+        final ReedSolomon codec = ReedSolomon.create(4, 3);
+        final byte [] [] shards = randomStripe(4, 3, 10, shardSize);
+        codec.encodeParity(shards, 0, shardSize);
+
+        // A data shard change breaks every parity shard.  Two adjacent
+        // blocks, and the short last one, make two ranges per shard.
+        shards[2][ReedSolomon.VERIFY_BLOCK_SIZE - 1] ^= 1;
+        shards[2][ReedSolomon.VERIFY_BLOCK_SIZE] ^= 1;
+        shards[2][shardSize - 1] ^= 1;
+        final List<ReedSolomon.ParityMismatch> mismatches = codec.findParityMismatches(shards, 0, shardSize, null);
+        assertEquals(6, mismatches.size());
+        for (int i = 0; i < 3; i++) {
+            final ReedSolomon.ParityMismatch first = mismatches.get(2 * i);
+            final ReedSolomon.ParityMismatch last = mismatches.get(2 * i + 1);
+            assertEquals(4 + i, first.getShardIndex());
+            assertEquals(0, first.getOffset());
+            assertEquals(2 * ReedSolomon.VERIFY_BLOCK_SIZE, first.getByteCount());
+            assertEquals(4 + i, last.getShardIndex());
+            assertEquals(3 * ReedSolomon.VERIFY_BLOCK_SIZE, last.getOffset());
+            assertEquals(100, last.getByteCount());
+        }
+    }
+
+    @Test
+    void executorMatchesCallingThread() {
+        // Over PARALLEL_THRESHOLD, and not a whole number of slices, so
+        // the last slice is short.  The odd offset moves every slice
+        // boundary off a word boundary.
+        final int offset = 5;
+        final int byteCount = ReedSolomon.PARALLEL_THRESHOLD + ReedSolomon.PARALLEL_SLICE_SIZE / 2 + 7;
+        final int shardSize = offset + byteCount + 3;
+        final boolean [] present = {true, false, true, false, true, true, false};
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (CodingLoop codingLoop : CodingLoop.ALL_CODING_LOOPS) {
+                final ReedSolomon codec = new ReedSolomon(4, 3, codingLoop);
+                final String name = codingLoop.getClass().getSimpleName();
+                final byte [] [] expected = randomStripe(4, 3, 12, shardSize);
+                codec.encodeParity(expected, offset, byteCount);
+
+                final byte [] [] shards = randomStripe(4, 3, 12, shardSize);
+                codec.encodeParity(shards, offset, byteCount, executor);
+                assertStripeEquals(expected, shards, name + " encode");
+
+                for (int i = 0; i < shards.length; i++) {
+                    if (!present[i]) {
+                        Arrays.fill(shards[i], offset, offset + byteCount, (byte) 0);
+                    }
+                }
+                codec.decodeMissing(shards, present, offset, byteCount, executor);
+                assertStripeEquals(expected, shards, name + " decode");
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void byteBuffersMatchByteArrays() {
+        // Coding starts past the start of each buffer, since offsets
+        // are absolute indexes, not relative to the position.
+        final int offset = 3;
+        final int byteCount = SHARD_SIZE - offset - 2;
+        final boolean [] present = {false, true, true, false, true, false, true};
+        for (CodingLoop codingLoop : CodingLoop.ALL_CODING_LOOPS) {
+            final ReedSolomon codec = new ReedSolomon(4, 3, codingLoop);
+            final String name = codingLoop.getClass().getSimpleName();
+            final byte [] [] expected = randomStripe(4, 3, 13);
+            codec.encodeParity(expected, offset, byteCount);
+
+            for (boolean direct : new boolean [] {false, true}) {
+                final String description = name + (direct ? " direct" : " heap");
+                final ByteBuffer [] shards = new ByteBuffer [7];
+                for (int i = 0; i < shards.length; i++) {
+                    shards[i] = direct ? ByteBuffer.allocateDirect(SHARD_SIZE) : ByteBuffer.allocate(SHARD_SIZE);
+                    shards[i].put(0, expected[i], 0, SHARD_SIZE);
+                    if (4 <= i) {
+                        clear(shards[i], offset, byteCount);
+                    }
+                }
+                codec.encodeParity(shards, offset, byteCount);
+                assertStripeEquals(expected, toArrays(shards), description + " encode");
+
+                for (int i = 0; i < shards.length; i++) {
+                    if (!present[i]) {
+                        clear(shards[i], offset, byteCount);
+                    }
+                }
+                codec.decodeMissing(shards, present, offset, byteCount);
+                assertStripeEquals(expected, toArrays(shards), description + " decode");
+            }
+
+            // One buffer with the shards back to back.
+            final ByteBuffer stripe = ByteBuffer.allocateDirect(7 * SHARD_SIZE);
+            final ByteBuffer [] views = new ByteBuffer [7];
+            for (int i = 0; i < views.length; i++) {
+                stripe.put(i * SHARD_SIZE, expected[i], 0, SHARD_SIZE);
+                views[i] = stripe.slice(i * SHARD_SIZE, SHARD_SIZE);
+                if (4 <= i) {
+                    clear(views[i], offset, byteCount);
+                }
+            }
+            codec.encodeParity(stripe, SHARD_SIZE, offset, byteCount);
+            assertStripeEquals(expected, toArrays(views), name + " stride encode");
+
+            for (int i = 0; i < views.length; i++) {
+                if (!present[i]) {
+                    clear(views[i], offset, byteCount);
+                }
+            }
+            codec.decodeMissing(stripe, SHARD_SIZE, present, offset, byteCount);
+            assertStripeEquals(expected, toArrays(views), name + " stride decode");
+        }
+    }
+
+    @Test
+    void rejectsTooManyMissingShards() {
+        final ReedSolomon codec = ReedSolomon.create(4, 2);
+        final byte [] [] shards = randomStripe(4, 2, 7);
+        final boolean [] present = {false, true, false, true, false, true};
+        assertThrows(IllegalArgumentException.class,
+                () -> codec.decodeMissing(shards, present, 0, SHARD_SIZE));
+    }
+
+    /**
+     * Encodes a stripe, then for every set of at most parityShardCount
+     * missing shards, decodes them and checks they come back.
+     */
+    private static void checkAllErasurePatterns(ReedSolomon codec, String description) {
+        final int dataCount = codec.getDataShardCount();
+        final int parityCount = codec.getParityShardCount();
+        final int totalCount = codec.getTotalShardCount();
+        final byte [] [] expected = randomStripe(dataCount, parityCount, 8);
+        codec.encodeParity(expected, 0, SHARD_SIZE);
+
+        for (int mask = 1; mask < (1 << totalCount); mask++) {
+            if (parityCount < Integer.bitCount(mask)) {
+                continue;
+            }
+            final boolean [] present = new boolean [totalCount];
+            final byte [] [] shards = new byte [totalCount] [];
+            for (int i = 0; i < totalCount; i++) {
+                present[i] = (mask & (1 << i)) == 0;
+                shards[i] = present[i] ? expected[i].clone() : new byte [SHARD_SIZE];
+            }
+            codec.decodeMissing(shards, present, 0, SHARD_SIZE);
+            assertStripeEquals(expected, shards, description + ", missing mask " + Integer.toBinaryString(mask));
+        }
+    }
+
+    private static byte [] [] randomStripe(int dataCount, int parityCount, long seed) {
+        return randomStripe(dataCount, parityCount, seed, SHARD_SIZE);
+    }
+
+    private static byte [] [] randomStripe(int dataCount, int parityCount, long seed, int shardSize) {
+        final Random random = new Random(seed);
+        final byte [] [] shards = new byte [dataCount + parityCount] [shardSize];
+        for (int i = 0; i < dataCount; i++) {
+            random.nextBytes(shards[i]);
+        }
+        return shards;
+    }
+
+    private static void clear(ByteBuffer buffer, int offset, int byteCount) {
+        for (int b = offset; b < offset + byteCount; b++) {
+            buffer.put(b, (byte) 0);
+        }
+    }
+
+    private static byte [] [] toArrays(ByteBuffer [] buffers) {
+        final byte [] [] arrays = new byte [buffers.length] [SHARD_SIZE];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i].get(0, arrays[i], 0, SHARD_SIZE);
+        }
+        return arrays;
+    }
+
+    private static void assertStripeEquals(byte [] [] expected, byte [] [] actual, String description) {
+        assertEquals(expected.length, actual.length, description);
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], actual[i], description + ", shard " + i);
+        }
+    }
+
+    private static String describe(CodingLoop codingLoop, ReedSolomon.MatrixType matrixType, int [] geometry) {
+        return codingLoop.getClass().getSimpleName() + " " + matrixType + " " + geometry[0] + "+" + geometry[1];
+    }
+}
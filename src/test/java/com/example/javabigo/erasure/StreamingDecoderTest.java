@@ -0,0 +1,123 @@
+package com.example.javabigo.erasure;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+import static com.example.javabigo.erasure.StreamingEncoderTest.CHUNK_SIZE;
+import static com.example.javabigo.erasure.StreamingEncoderTest.LENGTHS;
+import static com.example.javabigo.erasure.StreamingEncoderTest.encode;
+import static com.example.javabigo.erasure.StreamingEncoderTest.randomBytes;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for StreamingDecoder, on streams written by StreamingEncoder
+ * with the same 4+3 geometry and chunk size.
+ */
+class StreamingDecoderTest {
+
+    @Test
+    void decodesWithEveryErasurePattern() throws IOException {
+        for (int length : LENGTHS) {
+            final byte [] input = randomBytes(length, length);
+            final byte [] [] shards = encode(input);
+            // Every set of up to three missing shards: data, parity, or both.
+            for (int mask = 0; mask < (1 << 7); mask++) {
+                if (3 < Integer.bitCount(mask)) {
+                    continue;
+                }
+                final byte [] [] present = new byte [7] [];
+                for (int i = 0; i < 7; i++) {
+                    present[i] = ((mask & (1 << i)) == 0) ? shards[i] : null;
+                }
+                assertArrayEquals(input, decode(present),
+                        "length " + length + ", missing mask " + Integer.toBinaryString(mask));
+            }
+        }
+    }
+
+    @Test
+    void decodesChannels() throws IOException {
+        final byte [] input = randomBytes(2 * StreamingEncoderTest.STRIPE_CAPACITY + 1, 4);
+        final byte [] [] shards = encode(input);
+        final ReadableByteChannel [] channels = new ReadableByteChannel [7];
+        for (int i = 1; i < 7; i++) {
+            channels[i] = Channels.newChannel(new ByteArrayInputStream(shards[i]));
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final StreamingDecoder decoder = new StreamingDecoder(ReedSolomon.create(4, 3), CHUNK_SIZE);
+        assertEquals(input.length, decoder.decode(channels, Channels.newChannel(out)));
+        assertArrayEquals(input, out.toByteArray());
+    }
+
+    @Test
+    void truncatedShardIsAnError() throws IOException {
+        final byte [] [] shards = encode(randomBytes(3 * StreamingEncoderTest.STRIPE_CAPACITY + 5, 5));
+
+        // Cut off in the middle of a stripe.
+        final byte [] [] partial = shards.clone();
+        partial[5] = Arrays.copyOf(shards[5], shards[5].length - 1);
+        IOException e = assertThrows(IOException.class, () -> decode(partial));
+        assertEquals("shard 5 ends in the middle of a stripe", e.getMessage());
+
+        // Missing whole stripes, while the other shards go on.
+        final byte [] [] shorter = shards.clone();
+        shorter[2] = Arrays.copyOf(shards[2], shards[2].length - CHUNK_SIZE);
+        e = assertThrows(IOException.class, () -> decode(shorter));
+        assertEquals("shards have different lengths", e.getMessage());
+
+        // Every shard stops before the final stripe.
+        final byte [] [] allShorter = new byte [7] [];
+        for (int i = 0; i < 7; i++) {
+            allShorter[i] = Arrays.copyOf(shards[i], shards[i].length - CHUNK_SIZE);
+        }
+        e = assertThrows(IOException.class, () -> decode(allShorter));
+        assertEquals("shards end without a final stripe", e.getMessage());
+
+        // Leaving the truncated shard out decodes from the others.
+        partial[5] = null;
+        shorter[2] = null;
+        assertArrayEquals(decode(shards), decode(partial));
+    }
+
+    @Test
+    void rejectsBadArguments() {
+        final ReedSolomon codec = ReedSolomon.create(4, 3);
+        assertThrows(IllegalArgumentException.class,
+                () -> new StreamingDecoder(codec, StreamingEncoder.LENGTH_BYTES - 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> new StreamingDecoder(ReedSolomon.create(1, 2), StreamingEncoder.LENGTH_BYTES));
+        final StreamingDecoder decoder = new StreamingDecoder(codec, CHUNK_SIZE);
+        assertThrows(IllegalArgumentException.class,
+                () -> decoder.decode(new InputStream [6], new ByteArrayOutputStream()));
+
+        // Four missing shards is one too many.
+        final InputStream [] inputs = new InputStream [7];
+        for (int i = 0; i < 3; i++) {
+            inputs[i] = new ByteArrayInputStream(new byte [CHUNK_SIZE]);
+        }
+        assertThrows(IllegalArgumentException.class, () -> decoder.decode(inputs, new ByteArrayOutputStream()));
+    }
+
+    /**
+     * Decodes the given shard contents, with null for missing shards.
+     */
+    private static byte [] decode(byte [] [] shards) throws IOException {
+        final InputStream [] inputs = new InputStream [shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            inputs[i] = (shards[i] == null) ? null : new ByteArrayInputStream(shards[i]);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final long written = new StreamingDecoder(ReedSolomon.create(4, 3), CHUNK_SIZE).decode(inputs, out);
+        assertEquals(out.size(), written);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.javabigo.erasure;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests for StreamingEncoder.
+ *
+ * A small chunk size keeps the stripes short, so that inputs of a few
+ * stripes, and the edge cases around the end of a stripe, are cheap.
+ */
+class StreamingEncoderTest {
+
+    static final int CHUNK_SIZE = 16;
+
+    static final int STRIPE_CAPACITY = 4 * CHUNK_SIZE - StreamingEncoder.LENGTH_BYTES;
+
+    static final int [] LENGTHS = {
+            0, 1, STRIPE_CAPACITY - 1, STRIPE_CAPACITY, STRIPE_CAPACITY + 1,
+            3 * STRIPE_CAPACITY, 3 * STRIPE_CAPACITY + 5
+    };
+
+    @Test
+    void writesOneChunkPerShardPerStripe() throws IOException {
+        for (int length : LENGTHS) {
+            final byte [] input = randomBytes(length, length);
+            final byte [] [] shards = encode(input);
+            // Every stripe but the last is full, so an input that fills
+            // its last stripe gets an empty one after it.
+            final int stripeCount = length / STRIPE_CAPACITY + 1;
+            for (int i = 0; i < shards.length; i++) {
+                assertEquals(stripeCount * CHUNK_SIZE, shards[i].length, "length " + length + ", shard " + i);
+            }
+            assertEquals(length, stripeData(shards).length, "length " + length);
+            assertArrayEquals(input, stripeData(shards), "length " + length);
+        }
+    }
+
+    @Test
+    void eachStripeEndsWithItsLength() throws IOException {
+        final byte [] [] shards = encode(randomBytes(STRIPE_CAPACITY + 5, 1));
+        final byte [] lastDataShard = shards[3];
+        assertEquals(STRIPE_CAPACITY, ByteBuffer.wrap(lastDataShard, CHUNK_SIZE - 8, 8).getLong());
+        assertEquals(5, ByteBuffer.wrap(lastDataShard, 2 * CHUNK_SIZE - 8, 8).getLong());
+
+        // An input that ends at the end of a stripe: the final stripe
+        // is all zeros, including its length.
+        final byte [] [] exact = encode(randomBytes(STRIPE_CAPACITY, 2));
+        for (int i = 0; i < exact.length; i++) {
+            assertArrayEquals(new byte [CHUNK_SIZE],
+                    Arrays.copyOfRange(exact[i], CHUNK_SIZE, 2 * CHUNK_SIZE), "shard " + i);
+        }
+    }
+
+    @Test
+    void parityMatchesReedSolomon() throws IOException {
+        final byte [] [] shards = encode(randomBytes(2 * STRIPE_CAPACITY + 3, 3));
+        final ReedSolomon codec = ReedSolomon.create(4, 3);
+        for (int stripe = 0; stripe < 3; stripe++) {
+            final byte [] [] expected = new byte [7] [];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = Arrays.copyOfRange(shards[i], stripe * CHUNK_SIZE, (stripe + 1) * CHUNK_SIZE);
+            }
+            final byte [] [] actual = new byte [7] [];
+            for (int i = 0; i < actual.length; i++) {
+                actual[i] = (i < 4) ? expected[i].clone() : new byte [CHUNK_SIZE];
+            }
+            codec.encodeParity(actual, 0, CHUNK_SIZE);
+            for (int i = 4; i < 7; i++) {
+                assertArrayEquals(expected[i], actual[i], "stripe " + stripe + ", shard " + i);
+            }
+        }
+    }
+
+    @Test
+    void rejectsBadArguments() {
+        final ReedSolomon codec = ReedSolomon.create(4, 3);
+        assertThrows(IllegalArgumentException.class,
+                () -> new StreamingEncoder(codec, StreamingEncoder.LENGTH_BYTES - 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> new StreamingEncoder(codec, CHUNK_SIZE).encode(
+                        new ByteArrayInputStream(new byte [0]), new OutputStream [6]));
+    }
+
+    @Test
+    void stripeNeedsRoomBesidesTheLength() throws IOException {
+        // One data shard of LENGTH_BYTES holds only the length, so every
+        // stripe would be empty.
+        final ReedSolomon codec = ReedSolomon.create(1, 2);
+        assertThrows(IllegalArgumentException.class,
+                () -> new StreamingEncoder(codec, StreamingEncoder.LENGTH_BYTES));
+
+        // One more byte is one byte of input per stripe: five full
+        // stripes, and then the empty final one.
+        final int chunkSize = StreamingEncoder.LENGTH_BYTES + 1;
+        final byte [] input = {1, 2, 3, 4, 5};
+        final ByteArrayOutputStream [] outputs = new ByteArrayOutputStream [3];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = new ByteArrayOutputStream();
+        }
+        assertEquals(input.length, new StreamingEncoder(codec, chunkSize).encode(new ByteArrayInputStream(input), outputs));
+        assertEquals(6 * chunkSize, outputs[0].size());
+
+        final InputStream [] inputs = {null, new ByteArrayInputStream(outputs[1].toByteArray()), null};
+        final ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        assertEquals(input.length, new StreamingDecoder(codec, chunkSize).decode(inputs, decoded));
+        assertArrayEquals(input, decoded.toByteArray());
+    }
+
+    /**
+     * Encodes the input with 4+3 shards, returning what was written to
+     * each shard.
+     */
+    static byte [] [] encode(byte [] input) throws IOException {
+        final StreamingEncoder encoder = new StreamingEncoder(ReedSolomon.create(4, 3), CHUNK_SIZE);
+        final ByteArrayOutputStream [] outputs = new ByteArrayOutputStream [7];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = new ByteArrayOutputStream();
+        }
+        assertEquals(input.length, encoder.encode(new ByteArrayInputStream(input), outputs));
+        final byte [] [] shards = new byte [outputs.length] [];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = outputs[i].toByteArray();
+        }
+        return shards;
+    }
+
+    static byte [] randomBytes(int length, long seed) {
+        final byte [] bytes = new byte [length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Reads the input back out of the data shards, without decoding,
+     * using the length at the end of each stripe.
+     */
+    private static byte [] stripeData(byte [] [] shards) {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int offset = 0; offset < shards[0].length; offset += CHUNK_SIZE) {
+            int remaining = (int) ByteBuffer.wrap(shards[3], offset + CHUNK_SIZE - 8, 8).getLong();
+            for (int i = 0; i < 4 && 0 < remaining; i++) {
+                int count = Math.min(CHUNK_SIZE, remaining);
+                data.write(shards[i], offset, count);
+                remaining -= count;
+            }
+        }
+        return data.toByteArray();
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.javabigo.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class BigoServiceTest {
+
+    @Test
+    void locationMovesBetweenPolicies() {
+        BigoService bigoService = new BigoService();
+        bigoService.savePackedData("g1", new byte[] {1}, new String[] {"a", "b"}, new int[] {0, 10}, new int[] {10, 10});
+        assertEquals(StoragePolicy.PACKED, bigoService.getPolicyOf("a"));
+
+        // Replicated: the record is kept, and "a" no longer holds g1.
+        bigoService.saveReplica("a", new byte[] {5});
+        assertEquals(StoragePolicy.REPLICATED, bigoService.getPolicyOf("a"));
+        assertArrayEquals(new byte[] {5}, bigoService.getReplicaOf("a"));
+        assertNull(bigoService.getShardOf("a"));
+        assertNull(bigoService.getPackedLocationOf("a"));
+        assertEquals(1, bigoService.groupCount());
+
+        // A node without a copy only knows that it's replicated.
+        bigoService.saveReplica("a", null);
+        assertEquals(StoragePolicy.REPLICATED, bigoService.getPolicyOf("a"));
+        assertNull(bigoService.getReplicaOf("a"));
+
+        // Erasure coded: the shard, and no replica.
+        bigoService.saveData("a", new byte[] {6});
+        assertEquals(StoragePolicy.ERASURE_CODED, bigoService.getPolicyOf("a"));
+        assertArrayEquals(new byte[] {6}, bigoService.getShardOf("a"));
+        assertNull(bigoService.getReplicaOf("a"));
+        assertEquals(4, bigoService.getModificationCountOf("a"));
+
+        assertNull(bigoService.getPolicyOf("unknown"));
+        assertEquals(2, bigoService.mapKeysCount());
+    }
+
+    @Test
+    void packedLocationsPointIntoTheirGroup() {
+        BigoService bigoService = new BigoService();
+        byte[] shard = {1, 2, 3};
+        bigoService.savePackedData("g1", shard, new String[] {"a", "b"}, new int[] {0, 40}, new int[] {40, 25});
+
+        assertEquals(StoragePolicy.PACKED, bigoService.getPolicyOf("a"));
+        BigoService.PackedLocation location = bigoService.getPackedLocationOf("b");
+        assertEquals("g1", location.getGroupId());
+        assertEquals(40, location.getOffset());
+        assertEquals(25, location.getLength());
+        assertArrayEquals(shard, bigoService.getGroupShard("g1"));
+        assertNull(bigoService.getShardOf("a"));
+    }
+
+    @Test
+    void groupIsDroppedOnLastRelease() {
+        BigoService bigoService = new BigoService();
+        bigoService.savePackedData("g1", new byte[] {1}, new String[] {"a", "b", "c"},
+                new int[] {0, 10, 20}, new int[] {10, 10, 10});
+
+        // "a" moves to another stripe, and "b" is overwritten unpacked.
+        bigoService.savePackedData("g2", new byte[] {2}, new String[] {"a"}, new int[] {0}, new int[] {10});
+        bigoService.saveData("b", new byte[] {3});
+        assertEquals(2, bigoService.groupCount());
+        assertEquals("g1", bigoService.getPackedLocationOf("c").getGroupId());
+
+        // The last location in g1 goes, and g1 with it.
+        bigoService.saveReplica("c", new byte[] {4});
+        assertEquals(1, bigoService.groupCount());
+        assertNull(bigoService.getGroupShard("g1"));
+        assertArrayEquals(new byte[] {2}, bigoService.getGroupShard("g2"));
+        assertNull(bigoService.getPackedLocationOf("c"));
+    }
+
+    @Test
+    void movingTheOnlyLocationDropsItsGroup() {
+        BigoService bigoService = new BigoService();
+        bigoService.savePackedData("g1", new byte[] {1}, new String[] {"a"}, new int[] {0}, new int[] {10});
+        bigoService.savePackedData("g2", new byte[] {2}, new String[] {"a", "b"}, new int[] {0, 10}, new int[] {10, 10});
+        assertEquals(1, bigoService.groupCount());
+        assertEquals(2, bigoService.getModificationCountOf("a"));
+        assertEquals(1, bigoService.getModificationCountOf("b"));
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.javabigo.service;
+
+import com.example.javabigo.erasure.CodingLoop;
+import com.example.javabigo.erasure.DefaultCodingLoop;
+import com.example.javabigo.erasure.InputOutputByteTableCodingLoop;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CodingLoopServiceTest {
+
+    private static final String LOOP_NAME = "OutputInputByteTableCodingLoop";
+
+    @Test
+    void overrideIsSavedAndLoadedOnStartup() throws IOException {
+        Path directory = Files.createTempDirectory("coding-loop");
+        Path file = directory.resolve("coding-loop.properties");
+        CodingLoop selectedBefore = DefaultCodingLoop.INSTANCE.getSelected();
+        try {
+            DefaultCodingLoop.INSTANCE.setSelected(new InputOutputByteTableCodingLoop());
+            CodingLoopService service = newService(file);
+            assertEquals("default", service.getSource());
+            assertEquals("4+3@64", service.getGeometryKey());
+
+            service.override(LOOP_NAME);
+            assertEquals(LOOP_NAME, service.getSelectedName());
+            assertEquals("override", service.getSource());
+
+            DefaultCodingLoop.INSTANCE.setSelected(new InputOutputByteTableCodingLoop());
+            CodingLoopService restarted = newService(file);
+            assertEquals(LOOP_NAME, restarted.getSelectedName());
+            assertEquals("file", restarted.getSource());
+        } finally {
+            // The selected loop is global, so put it back.
+            DefaultCodingLoop.INSTANCE.setSelected(selectedBefore);
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    void overrideRejectsUnknownLoop() throws IOException {
+        Path directory = Files.createTempDirectory("coding-loop");
+        Path file = directory.resolve("coding-loop.properties");
+        CodingLoop selectedBefore = DefaultCodingLoop.INSTANCE.getSelected();
+        try {
+            CodingLoopService service = newService(file);
+            assertThrows(IllegalArgumentException.class, () -> service.override("NoSuchCodingLoop"));
+            assertThrows(IllegalArgumentException.class, () -> service.override("DefaultCodingLoop"));
+            assertSame(selectedBefore, DefaultCodingLoop.INSTANCE.getSelected());
+            assertEquals("default", service.getSource());
+            assertFalse(Files.exists(file));
+        } finally {
+            DefaultCodingLoop.INSTANCE.setSelected(selectedBefore);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    void badCalibrationFileKeepsTheSelectedLoop() throws IOException {
+        Path directory = Files.createTempDirectory("coding-loop");
+        Path file = directory.resolve("coding-loop.properties");
+        CodingLoop selectedBefore = DefaultCodingLoop.INSTANCE.getSelected();
+        try {
+            Files.writeString(file, "4+3@64=NoSuchCodingLoop\n");
+            CodingLoopService service = newService(file);
+            assertSame(selectedBefore, DefaultCodingLoop.INSTANCE.getSelected());
+            assertEquals("default", service.getSource());
+        } finally {
+            DefaultCodingLoop.INSTANCE.setSelected(selectedBefore);
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static CodingLoopService newService(Path file) {
+        return new CodingLoopService(new ShardGeometry(7, 0, 3), file.toString(), false, 64);
+    }
+}
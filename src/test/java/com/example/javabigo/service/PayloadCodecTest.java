@@ -0,0 +1,239 @@
+package com.example.javabigo.service;
+
+import com.example.javabigo.Payload;
+import com.example.javabigo.erasure.ReedSolomon;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PayloadCodecTest {
+
+    private static final PayloadCodec.Format[] FORMATS = PayloadCodec.Format.values();
+
+    @Test
+    void defaultFormatIsJson() {
+        assertEquals(PayloadCodec.Format.JSON, new PayloadCodec().getFormat());
+    }
+
+    @Test
+    void roundTripsBetweenFormats() throws IOException {
+        for (Payload payload : samplePayloads()) {
+            for (PayloadCodec.Format writeFormat : FORMATS) {
+                for (PayloadCodec.Format readFormat : FORMATS) {
+                    byte[][] shards = new PayloadCodec(writeFormat).encode(payload);
+                    Payload decoded = new PayloadCodec(readFormat).decode(shards);
+                    assertEquals(payload, decoded, writeFormat + " read as " + readFormat + ": " + payload);
+
+                    byte[] record = new PayloadCodec(writeFormat).encodeRecord(payload);
+                    assertEquals(payload, new PayloadCodec(readFormat).decodeRecord(record),
+                            writeFormat + " record read as " + readFormat + ": " + payload);
+                }
+            }
+        }
+    }
+
+    @Test
+    void decodesWithShardsMissing() throws IOException {
+        PayloadCodec codec = new PayloadCodec(PayloadCodec.Format.BINARY);
+        Payload payload = payload("0f8fad5b-d9cb-469f-a165-70867728950e", 1.5, -20.25, 0.003);
+        byte[][] expected = codec.encode(payload);
+        for (int mask = 0; mask < (1 << expected.length); mask++) {
+            if (PayloadCodec.DEFAULT_PARITY_SHARDS < Integer.bitCount(mask)) {
+                continue;
+            }
+            byte[][] shards = expected.clone();
+            for (int i = 0; i < shards.length; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    shards[i] = null;
+                }
+            }
+            assertEquals(payload, codec.decode(shards), "missing mask " + Integer.toBinaryString(mask));
+        }
+    }
+
+    @Test
+    void decodesEachPackedRecordWithShardsMissing() throws IOException {
+        for (PayloadCodec.Format format : FORMATS) {
+            PayloadCodec codec = new PayloadCodec(format);
+            List<Payload> payloads = samplePayloads();
+            PayloadCodec.PackedStripe stripe = codec.encodePacked(payloads);
+            assertEquals(payloads.size(), stripe.getRecordCount());
+            byte[][] expected = stripe.getShards();
+            for (int mask = 0; mask < (1 << expected.length); mask++) {
+                if (PayloadCodec.DEFAULT_PARITY_SHARDS < Integer.bitCount(mask)) {
+                    continue;
+                }
+                byte[][] shards = expected.clone();
+                for (int i = 0; i < shards.length; i++) {
+                    if ((mask & (1 << i)) != 0) {
+                        shards[i] = null;
+                    }
+                }
+                for (int record = 0; record < stripe.getRecordCount(); record++) {
+                    assertEquals(payloads.get(record),
+                            codec.decodeRecord(shards, stripe.getOffset(record), stripe.getLength(record)),
+                            format + " record " + record + ", missing mask " + Integer.toBinaryString(mask));
+                }
+            }
+        }
+    }
+
+    @Test
+    void decodesEachPackedRecordFromItsColumns() throws IOException {
+        for (PayloadCodec.Format format : FORMATS) {
+            PayloadCodec codec = new PayloadCodec(format);
+            List<Payload> payloads = samplePayloads();
+            PayloadCodec.PackedStripe stripe = codec.encodePacked(payloads);
+            byte[][] expected = stripe.getShards();
+            int shardSize = expected[0].length;
+            for (int record = 0; record < stripe.getRecordCount(); record++) {
+                int offset = stripe.getOffset(record);
+                int length = stripe.getLength(record);
+                byte[][] columns = new byte[expected.length][];
+                for (int i = 0; i < expected.length; i++) {
+                    columns[i] = PayloadCodec.cutRecordColumns(expected[i], offset, length);
+                }
+                if (length <= shardSize) {
+                    assertTrue(columns[0].length < shardSize, format + " record " + record);
+                }
+                int columnOffset = PayloadCodec.recordOffsetInColumns(shardSize, offset, length);
+                for (int mask = 0; mask < (1 << expected.length); mask++) {
+                    if (PayloadCodec.DEFAULT_PARITY_SHARDS < Integer.bitCount(mask)) {
+                        continue;
+                    }
+                    byte[][] shards = columns.clone();
+                    for (int i = 0; i < shards.length; i++) {
+                        if ((mask & (1 << i)) != 0) {
+                            shards[i] = null;
+                        }
+                    }
+                    assertEquals(payloads.get(record), codec.decodeRecord(shards, columnOffset, length),
+                            format + " record " + record + ", missing mask " + Integer.toBinaryString(mask));
+                }
+            }
+        }
+    }
+
+    @Test
+    void cutsOneOrTwoColumnRanges() {
+        byte[] shard = new byte[10];
+        for (int i = 0; i < shard.length; i++) {
+            shard[i] = (byte) i;
+        }
+        // Inside shard 2: columns 3 to 7.
+        assertArrayEquals(new byte[] {3, 4, 5, 6}, PayloadCodec.cutRecordColumns(shard, 23, 4));
+        assertEquals(8, PayloadCodec.recordOffsetInColumns(10, 23, 4));
+        // From column 7 of shard 1 to column 2 of shard 2.
+        assertArrayEquals(new byte[] {0, 1, 7, 8, 9}, PayloadCodec.cutRecordColumns(shard, 17, 5));
+        assertEquals(7, PayloadCodec.recordOffsetInColumns(10, 17, 5));
+        // Longer than a shard.
+        assertArrayEquals(shard, PayloadCodec.cutRecordColumns(shard, 17, 11));
+        assertEquals(17, PayloadCodec.recordOffsetInColumns(10, 17, 11));
+    }
+
+    @Test
+    void binaryIsSmallerThanJson() throws IOException {
+        Payload payload = payload("0f8fad5b-d9cb-469f-a165-70867728950e", 1.5, -20.25, 0.003);
+        int jsonSize = new PayloadCodec(PayloadCodec.Format.JSON).encodeRecord(payload).length;
+        int binarySize = new PayloadCodec(PayloadCodec.Format.BINARY).encodeRecord(payload).length;
+        assertEquals(2 + 16 + 3 * 8 + 2, binarySize);
+        assertTrue(binarySize < jsonSize, binarySize + " bytes, JSON is " + jsonSize);
+    }
+
+    @Test
+    void skipsExtensionBlock() throws IOException {
+        Payload payload = payload("sensor-7", 1.5, null, 0.003);
+        byte[] record = new PayloadCodec(PayloadCodec.Format.BINARY).encodeRecord(payload);
+
+        // A record from a later writer: the same fields, then a three-byte
+        // extension block in place of the empty one.
+        byte[] extended = new byte[record.length + 3];
+        System.arraycopy(record, 0, extended, 0, record.length - 2);
+        extended[record.length - 1] = 3;
+        extended[record.length] = 0x7f;
+        extended[record.length + 1] = 0x01;
+        extended[record.length + 2] = 0x02;
+
+        for (PayloadCodec.Format readFormat : FORMATS) {
+            PayloadCodec codec = new PayloadCodec(readFormat);
+            assertEquals(payload, codec.decodeRecord(extended), readFormat.toString());
+            assertEquals(payload, codec.decode(toShards(extended)), readFormat + " from shards");
+        }
+    }
+
+    @Test
+    void rejectsExtensionPastTheEnd() throws IOException {
+        byte[] record = new PayloadCodec(PayloadCodec.Format.BINARY).encodeRecord(payload("sensor-7", 1.5, null, null));
+        byte[] extended = Arrays.copyOf(record, record.length + 3);
+        extended[record.length - 1] = 4;
+        IOException e = assertThrows(IOException.class, () -> new PayloadCodec().decodeRecord(extended));
+        assertEquals("bad extension length in shards: 4", e.getMessage());
+    }
+
+    @Test
+    void rejectsUnknownBinaryVersion() throws IOException {
+        byte[] record = new PayloadCodec(PayloadCodec.Format.BINARY).encodeRecord(payload(null, 1.0, null, null));
+        record[0] = (byte) (0x80 | (PayloadCodec.BINARY_VERSION + 1));
+        assertThrows(IOException.class, () -> new PayloadCodec().decodeRecord(record));
+    }
+
+    @Test
+    void formatForName() {
+        assertEquals(PayloadCodec.Format.JSON, PayloadCodec.Format.forName("json"));
+        assertEquals(PayloadCodec.Format.BINARY, PayloadCodec.Format.forName(" Binary "));
+        assertThrows(IllegalArgumentException.class, () -> PayloadCodec.Format.forName("xml"));
+    }
+
+    /**
+     * Every kind of id the binary format stores differently, each with and
+     * without the doubles.
+     */
+    private static List<Payload> samplePayloads() {
+        String[] ids = {
+                "0f8fad5b-d9cb-469f-a165-70867728950e",  // lower-case UUID: 16 bytes
+                "0F8FAD5B-D9CB-469F-A165-70867728950E",  // upper-case: kept as a string
+                "sensor-7/ünïcode",                     // not a UUID
+                "",
+                null,
+        };
+        List<Payload> payloads = new ArrayList<>();
+        for (String id : ids) {
+            payloads.add(payload(id, 1.5, -20.25, 0.003));
+            payloads.add(payload(id, null, null, null));
+            payloads.add(payload(id, -0.0, null, Double.MAX_VALUE));
+            payloads.add(payload(id, null, Double.MIN_VALUE, null));
+        }
+        return payloads;
+    }
+
+    private static Payload payload(String id, Double seismicActivity, Double temperatureC, Double radiationLevel) {
+        Payload payload = new Payload();
+        payload.setId(id);
+        payload.setSeismicActivity(seismicActivity);
+        payload.setTemperatureC(temperatureC);
+        payload.setRadiationLevel(radiationLevel);
+        return payload;
+    }
+
+    /**
+     * Splits a record into 4+3 shards the way PayloadCodec does.
+     */
+    private static byte[][] toShards(byte[] record) {
+        int dataShards = PayloadCodec.DEFAULT_DATA_SHARDS;
+        int shardSize = (record.length + dataShards - 1) / dataShards;
+        byte[][] shards = new byte[dataShards + PayloadCodec.DEFAULT_PARITY_SHARDS][shardSize];
+        for (int i = 0; i < record.length; i++) {
+            shards[i / shardSize][i % shardSize] = record[i];
+        }
+        ReedSolomon.create(dataShards, PayloadCodec.DEFAULT_PARITY_SHARDS).encodeParity(shards, 0, shardSize);
+        return shards;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.javabigo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplicationServiceTest {
+
+    @Test
+    void replicaRanksAreAPermutation() {
+        for (int nodeCount = 1; nodeCount <= 11; nodeCount++) {
+            for (String locationId : new String[] {"a", "location-42", UUID.randomUUID().toString()}) {
+                Set<Integer> ranks = new HashSet<>();
+                for (int node = 0; node < nodeCount; node++) {
+                    ranks.add(ReplicationService.replicaRank(locationId, node, nodeCount));
+                }
+                assertEquals(nodeCount, ranks.size(), locationId + " on " + nodeCount + " nodes");
+                for (int rank : ranks) {
+                    assertTrue(0 <= rank && rank < nodeCount);
+                }
+            }
+        }
+    }
+
+    @Test
+    void copiesGoOnConsecutiveNodesFromTheHashedOne() {
+        String locationId = "location-42";
+        int first = Math.floorMod(locationId.hashCode(), 7);
+        for (int i = 0; i < 7; i++) {
+            assertEquals(i, ReplicationService.replicaRank(locationId, (first + i) % 7, 7));
+        }
+    }
+
+    @Test
+    void copiesAreSpreadOverTheCluster() {
+        // With three copies on seven nodes, each node should keep about 3/7
+        // of the locations, not all of them or none.
+        int nodeCount = 7;
+        int copies = 3;
+        int locations = 7000;
+        int[] held = new int[nodeCount];
+        for (int i = 0; i < locations; i++) {
+            String locationId = UUID.nameUUIDFromBytes(Integer.toString(i).getBytes()).toString();
+            for (int node = 0; node < nodeCount; node++) {
+                if (ReplicationService.replicaRank(locationId, node, nodeCount) < copies) {
+                    held[node]++;
+                }
+            }
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            assertTrue(2500 < held[node] && held[node] < 3500, "node " + node + " holds " + held[node]);
+        }
+    }
+}
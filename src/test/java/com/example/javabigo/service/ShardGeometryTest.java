@@ -0,0 +1,70 @@
+package com.example.javabigo.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ShardGeometryTest {
+
+    @Test
+    void dataShardsFillTheCluster() {
+        assertGeometry(4, 3, new ShardGeometry(7, 0, 3));
+        assertGeometry(8, 3, new ShardGeometry(11, 0, 3));
+        assertGeometry(9, 2, new ShardGeometry(11, 0, 2));
+    }
+
+    @Test
+    void smallClusterFallsBackToDefault() {
+        // The default configuration: one node.
+        assertGeometry(PayloadCodec.DEFAULT_DATA_SHARDS, PayloadCodec.DEFAULT_PARITY_SHARDS,
+                new ShardGeometry(1, 0, 3));
+        assertGeometry(PayloadCodec.DEFAULT_DATA_SHARDS, PayloadCodec.DEFAULT_PARITY_SHARDS,
+                new ShardGeometry(3, 0, 3));
+        assertGeometry(PayloadCodec.DEFAULT_DATA_SHARDS, PayloadCodec.DEFAULT_PARITY_SHARDS,
+                new ShardGeometry(6, 4, 3));
+        assertGeometry(1, 3, new ShardGeometry(4, 0, 3));
+    }
+
+    @Test
+    void otherGeometriesMustFitTheCluster() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> new ShardGeometry(8, 6, 3));
+        assertEquals("Geometry 6+3 needs 9 nodes, but there are 8", e.getMessage());
+        e = assertThrows(IllegalArgumentException.class, () -> new ShardGeometry(9, 0, 10));
+        assertEquals("Geometry with 10 parity shards needs at least 11 nodes, but there are 9", e.getMessage());
+
+        // Small clusters only fall back from the default geometry.
+        assertThrows(IllegalArgumentException.class, () -> new ShardGeometry(6, 5, 3));
+        assertThrows(IllegalArgumentException.class, () -> new ShardGeometry(6, 0, 6));
+        assertThrows(IllegalArgumentException.class, () -> new ShardGeometry(3, 4, 2));
+    }
+
+    @Test
+    void explicitDataShardsMustMatchTheCluster() {
+        assertGeometry(8, 3, new ShardGeometry(11, 8, 3));
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> new ShardGeometry(11, 4, 3));
+        assertEquals("Geometry 4+3 needs 7 nodes, but there are 11", e.getMessage());
+    }
+
+    @Test
+    void rejectsBadArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new ShardGeometry(7, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> new ShardGeometry(0, 0, 3));
+        assertThrows(IllegalArgumentException.class, () -> new ShardGeometry(" , ", 0, 3));
+    }
+
+    @Test
+    void countsNodesLikeTheOtherServices() {
+        assertEquals(1, ShardGeometry.countNodes("localhost"));
+        assertEquals(3, ShardGeometry.countNodes(" 10.0.0.1, 10.0.0.2 ,,10.0.0.3, "));
+        assertGeometry(8, 3, new ShardGeometry("a,b,c,d,e,f,g,h,i,j,k,", 0, 3));
+    }
+
+    private static void assertGeometry(int dataShards, int parityShards, ShardGeometry geometry) {
+        assertEquals(dataShards, geometry.getDataShardCount(), geometry.toString());
+        assertEquals(parityShards, geometry.getParityShardCount(), geometry.toString());
+        assertEquals(dataShards + parityShards, geometry.getTotalShardCount(), geometry.toString());
+    }
+}
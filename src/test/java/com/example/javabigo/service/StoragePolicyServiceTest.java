@@ -0,0 +1,76 @@
+package com.example.javabigo.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StoragePolicyServiceTest {
+
+    private static final ShardGeometry SEVEN_NODES = new ShardGeometry(7, 0, 3);
+
+    @Test
+    void autoReplicatesSmallRecords() {
+        StoragePolicyService service = service("auto", 128, 3);
+        assertEquals(StoragePolicy.REPLICATED, service.choose(1));
+        assertEquals(StoragePolicy.REPLICATED, service.choose(128));
+        assertEquals(StoragePolicy.ERASURE_CODED, service.choose(129));
+        assertEquals(StoragePolicy.ERASURE_CODED, service.choose(100_000));
+    }
+
+    @Test
+    void fixedModesIgnoreSize() {
+        StoragePolicyService erasure = service("erasure", 128, 3);
+        StoragePolicyService replication = service("replication", 128, 3);
+        for (int size : new int[] {1, 128, 129, 100_000}) {
+            assertEquals(StoragePolicy.ERASURE_CODED, erasure.choose(size));
+            assertEquals(StoragePolicy.REPLICATED, replication.choose(size));
+        }
+    }
+
+    @Test
+    void modeNamesIgnoreCase() {
+        assertEquals(StoragePolicyService.Mode.AUTO, service(" Auto ", 128, 3).getMode());
+        assertEquals(StoragePolicyService.Mode.ERASURE, StoragePolicyService.Mode.forName("ERASURE"));
+        assertThrows(IllegalArgumentException.class, () -> service("mirror", 128, 3));
+    }
+
+    @Test
+    void replicasMustFitTheCluster() {
+        service("auto", 128, 7);
+        assertThrows(IllegalArgumentException.class, () -> service("auto", 128, 0));
+        assertThrows(IllegalArgumentException.class, () -> service("auto", 128, 8));
+    }
+
+    @Test
+    void replicasMustFitASmallCluster() {
+        // Three nodes still use 4+3, but there are only three to hold copies.
+        ShardGeometry threeNodes = new ShardGeometry(3, 0, 3);
+        assertEquals(7, threeNodes.getTotalShardCount());
+        assertEquals(3, threeNodes.getNodeCount());
+        new StoragePolicyService(null, null, threeNodes, "auto", 128, 3);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> new StoragePolicyService(null, null, threeNodes, "auto", 128, 4));
+        assertEquals("replicas must be between 1 and the number of nodes (3): 4", e.getMessage());
+    }
+
+    @Test
+    void erasureModeStartsOnOneNode() {
+        // The defaults, on the default single-node cluster.  Replicas are
+        // only checked when they can be used.
+        ShardGeometry oneNode = new ShardGeometry(1, 0, 3);
+        StoragePolicyService service = new StoragePolicyService(null, null, oneNode, "erasure", 128, 3);
+        assertEquals(StoragePolicy.ERASURE_CODED, service.choose(1));
+        assertThrows(IllegalArgumentException.class,
+                () -> new StoragePolicyService(null, null, oneNode, "auto", 128, 3));
+        assertThrows(IllegalArgumentException.class,
+                () -> new StoragePolicyService(null, null, oneNode, "replication", 128, 3));
+    }
+
+    /**
+     * choose() doesn't touch the other services, so they aren't needed.
+     */
+    private static StoragePolicyService service(String mode, int replicateMaxBytes, int replicas) {
+        return new StoragePolicyService(null, null, SEVEN_NODES, mode, replicateMaxBytes, replicas);
+    }
+}
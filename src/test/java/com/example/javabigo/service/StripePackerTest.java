@@ -0,0 +1,95 @@
+package com.example.javabigo.service;
+
+import com.example.javabigo.Payload;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StripePackerTest {
+
+    /**
+     * Remembers the location ids of each stripe stored.
+     */
+    private static class RecordingStore implements StripePacker.StripeStore {
+        final List<List<String>> stripes = new ArrayList<>();
+
+        @Override
+        public synchronized void store(String groupId, String[] locationIds, PayloadCodec.PackedStripe stripe) {
+            stripes.add(Arrays.asList(locationIds));
+        }
+    }
+
+    @Test
+    void fullStripeIsWrittenAtOnce() {
+        RecordingStore store = new RecordingStore();
+        StripePacker packer = new StripePacker(new PayloadCodec(), store, 60_000, 2);
+        CompletableFuture<Void> first = packer.add("a", payload("a"));
+        assertFalse(first.isDone());
+        CompletableFuture<Void> second = packer.add("b", payload("b"));
+        assertTrue(first.isDone() && second.isDone());
+        assertEquals(List.of(List.of("a", "b")), store.stripes);
+        packer.shutdown();
+    }
+
+    @Test
+    void shutdownWritesPendingPayloads() {
+        RecordingStore store = new RecordingStore();
+        // A window long enough that only shutdown can write the stripe.
+        StripePacker packer = new StripePacker(new PayloadCodec(), store, 60_000, 256);
+        CompletableFuture<Void> first = packer.add("a", payload("a"));
+        CompletableFuture<Void> second = packer.add("b", payload("b"));
+        packer.shutdown();
+        assertTrue(first.isDone() && !first.isCompletedExceptionally());
+        assertTrue(second.isDone() && !second.isCompletedExceptionally());
+        assertEquals(List.of(List.of("a", "b")), store.stripes);
+
+        // Later writes don't wait for a timer that has stopped.
+        CompletableFuture<Void> late = packer.add("c", payload("c"));
+        assertTrue(late.isDone());
+        assertEquals(List.of(List.of("a", "b"), List.of("c")), store.stripes);
+    }
+
+    @Test
+    void windowWritesPartialStripe() {
+        RecordingStore store = new RecordingStore();
+        StripePacker packer = new StripePacker(new PayloadCodec(), store, 1, 256);
+        packer.add("a", payload("a")).join();
+        assertEquals(List.of(List.of("a")), store.stripes);
+        packer.shutdown();
+    }
+
+    @Test
+    void fullStripeStopsItsWindowTimer() throws Exception {
+        RecordingStore store = new RecordingStore();
+        StripePacker packer = new StripePacker(new PayloadCodec(), store, 400, 2);
+        packer.add("a", payload("a"));
+        Thread.sleep(200);
+        packer.add("b", payload("b"));
+        // The next stripe starts its own window, 200ms after the first's.
+        CompletableFuture<Void> next = packer.add("c", payload("c"));
+
+        // Past the end of the first window, but not the second.
+        Thread.sleep(300);
+        assertFalse(next.isDone());
+        assertEquals(List.of(List.of("a", "b")), store.stripes);
+
+        next.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of(List.of("a", "b"), List.of("c")), store.stripes);
+        packer.shutdown();
+    }
+
+    private static Payload payload(String id) {
+        Payload payload = new Payload();
+        payload.setId(id);
+        payload.setTemperatureC(21.5);
+        return payload;
+    }
+}